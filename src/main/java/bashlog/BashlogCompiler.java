@@ -7,10 +7,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import bashlog.command.Bash;
+import bashlog.plan.AdaptiveJoinNode;
 import bashlog.plan.BashlogOptimizer;
 import bashlog.plan.BashlogPlan;
+import bashlog.plan.DictionaryEncoding;
+import bashlog.plan.DistinctNode;
+import bashlog.plan.FactFiles;
+import bashlog.plan.IncrementalEvaluation;
+import bashlog.plan.MultiQueryNode;
+import bashlog.plan.ResultCache;
 import bashlog.plan.SortNode;
+import bashlog.plan.TSVFileNode;
 import bashlog.translation.BashTranslator;
+import common.Tools;
 import common.parser.Program;
 import common.plan.LogicalPlanBuilder;
 import common.plan.node.*;
@@ -29,6 +38,9 @@ public class BashlogCompiler {
   /** Query plan which should be translated */
   PlanNode root;
 
+  /** In incremental mode, the plan that evaluates the rows appended to the input files (root evaluates everything) */
+  PlanNode incrementalRoot = null;
+
   /** Stores the compiled bash script */
   private String bash = null;
 
@@ -37,13 +49,66 @@ public class BashlogCompiler {
 
   private String debug;
 
-  private List<List<Optimizer>> stages = Arrays.asList(//
-      Arrays.asList(new CombineFacts(), new SimplifyRecursion(), new PushDownJoin(), new ReorderJoinLinear(), new PushDownFilterAndProject(),
-          new SimplifyRecursion(),
-          new PushDownFilterAndProject()),
-      Arrays.asList(new BashlogPlan(), new BashlogOptimizer(), new MultiOutput(), new CombineFilter(false), new Materialize(),
-          new CombineFilter(false)));
-  
+  /** If set, encode the values of the input relations with integer ids */
+  private DictionaryEncoding dictionary = null;
+
+  /** Number of buckets for evaluating recursions in parallel; 0 for the number of processors, null if disabled */
+  private Integer recursionPartitions = null;
+
+  /** Recursions with at most this many rows (including the relations they join with) are computed in memory; 0 if disabled */
+  private long inMemoryRecursionMaxRows = 0;
+
+  /** Number of shards of hash partitioned joins (0: number of processors), null if joins are not partitioned */
+  private Integer exchangePartitions = null;
+
+  /** Joins are only hash partitioned if both inputs have at least this many rows */
+  private double exchangeMinRows = BashlogPlan.EXCHANGE_MIN_ROWS;
+
+  /** Sort joins choose at runtime to keep an input of at most this many bytes in memory instead; 0 if disabled */
+  private long adaptiveJoinMaxBytes = 0;
+
+  /** Keep the full relation of recursions as sorted runs, merging this many runs of a tier; 0 if disabled */
+  private int recursionRunsFanIn = 0;
+
+  /** Maximum number of materializations that run at the same time; 0 for the number of processors */
+  private int jobSlots = 0;
+
+  /** Stream reused plans to their consumers through named pipes, if they all read it at the same time */
+  private boolean streamingMaterialization = false;
+
+  /** Output the result in any order, deduplicating it in hash tables of at most this many rows; 0 to sort the result */
+  private long unorderedMaxRows = 0;
+
+  /** If set, the script records rows, bytes and time of the commands in this file (see Profile) */
+  private String profileLog = null;
+
+  /** Store temporary files compressed */
+  private boolean compressTemporaryFiles = false;
+
+  /** If set, order joins based on the statistics of the input relations */
+  private Statistics statistics = null;
+
+  /** Declared keys of the input relations */
+  private Keys keys = new Keys();
+
+  /** If set, keep the results in a state directory, and evaluate only the rows appended to the input files in later runs */
+  private IncrementalEvaluation incremental = null;
+
+  /** If set, materialized relations and results of recursions are reused across runs */
+  private ResultCache resultCache = null;
+
+  /** If set, fact nodes with many facts are written to sorted files in this directory at compile time */
+  private FactFiles factFiles = null;
+
+  /** Memory for all sort commands of a run together, in MB; 0 to use the available memory */
+  private long memoryBudget = 0;
+
+  /** Directory for the (large) temporary files of a run; null for $TMPDIR, or /tmp if not set */
+  private String scratchDirectory = null;
+
+  /** Directory on a RAM disk for small intermediate results of a run; null to use the scratch directory */
+  private String ramDirectory = "/dev/shm";
+
 
   private Map<Class<?>, BashTranslator> translators = new HashMap<>();
 
@@ -61,42 +126,109 @@ public class BashlogCompiler {
     isInitialized = true;
     // register translators
     Arrays.asList(
+        new bashlog.translation.AdaptiveJoin(),
         new bashlog.translation.BashCmd(),
         new bashlog.translation.CombineColumns(),
+        new bashlog.translation.CrossProduct(),
+        new bashlog.translation.Distinct(),
+        new bashlog.translation.Exchange(),
         new bashlog.translation.FileInput(),
+        new bashlog.translation.HashJoin(),
         new bashlog.translation.Join(),
         new bashlog.translation.Materialization(),
         new bashlog.translation.MultiFilter(),
         new bashlog.translation.MultiOutput(),
+        new bashlog.translation.MultiQuery(),
         new bashlog.translation.ProjectFilter(),
         new bashlog.translation.Recursion(),
+        new bashlog.translation.SemiJoinFilter(),
         new bashlog.translation.Sort(),
         new bashlog.translation.Union(),
-        new bashlog.translation.Fact()
+        new bashlog.translation.Fact(),
+        new bashlog.translation.Dictionary()
     ).forEach(t -> t.supports().forEach(c -> translators.put(c, t)));
     
     if (debugBuilder != null) {
       debugBuilder.append("orig\n");
       debugBuilder.append(root.toPrettyString() + "\n");
     }
-    root = new SortNode(root, null);
+    if (dictionary != null && incremental != null) {
+      LOG.warn("incremental evaluation does not support dictionary encoding; evaluating everything in every run");
+      incremental = null;
+    }
+    if (dictionary != null) {
+      root = dictionary.apply(root);
+      if (statistics != null) {
+        // encoding keeps row counts and distinct values
+        dictionary.getInputs().forEach((input, file) -> statistics.alias(file, input));
+      }
+      // encoding maps different values to different ids
+      dictionary.getInputs().forEach((input, file) -> keys.alias(new TSVFileNode(file, input.getArity()), input));
+    }
+    if (root instanceof MultiQueryNode) {
+      root = ((MultiQueryNode) root).mapQueries(this::removeDuplicates);
+    } else {
+      root = removeDuplicates(root);
+    }
+
+    // unions might still become multi outputs, so only the last pass of BashlogOptimizer relies on their output
+    List<Optimizer> simplification = new ArrayList<>(Arrays.asList(new CombineFacts(), new SimplifyRecursion(), new PushDownJoin(),
+        new EliminateSelfJoin(keys), new ReorderJoinLinear(statistics), new PushDownFilterAndProject(), new SimplifyRecursion(),
+        new PushDownFilterAndProject()));
+    if (factFiles != null) {
+      // after the facts of a relation were combined
+      simplification.add(1, factFiles);
+    }
+    List<List<Optimizer>> stages = Arrays.asList(//
+        simplification,
+        Arrays.asList(new BashlogPlan(statistics, exchangePartitions != null, exchangeMinRows, adaptiveJoinMaxBytes), new BashlogOptimizer(null), new MultiOutput(),
+            new CombineFilter(false), new Materialize(), new CombineFilter(false), new BashlogOptimizer(unorderedMaxRows == 0, keys)));
 
 
     List<String> stageNames = Arrays.asList("simplification", "optimization", "transforming to bashlog plan");
     //root = Optimizer.applyOptimizer(root, stageNames, stages, debugBuilder);
-    if (debugBuilder == null) {
-      root = Optimizer.applyOptimizer(root, stages);
-    } else {
-      try {
-        root = Optimizer.applyOptimizer(root, stageNames, stages, debugBuilder);
-      } catch (Exception e) {
-        throw e;
-      } finally {
+    try {
+      if (incremental == null) {
+        root = optimize(root, stageNames, stages);
+      } else {
+        // both plans are optimized separately, so that they don't share materializations
+        root = optimize(root, stageNames.subList(0, 1), stages.subList(0, 1));
+        try {
+          incremental.apply(root);
+          incrementalRoot = optimize(incremental.getIncrementalPlan(), stageNames.subList(1, 2), stages.subList(1, 2));
+          root = incremental.getFullPlan();
+        } catch (IncrementalEvaluation.UnsupportedPlanException e) {
+          LOG.warn(e.getMessage() + "; evaluating everything in every run");
+          incremental = null;
+        }
+        root = optimize(root, stageNames.subList(1, 2), stages.subList(1, 2));
+      }
+    } finally {
+      if (debugBuilder != null) {
         debug = "#" + debugBuilder.toString().replaceAll("\n", "\n# ");
       }
     }
   }
 
+  private PlanNode optimize(PlanNode plan, List<String> stageNames, List<List<Optimizer>> stages) {
+    if (debugBuilder == null) {
+      return Optimizer.applyOptimizer(plan, stages);
+    }
+    return Optimizer.applyOptimizer(plan, stageNames, stages, debugBuilder);
+  }
+
+  /** Remove the duplicates of the result: sort it, or in unordered mode, use a hash table if the result is not known to be too large */
+  private PlanNode removeDuplicates(PlanNode query) {
+    if (unorderedMaxRows > 0) {
+      Statistics.Stats estimate = statistics == null ? null : new CostModel(statistics, query).estimate(query);
+      if (estimate == null || estimate.rows <= unorderedMaxRows) {
+        return new DistinctNode(query);
+      }
+      LOG.info("sorting the result, as it is estimated to have " + (long) estimate.rows + " rows");
+    }
+    return new SortNode(query, null);
+  }
+
   public String compile() {
     if (bash == null) {
       bash = compile("", "", true);
@@ -116,37 +248,353 @@ public class BashlogCompiler {
     
     // set LC_ALL for efficiency and consistency between sort and join command
     header.append("export LC_ALL=C\n");
-    // for temporary files
-    header.append("mkdir -p tmp\n");
-    header.append("rm -f tmp/*\n");
+    // temporary files of this run: large ones in $tmp, small ones in $shm; both are removed on exit
+    String scratch = scratchDirectory == null ? "${TMPDIR:-/tmp}" : scratchDirectory;
+    header.append("tmp=$(mktemp -d \"" + scratch + "/bashlog.XXXXXX\") || exit 1\n");
+    if (ramDirectory != null) {
+      header.append("shm=$(mktemp -d \"" + ramDirectory + "/bashlog.XXXXXX\" 2> /dev/null) || shm=$tmp\n");
+    } else {
+      header.append("shm=$tmp\n");
+    }
+    header.append("trap 'rm -rf \"$tmp\" \"$shm\"' EXIT\n");
+    header.append("trap 'exit 1' INT TERM HUP\n");
+    // AWK programs access the directories via ENVIRON; TMPDIR stays as it is for the commands of bash rules
+    header.append("export tmp shm\n");
     // use mawk if possible for better performance
     header.append("if type mawk > /dev/null; then awk=\"mawk\"; else awk=\"awk\"; fi\n");
-    // tweak sort
-    header.append("sort=\"sort \"\n");
+    header.append("cores=$(nproc 2> /dev/null || getconf _NPROCESSORS_ONLN 2> /dev/null || echo 1)\n");
+    if (recursionPartitions != null) {
+      header.append("recursion_partitions=" + (recursionPartitions > 0 ? recursionPartitions : "$cores") + "\n");
+    }
+    if (exchangePartitions != null && contains(ExchangeNode.class)) {
+      header.append("exchange_partitions=" + (exchangePartitions > 0 ? exchangePartitions : "$cores") + "\n");
+    }
+    // tweak sort: each sort that might run at the same time gets an equal share of the cores and the memory
+    header.append("sort=\"sort -T $tmp \"\n");
     header.append("check() { grep -- $1 <(sort --help) > /dev/null; }\n");
+    header.append("memory=$(awk '/^MemAvailable:/ { print int($2 / 1024) }' /proc/meminfo 2> /dev/null)\n");
+    header.append("[ -n \"$memory\" ] || memory=$(( $(sysctl -n hw.memsize 2> /dev/null || echo 1073741824) / 1048576 ))\n");
+    if (memoryBudget > 0) {
+      header.append("[ $memory -gt " + memoryBudget + " ] && memory=" + memoryBudget + "\n");
+    }
+    int[] sorts = concurrentSorts(root);
+    if (incrementalRoot != null) {
+      // only one of the plans runs
+      int[] incSorts = concurrentSorts(incrementalRoot);
+      for (int i = 0; i < sorts.length; i++) {
+        sorts[i] = Math.max(sorts[i], incSorts[i]);
+      }
+    }
+    if (sorts[0] + sorts[1] + sorts[2] + sorts[3] == 0) {
+      sorts[0] = 1;
+    }
+    if (contains(MaterializationNode.class)) {
+      header.append("job_slots=" + (jobSlots > 0 ? jobSlots : "$cores") + "\n");
+    }
+    header.append("concurrent_sorts=$(( " + sorts[0] + (sorts[1] > 0 ? " + " + sorts[1] + " * recursion_partitions" : "")
+        + (sorts[2] > 0 ? " + " + sorts[2] + " * exchange_partitions" : "")
+        + (sorts[3] > 0 ? " + " + sorts[3] + " * (job_slots < " + sorts[4] + " ? job_slots : " + sorts[4] + ")" : "") + " ))\n");
+    header.append("sort_memory=$(( memory / concurrent_sorts )); [ $sort_memory -ge 16 ] || sort_memory=16\n");
+    header.append("sort_parallel=$(( cores / concurrent_sorts )); [ $sort_parallel -ge 1 ] || sort_parallel=1\n");
+    header.append("check \"--buffer-size\" && sort=\"$sort --buffer-size=${sort_memory}M \"\n");
+    header.append("check \"--parallel\"    && sort=\"$sort --parallel=$sort_parallel \"\n\n");
+    if (compressTemporaryFiles) {
+      // fastest available compression program; also used by awk for writing files
+      header.append("for compress in lz4 zstd gzip; do type $compress > /dev/null 2>&1 && break; done\n");
+      header.append("if type $compress > /dev/null 2>&1; then\n");
+      header.append("  check \"--compress-program\" && sort=\"$sort --compress-program=$compress \"\n");
+      header.append("else\n");
+      // none available: the files stay plain, with a program that skips the options and copies the input (or files)
+      header.append("  printf '#!/bin/sh\\nwhile [ \"${1#-}\" != \"$1\" ]; do shift; done\\nexec cat \"$@\"\\n' > \"$shm/plain\"\n");
+      header.append("  compress=\"sh $shm/plain\"\n");
+      header.append("fi\n");
+      header.append("export compress\n\n");
+    }
+    
+    if (recursionRunsFanIn > 0) {
+      // add sorted run $2 with id $3 to the runs $1.t[tier].[id]; if a tier has enough runs, merge them into the next tier
+      header.append("lsm_fanin=" + recursionRunsFanIn + "\n");
+      header.append("lsm_add() {\n");
+      header.append("  local t=0 runs\n");
+      header.append("  cp \"$2\" \"$1.t0.$3\"\n");
+      header.append("  while runs=( \"$1\".t$t.* ) && [ ${#runs[@]} -ge $lsm_fanin ]; do\n");
+      header.append("    $sort -m -o \"$1.t$((t + 1)).$3\" \"${runs[@]}\" && rm \"${runs[@]}\"; t=$((t + 1))\n");
+      header.append("  done\n");
+      header.append("}\n\n");
+    }
 
-    // count sort usage
-    int sortBuffer = (int) Math.ceil(100. / Math.max(1, countConcurrentSorts(root)));
+    if (contains(MaterializationNode.class)) {
+      // run the jobs (functions) given as name:dependency,... in the background, each once its dependencies finished,
+      // and at most $job_slots at the same time; returns when all jobs finished. Jobs run the jobs of their own
+      // materializations one after another, so that all nested calls share the slots of the outermost one.
+      // Fails if a job failed; the jobs that depend on it are not started
+      header.append("run_jobs() {\n");
+      header.append("  local todo=( \"$@\" ) running=() finished=\" \" failed=0 i job deps dep ready\n");
+      header.append("  while [ ${#todo[@]} -gt 0 ] || [ ${#running[@]} -gt 0 ]; do\n");
+      header.append("    for i in \"${!todo[@]}\"; do\n");
+      header.append("      [ ${#running[@]} -lt $job_slots ] || break\n");
+      header.append("      job=${todo[i]%%:*}; deps=${todo[i]#*:}; ready=1\n");
+      header.append("      for dep in ${deps//,/ }; do [[ $finished == *\" $dep \"* ]] || ready=0; done\n");
+      header.append("      [ $ready = 1 ] || continue\n");
+      header.append("      job_slots=1 $job & running+=( \"$!:$job\" ); unset \"todo[i]\"\n");
+      header.append("    done\n");
+      // no job can start: dependencies are missing
+      header.append("    [ ${#running[@]} -gt 0 ] || return 1\n");
+      // wait -n needs bash 4.3, older versions poll
+      header.append("    wait -n 2> /dev/null; [ $? != 2 ] || sleep 0.1\n");
+      header.append("    for i in \"${!running[@]}\"; do\n");
+      header.append("      kill -0 ${running[i]%%:*} 2> /dev/null && continue\n");
+      header.append("      wait ${running[i]%%:*} && finished=\"$finished${running[i]#*:} \" || failed=1; unset \"running[i]\"\n");
+      header.append("    done\n");
+      header.append("  done\n");
+      header.append("  return $failed\n");
+      header.append("}\n\n");
+    }
+
+    if (resultCache != null) {
+      header.append(resultCacheFunctions());
+    }
+
+    int profilePlanPosition = header.length();
+    if (profileLog != null) {
+      // copy input to output, and log plan node $1, rows, bytes, and seconds until the end of the input
+      header.append("clock=\"date +%s%N\"; [ \"$(date +%N)\" = N ] && clock=\"date +%s000000000\"\n");
+      header.append("profile() { $awk -v node=\"$1\" -v start=\"$($clock)\" -v clock=\"$clock\" -v out=\"$profile_log\" ");
+      header.append("'{ print; bytes += length($0) + 1 } END { clock | getline end; ");
+      header.append("printf \"%s\\t%d\\t%d\\t%.3f\\n\", node, NR, bytes, (end - start) / 1e9 >> out }'; }\n\n");
+    }
 
-    header.append("check \"--buffer-size\" && sort=\"$sort --buffer-size=" + sortBuffer + "% \"\n");
-    header.append("check \"--parallel\"    && sort=\"$sort --parallel=2 \"\n\n");
-    
     // n-triple support
     header.append("read_ntriples() { $awk -F\" \" '{ sub(\" \", \"\\t\"); sub(\" \", \"\\t\"); sub(/ \\.$/, \"\"); print $0 }' \"$@\"; }\n");
     header.append("conv_ntriples() { $awk -F$'\\t' '{ print $1 \" \" $2 \" \" $3 \" .\" }'; }\n\n\n");
 
-    CompilerInternals bc = new CompilerInternals(translators, root);
-    Bash e = bc.compile(root);
-    String result = header.toString() + e.generate() + postCmd + "\n\n rm -f tmp/*\n";
+    CompilerInternals bc = internals(root);
+    if (dictionary != null && dictionary.isActive()) {
+      header.append(bashlog.translation.Dictionary.encode(dictionary, bc).generate()).append("\n\n");
+    }
+    String body = output(bc.compile(root));
+    CompilerInternals ibc = null;
+    if (incrementalRoot != null) {
+      ibc = internals(incrementalRoot);
+      body = "if [ $incremental = 1 ]; then\n" + output(ibc.compile(incrementalRoot)) + "\nelse\n" + body + "\nfi\n";
+      header.append(incrementalState(fingerprint(body)));
+      // keep the old state if a command or pipe of the evaluation fails (jobs and run_jobs report their failures)
+      body = "( set -o pipefail; trap 'exit 1' ERR\n" + body + ")\n[ $? = 0 ] && state_commit\n";
+    }
+    if (profileLog != null) {
+      // the plan with the ids of the profiled nodes, to render the profile (see Profile)
+      StringBuilder plan = new StringBuilder();
+      plan.append("profile_log=\"" + profileLog + "\"\n");
+      plan.append("cat > \"$profile_log\" <<'EOF'\n");
+      Map<PlanNode, CompilerInternals> plans = new LinkedHashMap<>();
+      plans.put(root, bc);
+      if (incrementalRoot != null) {
+        plans.put(incrementalRoot, ibc);
+      }
+      plans.forEach((p, internals) -> {
+        String pretty = p.toPrettyString((node, str) -> str + "\t" + Objects.toString(internals.profileId(node), ""),
+            PlaceholderNode.placeholderToParentMap(p));
+        for (String line : pretty.split("\n")) {
+          plan.append("# ").append(line).append("\n");
+        }
+      });
+      plan.append("EOF\n");
+      header.insert(profilePlanPosition, plan);
+    }
+    String result = header.toString() + body + postCmd + "\n";
 
     return result;
   }
 
-  private int countConcurrentSorts(PlanNode p) {
-    if (p instanceof SortNode) {
-      return Math.max(1, countConcurrentSorts(((SortNode) p).getTable()));
+  private CompilerInternals internals(PlanNode plan) {
+    CompilerInternals bc = new CompilerInternals(translators, plan);
+    bc.setPartitionedRecursion(recursionPartitions != null);
+    bc.setInMemoryRecursionMaxRows(inMemoryRecursionMaxRows);
+    bc.setCompressTemporaryFiles(compressTemporaryFiles);
+    bc.setRecursionRunsFanIn(recursionRunsFanIn);
+    bc.setProfiling(profileLog != null);
+    bc.setUnorderedMaxRows(unorderedMaxRows);
+    bc.setStreamingMaterialization(streamingMaterialization);
+    bc.setResultCache(resultCache);
+    return bc;
+  }
+
+  /**
+   * Functions and variables of the incremental evaluation. The script evaluates incrementally if the state directory
+   * was written by a script with the same body (identified by its fingerprint), and if all input files only grew since then.
+   * The checksum of an input file is only recorded if it ends with a line break, as the last row might still be written.
+   * state_commit replaces the state by the new one after the plan was evaluated, if no command (or pipe) of the plan failed.
+   */
+  private String incrementalState(String fingerprint) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("# incremental evaluation\n");
+    sb.append("state=\"" + incremental.getStateDirectory() + "\"\n");
+    sb.append("mkdir -p \"$state\" && rm -f \"$state\"/*.new || exit 1\n");
+    sb.append("incremental=0; [ \"$(cat \"$state/version\" 2> /dev/null)\" = " + fingerprint + " ] && incremental=1\n");
+    // write the rows appended to input file $1 since the last run to $3; record its checksum and size in $state/input$2.new
+    sb.append("state_delta() {\n");
+    sb.append("  local old=( $(cat \"$state/input$2\" 2> /dev/null) ) new=( $(cksum < \"$1\") )\n");
+    sb.append("  if [ $incremental = 1 ] && [ ${#old[@]} = 2 ] && [ ${new[1]} -ge ${old[1]} ] ");
+    sb.append("&& [ \"$(head -c ${old[1]} \"$1\" | cksum)\" = \"${old[*]}\" ]; then\n");
+    sb.append("    tail -c +$(( old[1] + 1 )) \"$1\" | head -c $(( new[1] - old[1] )) > \"$3\"\n");
+    sb.append("  else\n");
+    sb.append("    incremental=0\n");
+    sb.append("  fi\n");
+    sb.append("  if [ -z \"$(head -c ${new[1]} \"$1\" | tail -c 1)\" ]; then echo \"${new[*]}\" > \"$state/input$2.new\"; ");
+    sb.append("else rm -f \"$state/input$2\"; fi\n");
+    sb.append("}\n");
+    sb.append("state_commit() {\n");
+    sb.append("  local f\n");
+    sb.append("  rm -f \"$state/version\"\n");
+    sb.append("  for f in \"$state\"/*.new; do mv \"$f\" \"${f%.new}\"; done\n");
+    sb.append("  echo " + fingerprint + " > \"$state/version\"\n");
+    sb.append("}\n");
+    int i = 0;
+    for (Map.Entry<String, String> input : incremental.getInputs().entrySet()) {
+      sb.append("state_delta \"" + input.getKey() + "\" " + i++ + " " + input.getValue() + "\n");
+    }
+    return sb.append("\n").toString();
+  }
+
+  /**
+   * Functions of the result cache (see ResultCache). The key of a relation is the fingerprint of its plan, followed by
+   * the compression program of the run (if any), and the checksum of the paths, sizes, modification times and inodes of
+   * its input files. Reading a relation from the cache updates its modification time, so that cache_put removes the least
+   * recently used relations if the cache is too large.
+   * Relations are first copied to a temporary file (which starts with a dot), so that other runs only see complete files.
+   */
+  private String resultCacheFunctions() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("# result cache\n");
+    sb.append("cache=\"" + resultCache.getDirectory() + "\"\n");
+    sb.append("cache_size=" + resultCache.getMaxMegabytes() * 1024 + "\n");
+    sb.append("mkdir -p \"$cache\" || exit 1\n");
+    sb.append("cache_key() {\n");
+    sb.append("  local f\n");
+    sb.append("  echo \"$1${compress:+_${compress##*/}}_$(for f in \"${@:2}\"; do echo \"$f\"; ");
+    sb.append("stat -L -c '%s %y %i' \"$f\" 2> /dev/null || stat -L -f '%z %Fm %i' \"$f\" 2> /dev/null; done | cksum | tr ' ' _)\"\n");
+    sb.append("}\n");
+    sb.append("cache_get() { cp \"$cache/$1\" \"$2\" 2> /dev/null && touch \"$cache/$1\"; }\n");
+    sb.append("cache_put() {\n");
+    sb.append("  local t f size\n");
+    sb.append("  t=$(mktemp \"$cache/.put.XXXXXX\") && cp \"$2\" \"$t\" && mv \"$t\" \"$cache/$1\" || { rm -f \"$t\"; return; }\n");
+    sb.append("  size=$(du -sk \"$cache\" | cut -f1)\n");
+    sb.append("  for f in $(ls -tr \"$cache\"); do\n");
+    sb.append("    [ $size -gt $cache_size ] || break\n");
+    sb.append("    size=$(( size - $(du -k \"$cache/$f\" 2> /dev/null | cut -f1) + 0 ))\n");
+    sb.append("    rm -f \"$cache/$f\"\n");
+    sb.append("  done\n");
+    sb.append("}\n\n");
+    return sb.toString();
+  }
+
+  /** Hash of the body of the script, which identifies the relations of the state */
+  private String fingerprint(String body) {
+    return Tools.md5(incremental.getStateDirectory() + body);
+  }
+
+  /** Whether one of the plans contains a node of that class */
+  private boolean contains(Class<?> nodeClass) {
+    return contains(root, nodeClass) || (incrementalRoot != null && contains(incrementalRoot, nodeClass));
+  }
+
+  /** The script that prints the result, which is a plain file if the plan is (e.g., sorted facts) */
+  private static String output(Bash result) {
+    return (result instanceof Bash.BashFile ? "cat " : "") + result.generate();
+  }
+
+  /** Whether the plan contains a node of that class */
+  private static boolean contains(PlanNode plan, Class<?> nodeClass) {
+    boolean[] result = new boolean[] { false };
+    plan.transform(n -> {
+      result[0] |= nodeClass.isInstance(n);
+      return n;
+    });
+    return result[0];
+  }
+
+  /**
+   * Upper bound of the number of sort commands that run at the same time, as a + b * (number of recursion partitions)
+   * + c * (number of exchange partitions) + d * min(job slots, e), where e is the largest number of jobs of one run_jobs.
+   * Pipelined commands and background materializations run concurrently, the steps of a recursion one after another.
+   */
+  private int[] concurrentSorts(PlanNode p) {
+    if (p instanceof PlaceholderNode) {
+      return new int[] { 0, 0, 0, 0, 0 };
+    }
+    if (p instanceof ExchangeNode) {
+      // the inputs are split before the shard plan runs once per shard (shard plans contain no recursions)
+      ExchangeNode e = (ExchangeNode) p;
+      int[] shard = concurrentSorts(e.getShardPlan());
+      int[] result = new int[] { 0, 0, shard[0] + shard[2] + shard[3] * shard[4], 0, 0 };
+      for (PlanNode input : e.getInputs()) {
+        result = max(result, concurrentSorts(input));
+      }
+      return result;
+    }
+    if (p instanceof AdaptiveJoinNode) {
+      // the inputs run while one of the alternatives reads them
+      AdaptiveJoinNode a = (AdaptiveJoinNode) p;
+      int[] result = new int[] { 0, 0, 0, 0, 0 };
+      for (PlanNode alternative : Arrays.asList(a.getBuildLeftPlan(), a.getBuildRightPlan(), a.getSortPlan())) {
+        result = max(result, concurrentSorts(alternative));
+      }
+      return sum(result, sum(concurrentSorts(a.getLeft()), concurrentSorts(a.getRight())));
     }
-    return p.children().stream().mapToInt(c -> countConcurrentSorts(c)).sum();
+    if (p instanceof RecursionNode) {
+      RecursionNode r = (RecursionNode) p;
+      int[] exit = concurrentSorts(r.getExitPlan()), rec = concurrentSorts(r.getRecursivePlan());
+      if (recursionPartitions != null) {
+        // the recursive plan runs once per partition (partitioned plans contain no nested recursions)
+        rec = new int[] { 0, rec[0] + rec[1] + rec[3] * rec[4], 0, 0, 0 };
+      }
+      // merging the delta into the full relation needs one sort
+      return max(new int[] { 1, 0, 0, 0, 0 }, max(exit, rec));
+    }
+    if (p instanceof MultiQueryNode) {
+      // queries are evaluated one after another
+      return p.children().stream().map(this::concurrentSorts).reduce(new int[] { 0, 0, 0, 0, 0 }, BashlogCompiler::max);
+    }
+    if (p instanceof MaterializationNode) {
+      // the reused plans of a chain are the jobs of one run_jobs, which finishes before the main plan starts
+      List<int[]> jobs = new ArrayList<>();
+      for (; p instanceof MaterializationNode; p = ((MaterializationNode) p).getMainPlan()) {
+        int[] job = concurrentSorts(((MaterializationNode) p).getReusedPlan());
+        // within a job, the jobs of nested materializations run one after another
+        jobs.add(new int[] { job[0] + job[3], job[1], job[2], 0, 0 });
+      }
+      // only jobs with sorts count (e.g., not the ones that read a file)
+      jobs.removeIf(job -> job[0] + job[1] + job[2] == 0);
+      int[] phase = jobs.size() == 1 ? jobs.get(0) : new int[] { 0, 0, 0, 0, jobs.size() };
+      if (jobs.size() > 1) {
+        for (int[] job : jobs) {
+          phase = sum(phase, new int[] { 0, job[1], job[2], 0, 0 });
+          phase[3] = Math.max(phase[3], job[0]);
+        }
+      }
+      // a streamed materialization runs together with the main plan
+      return streamingMaterialization ? sum(phase, concurrentSorts(p)) : max(phase, concurrentSorts(p));
+    }
+    int[] result = new int[] { 0, 0, 0, 0, 0 };
+    // a merge (sort -m) needs no buffer; a distinct node (and a union in unordered mode) falls back to sort if there are too many rows
+    if ((p instanceof SortNode && !((SortNode) p).merge()) || p instanceof DistinctNode
+        || (p.getClass() == UnionNode.class && !p.children().isEmpty())) {
+      result[0]++;
+    }
+    for (PlanNode c : p.children()) {
+      result = sum(result, concurrentSorts(c));
+    }
+    return result;
+  }
+
+  /** Sorts of plans that run at the same time (see concurrentSorts) */
+  private static int[] sum(int[] a, int[] b) {
+    return new int[] { a[0] + b[0], a[1] + b[1], a[2] + b[2], a[3] + b[3], Math.max(a[4], b[4]) };
+  }
+
+  /** Sorts of plans that run one after another (see concurrentSorts) */
+  private static int[] max(int[] a, int[] b) {
+    return new int[] { Math.max(a[0], b[0]), Math.max(a[1], b[1]), Math.max(a[2], b[2]), Math.max(a[3], b[3]), Math.max(a[4], b[4]) };
   }
 
   public String debugInfo() {
@@ -175,15 +623,235 @@ public class BashlogCompiler {
     TreeMap<String, PlanNode> plan = new LogicalPlanBuilder(builtin, Collections.singleton(relation)).getPlanForProgram(p);
 
     BashlogCompiler bc = new BashlogCompiler(plan.get(relation));
+    bc.keys = keys(p, builtin);
+    return bc;
+  }
+
+  /**
+   * Initialize bashlog compiler with program and several query relations, which are compiled into one script.
+   * The queries share common subplans; the script writes the result of every query to its file.
+   * @param queryToFile map from query relation to the output file of its result
+   */
+  public static BashlogCompiler prepareQueries(Program p, Map<String, String> queryToFile) {
+    Set<String> builtin = new HashSet<>();
+    builtin.add("bash_command");
+
+    Map<String, String> relationToFile = new LinkedHashMap<>();
+    queryToFile.forEach((query, file) -> {
+      String relation = p.searchRelation(query);
+      if (relation == null) throw new IllegalArgumentException("relation not found: " + query);
+      relationToFile.put(relation, file);
+    });
+    TreeMap<String, PlanNode> plan = new LogicalPlanBuilder(builtin, new HashSet<>(relationToFile.keySet())).getPlanForProgram(p);
+
+    List<PlanNode> queries = new ArrayList<>();
+    relationToFile.keySet().forEach(relation -> queries.add(plan.get(relation)));
+    BashlogCompiler bc = new BashlogCompiler(new MultiQueryNode(queries, new ArrayList<>(relationToFile.values())));
+    bc.keys = keys(p, builtin);
     return bc;
   }
 
+  /** Attach the declared keys of the program to the plans of their relations */
+  private static Keys keys(Program p, Set<String> builtin) {
+    Keys keys = new Keys();
+    if (!p.keys().isEmpty()) {
+      TreeMap<String, PlanNode> plans = new LogicalPlanBuilder(builtin, new HashSet<>(p.keys().keySet())).getPlanForProgram(p);
+      p.keys().forEach((relation, columns) -> columns.forEach(c -> keys.add(plans.get(relation), c)));
+    }
+    return keys;
+  }
+
   public void enableDebug() {
     if (this.debugBuilder == null) {
       this.debugBuilder = new StringBuilder();
     }
   }
 
+  /**
+   * Encode the values of all input relations as integer ids before executing the plan, and decode the result.
+   * @param dictionaryFile the dictionary of previous runs is read at compile time (if it exists), and updated by the script
+   */
+  public void enableDictionary(String dictionaryFile) {
+    this.dictionary = new DictionaryEncoding(dictionaryFile);
+  }
+
+  /**
+   * Keep the results and the full relations of recursions in a state directory. If the input files of a later run only
+   * received appended rows, the script evaluates the plan for these rows, and merges the new rows into the stored
+   * relations, instead of evaluating everything again. The script evaluates everything if an input file changed in
+   * another way, or if the state was written by another script. Not supported with dictionary encoding, and for
+   * plans with bash commands other than "cat file", or negations of relations that depend on the input files;
+   * the script then evaluates everything in every run.
+   * @param stateDirectory directory of the state, which is created if necessary
+   */
+  public void enableIncremental(String stateDirectory) {
+    this.incremental = new IncrementalEvaluation(stateDirectory);
+  }
+
+  /**
+   * Write relations with at least minFacts facts to files in a directory at compile time, instead of inlining them
+   * into the script. The files are sorted, so the script doesn't need to sort them again. Their names are derived from
+   * their content, so the directory can be shared by several scripts.
+   * @param directory the script reads the files from this path
+   */
+  public void enableFactFiles(String directory, int minFacts) {
+    this.factFiles = new FactFiles(directory, Math.max(1, minFacts));
+  }
+
+  /**
+   * Keep materialized relations and the results of recursions in a cache directory, which can be shared by several
+   * scripts. A later run reuses a relation instead of computing it, if it has the same plan, and its input files have
+   * the same path, size and modification time. Plans that read other relations than input files (e.g., bash commands
+   * other than "cat file") are not cached.
+   * @param directory the cache directory, which is created if necessary
+   * @param maxMegabytes size of the cache directory; the least recently used relations are removed first
+   */
+  public void enableResultCache(String directory, long maxMegabytes) {
+    this.resultCache = new ResultCache(directory, Math.max(0, maxMegabytes));
+  }
+
+  /**
+   * Evaluate the recursive plan of recursions for several buckets of the delta in parallel (as background jobs).
+   * @param partitions number of buckets; 0 uses the number of processors of the machine that runs the script
+   */
+  public void enablePartitionedRecursion(int partitions) {
+    this.recursionPartitions = Math.max(0, partitions);
+  }
+
+  /**
+   * Hash partition the inputs of large sort joins and anti-joins by their join columns, and join the shards in parallel
+   * (as background jobs). Only joins of inputs with at least BashlogPlan.EXCHANGE_MIN_ROWS rows are partitioned, so this
+   * needs statistics (see {@link #enableStatistics()}) for joins of input files.
+   * @param partitions number of shards; 0 uses the number of processors of the machine that runs the script
+   */
+  public void enableExchange(int partitions) {
+    enableExchange(partitions, BashlogPlan.EXCHANGE_MIN_ROWS);
+  }
+
+  /**
+   * Hash partition the inputs of sort joins and anti-joins (see {@link #enableExchange(int)}).
+   * @param minRows only partition joins of inputs that are estimated (or known) to have at least this many rows
+   */
+  public void enableExchange(int partitions, double minRows) {
+    this.exchangePartitions = Math.max(0, partitions);
+    this.exchangeMinRows = minRows;
+  }
+
+  /**
+   * Decide at runtime whether to sort the inputs of joins and anti-joins whose sizes are not known at compile time:
+   * the script reads the first maxMegabytes of the inputs, and keeps the smaller one in memory (like a hash join) if
+   * that is all of it. Joins within recursions are still sort joins.
+   */
+  public void enableAdaptiveJoin(long maxMegabytes) {
+    this.adaptiveJoinMaxBytes = Math.max(0, maxMegabytes) * 1024 * 1024;
+  }
+
+  /**
+   * Compute the fixpoint of recursions in a single AWK process, keeping all relations in hash tables.
+   * If the recursion or the relations it joins with exceed maxRows at runtime, the script uses the sort based loop instead.
+   */
+  public void enableInMemoryRecursion(long maxRows) {
+    this.inMemoryRecursionMaxRows = Math.max(0, maxRows);
+  }
+
+  /**
+   * Keep the full relation of recursions as a set of sorted runs, instead of merging every delta into one file.
+   * Reading the full relation merges the runs. Runs are organized in tiers of similar size: whenever a tier has fanIn runs,
+   * they are merged into one run of the next tier. Full relations stored this way are not compressed.
+   * @param fanIn number of runs per tier, at least 2
+   */
+  public void enableRecursionRuns(int fanIn) {
+    this.recursionRunsFanIn = Math.max(2, fanIn);
+  }
+
+  /**
+   * Limit the number of materializations that are computed at the same time. Materializations that don't depend on
+   * each other run in parallel, the others wait for the materializations they read.
+   * @param slots 0 for the number of processors of the machine that runs the script
+   */
+  public void setJobSlots(int slots) {
+    this.jobSlots = Math.max(0, slots);
+  }
+
+  /**
+   * Send the output of reused plans through tee and named pipes to their consumers, instead of writing it to a temporary
+   * file and reading it back. This is only done if all consumers sort their input, and run at the same time; consumers in
+   * recursions or in other materializations still read a file.
+   */
+  public void enableStreamingMaterialization() {
+    this.streamingMaterialization = true;
+  }
+
+  /**
+   * Output the result in any order, as soon as possible: without the final sort, and recursions output every new delta
+   * while they are computed. Duplicates are removed with hash tables. If a hash table exceeds maxRows at runtime,
+   * the remaining rows are deduplicated by sort. With statistics, results that are estimated to have more rows are sorted.
+   */
+  public void enableUnorderedOutput(long maxRows) {
+    this.unorderedMaxRows = Math.max(0, maxRows);
+  }
+
+  /**
+   * Record the number of rows, bytes and the time of the output of every command of the script in a profile log.
+   * The time is measured from the start of the command until it wrote its last row.
+   * Use {@link Profile} to show the plan with these measurements.
+   */
+  public void enableProfiling(String logFile) {
+    this.profileLog = logFile;
+  }
+
+  /**
+   * Store materialized relations and the full relations of recursions compressed (with lz4, zstd or gzip, whichever is
+   * available at runtime), and let sort compress its temporary files.
+   */
+  public void enableCompression() {
+    this.compressTemporaryFiles = true;
+  }
+
+  /**
+   * Order joins with a cost model, based on statistics of the input files and facts.
+   * The statistics are collected at compile time, and cached in {@link Statistics#DEFAULT_DIRECTORY}.
+   */
+  public void enableStatistics() {
+    enableStatistics(Statistics.DEFAULT_DIRECTORY);
+  }
+
+  /**
+   * Order joins with a cost model, based on statistics of the input files and facts (see {@link Statistics}).
+   * @param directory where the statistics of the input files are cached, null to not cache them
+   */
+  public void enableStatistics(String directory) {
+    if (this.statistics == null) {
+      this.statistics = new Statistics(directory);
+    }
+  }
+
+  /**
+   * Directory where the script creates the workspace for the temporary files of a run (e.g. materialized relations).
+   * The workspace is unique for each run, and removed when the script exits.
+   * @param directory null to use $TMPDIR of the script run, or /tmp if it is not set
+   */
+  public void setScratchDirectory(String directory) {
+    this.scratchDirectory = directory;
+  }
+
+  /**
+   * Directory on a RAM disk, for small intermediate results of a run (deltas of recursions, outputs of multi output nodes).
+   * If it is not writable at runtime, the script uses the scratch directory instead.
+   * @param directory null to store all temporary files in the scratch directory
+   */
+  public void setRamDirectory(String directory) {
+    this.ramDirectory = directory;
+  }
+
+  /**
+   * Limit the memory of the sort commands. The script divides the memory among the sorts that might run at the same time.
+   * @param megabytes 0 to use the memory that is available when the script starts
+   */
+  public void setMemoryBudget(long megabytes) {
+    this.memoryBudget = Math.max(0, megabytes);
+  }
+
   /*public static void main(String[] args) {
     PlanNode table = new TSVFileNode("abc", 5);
     MultiFilterNode mfn = new MultiFilterNode(new HashSet<>(Arrays.asList(
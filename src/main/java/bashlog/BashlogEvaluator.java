@@ -14,10 +14,12 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Consumer;
 
 /** Execute bashlog from java */
 public class BashlogEvaluator implements Evaluator {
@@ -28,6 +30,9 @@ public class BashlogEvaluator implements Evaluator {
 
   private boolean debug = false;
 
+  /** Configures the compiler for every query, e.g., to enable compilation options */
+  private Consumer<BashlogCompiler> compilerSetup = bc -> {};
+
   private long timeCompile = 0, timeBash = 0; // in nano seconds
 
   public BashlogEvaluator(String workingDir) {
@@ -41,6 +46,11 @@ public class BashlogEvaluator implements Evaluator {
     this.debug = debug;
   }
 
+  public BashlogEvaluator(String workingDir, boolean debug, Consumer<BashlogCompiler> compilerSetup) {
+    this(workingDir, debug);
+    this.compilerSetup = compilerSetup;
+  }
+
   @Override
   public Map<String, Long> getTiming() {
     HashMap<String, Long> map = new HashMap<>();
@@ -73,43 +83,84 @@ public class BashlogEvaluator implements Evaluator {
     }
 
     SimpleFactsSet result = new SimpleFactsSet();
+    if (relationsToOutput.isEmpty()) {
+      return result;
+    }
+    // compile all relations into one script, which writes the result of each relation to its own file
+    Map<String, String> relationToFile = new LinkedHashMap<>();
     for (String relation : relationsToOutput) {
-      Runtime run = Runtime.getRuntime();
-      timeCompile -= System.nanoTime();
-      BashlogCompiler bc = BashlogCompiler.prepareQuery(program, relation);
+      relationToFile.put(relation, workingDir + "/" + relation.replace("/", "_") + ".result");
+    }
+    Runtime run = Runtime.getRuntime();
+    timeCompile -= System.nanoTime();
+    BashlogCompiler bc = BashlogCompiler.prepareQueries(program, relationToFile);
+    if (debug) {
+      bc.enableDebug();
+    }
+    compilerSetup.accept(bc);
+    String query = null;
+    try {
+      query = bc.compile();
+    } finally {
       if (debug) {
-        bc.enableDebug();
+        System.out.println(query);
+        System.out.println(bc.debugInfo());
       }
-      String query = null;
-      try {
-        query = bc.compile();
-      } finally {
-        if (debug) {
-          System.out.println(query);
-          System.out.println(bc.debugInfo());
+    }
+    timeCompile += System.nanoTime();
+    LOG.debug("running " + relationsToOutput);
+    if (debug) {
+      LOG.info("saving program to /tmp/bashlog.sh, and debug info to /tmp/bashlog-debug.txt");
+      Files.write(Paths.get("/tmp/bashlog-debug.txt"), bc.debugInfo().getBytes());
+      Files.write(Paths.get("/tmp/bashlog.sh"), query.getBytes());
+    }
+    timeBash -= System.nanoTime();
+    long start = System.nanoTime();
+    Path progFile = Files.createTempFile("bashlog-eval-", "");
+    Files.write(progFile, query.getBytes());
+    LOG.info("saving program to {}", progFile);
+    Process proc = run.exec(new String[] { "/bin/bash", progFile.toAbsolutePath().toString() });
+    // read stderr concurrently, so that the script does not block on a full pipe
+    StringBuilder stderr = new StringBuilder();
+    Thread stderrReader = new Thread(() -> {
+      try (BufferedReader err = new BufferedReader(new InputStreamReader(proc.getErrorStream()))) {
+        String errLine;
+        while ((errLine = err.readLine()) != null) {
+          stderr.append(errLine).append('\n');
         }
+      } catch (IOException e) {
+        LOG.error("could not read stderr of {}", progFile, e);
       }
-      timeCompile += System.nanoTime();
-      LOG.debug("running " + relation);
-      if (debug) {
-        LOG.info("saving program to /tmp/bashlog.sh, and debug info to /tmp/bashlog-debug.txt");
-        Files.write(Paths.get("/tmp/bashlog-debug.txt"), bc.debugInfo().getBytes());
-        Files.write(Paths.get("/tmp/bashlog.sh"), query.getBytes());
+    });
+    stderrReader.start();
+    BufferedReader br = new BufferedReader(new InputStreamReader(proc.getInputStream()));
+    String line;
+    while ((line = br.readLine()) != null) {
+      LOG.debug(line);
+    }
+    int exitCode;
+    try {
+      exitCode = proc.waitFor();
+      stderrReader.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while waiting for " + progFile, e);
+    }
+    if (exitCode != 0) {
+      throw new IOException("script " + progFile + " exited with status " + exitCode + ", stderr:\n" + stderr);
+    }
+    for (Map.Entry<String, String> e : relationToFile.entrySet()) {
+      Path file = Paths.get(e.getValue());
+      if (!Files.exists(file)) {
+        throw new IOException("script " + progFile + " did not write the result of " + e.getKey() + " to " + file + ", stderr:\n" + stderr);
       }
-      timeBash -= System.nanoTime();
-      long start = System.nanoTime();
-      Path progFile = Files.createTempFile("bashlog-eval-", "");
-      Files.write(progFile, query.getBytes());
-      LOG.info("saving program to {}", progFile);
-      Process proc = run.exec(new String[] { "/bin/bash", progFile.toAbsolutePath().toString() });
-      BufferedReader br = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-      String line;
-      while ((line = br.readLine()) != null) {
-        result.add(relation, line.split("\t"));
+      for (String row : Files.readAllLines(file, Charset.defaultCharset())) {
+        result.add(e.getKey(), row.split("\t"));
       }
-      timeBash += System.nanoTime();
-      LOG.debug("bash command executed in " + (System.nanoTime() - start) * 1e-9 + "s");
+      Files.delete(file);
     }
+    timeBash += System.nanoTime();
+    LOG.debug("bash command executed in " + (System.nanoTime() - start) * 1e-9 + "s");
 
     return result;
   }
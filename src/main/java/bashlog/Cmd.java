@@ -7,6 +7,7 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 
 import common.parser.Program;
+import common.plan.optimizer.Statistics;
 
 /** Command line program to translate a bashlog datalog program to a bash script. */
 public class Cmd {
@@ -25,6 +26,72 @@ public class Cmd {
 
     @Parameter(names = "--query-pred", description = "the predicate that should be evaluated")
     private String queryPredicate;
+
+    @Parameter(names = "--dictionary", description = "encode values as integer ids, using (and updating) this dictionary file")
+    private String dictionary;
+
+    @Parameter(names = "--statistics", description = "order joins based on statistics of the input files")
+    private boolean statistics;
+
+    @Parameter(names = "--statistics-dir", description = "directory where the statistics of the input files are cached")
+    private String statisticsDir = Statistics.DEFAULT_DIRECTORY;
+
+    @Parameter(names = "--recursion-partitions", description = "evaluate recursions in parallel for that many buckets of the delta (0: number of processors)")
+    private Integer recursionPartitions;
+
+    @Parameter(names = "--exchange", description = "hash partition large sort joins into that many shards, which are joined in parallel (0: number of processors); joins of input files need --statistics")
+    private Integer exchange;
+
+    @Parameter(names = "--adaptive-join", description = "choose hash join at runtime for join inputs of at most that many MB (0: disabled)")
+    private long adaptiveJoin = 0;
+
+    @Parameter(names = "--in-memory-recursion", description = "compute recursions with at most that many rows in memory (0: disabled)")
+    private long inMemoryRecursion = 0;
+
+    @Parameter(names = "--recursion-runs", description = "keep the full relation of recursions as sorted runs, merging that many runs per tier (0: disabled)")
+    private int recursionRuns = 0;
+
+    @Parameter(names = "--jobs", description = "maximum number of materializations that run at the same time (0: number of processors)")
+    private int jobs = 0;
+
+    @Parameter(names = "--stream-reuse", description = "stream reused subplans to their consumers through named pipes, if possible")
+    private boolean streamReuse;
+
+    @Parameter(names = "--unordered", description = "output the result in any order, deduplicating at most that many rows in memory (0: sorted output)")
+    private long unordered = 0;
+
+    @Parameter(names = "--profile", description = "record rows, bytes and time of every command in this file")
+    private String profile;
+
+    @Parameter(names = "--explain-profile", description = "print the plan with the measurements of a profile file")
+    private String explainProfile;
+
+    @Parameter(names = "--compress", description = "store temporary files compressed")
+    private boolean compress;
+
+    @Parameter(names = "--memory", description = "memory budget of the sort commands in MB (0: available memory)")
+    private long memory = 0;
+
+    @Parameter(names = "--scratch-dir", description = "directory for temporary files (default: $TMPDIR or /tmp)")
+    private String scratchDir;
+
+    @Parameter(names = "--ram-dir", description = "directory on a RAM disk for small temporary files (\"\" to disable)")
+    private String ramDir = "/dev/shm";
+
+    @Parameter(names = "--incremental", description = "keep the results in this directory, and evaluate only rows appended to the input files in later runs")
+    private String incremental;
+
+    @Parameter(names = "--cache", description = "reuse materialized relations of previous runs with the same input files, stored in this directory")
+    private String cache;
+
+    @Parameter(names = "--cache-size", description = "size limit of the cache directory in MB")
+    private long cacheSize = 1024;
+
+    @Parameter(names = "--fact-files", description = "write relations with many facts to sorted files in this directory, instead of into the script")
+    private String factFiles;
+
+    @Parameter(names = "--fact-files-min", description = "minimum number of facts of a relation that is written to a file")
+    private int factFilesMin = 1000;
   }
 
   public static void main(String[] argv) throws IOException {
@@ -39,6 +106,10 @@ public class Cmd {
       cmd.usage();
       return;
     }
+    if (args.explainProfile != null) {
+      System.out.print(Profile.read(args.explainProfile).explain());
+      return;
+    }
 
     // translate/compile
     Set<String> features = BashlogCompiler.BASHLOG_PARSER_FEATURES;
@@ -55,6 +126,52 @@ public class Cmd {
       if(args.debug) {
         bc.enableDebug();
       }
+      if (args.dictionary != null) {
+        bc.enableDictionary(args.dictionary);
+      }
+      if (args.statistics) {
+        bc.enableStatistics(args.statisticsDir);
+      }
+      bc.setMemoryBudget(args.memory);
+      bc.setJobSlots(args.jobs);
+      bc.setScratchDirectory(args.scratchDir);
+      bc.setRamDirectory(args.ramDir.isEmpty() ? null : args.ramDir);
+      if (args.streamReuse) {
+        bc.enableStreamingMaterialization();
+      }
+      if (args.unordered > 0) {
+        bc.enableUnorderedOutput(args.unordered);
+      }
+      if (args.profile != null) {
+        bc.enableProfiling(args.profile);
+      }
+      if (args.compress) {
+        bc.enableCompression();
+      }
+      if (args.adaptiveJoin > 0) {
+        bc.enableAdaptiveJoin(args.adaptiveJoin);
+      }
+      if (args.inMemoryRecursion > 0) {
+        bc.enableInMemoryRecursion(args.inMemoryRecursion);
+      }
+      if (args.recursionRuns > 0) {
+        bc.enableRecursionRuns(args.recursionRuns);
+      }
+      if (args.recursionPartitions != null) {
+        bc.enablePartitionedRecursion(args.recursionPartitions);
+      }
+      if (args.exchange != null) {
+        bc.enableExchange(args.exchange);
+      }
+      if (args.incremental != null) {
+        bc.enableIncremental(args.incremental);
+      }
+      if (args.cache != null) {
+        bc.enableResultCache(args.cache, args.cacheSize);
+      }
+      if (args.factFiles != null) {
+        bc.enableFactFiles(args.factFiles, args.factFilesMin);
+      }
       String bash = bc.compile("", "", false);
       System.out.println(bash);
       if (args.debug) {
@@ -2,10 +2,13 @@ package bashlog;
 
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import bashlog.command.Bash;
+import bashlog.plan.ResultCache;
 import bashlog.translation.BashTranslator;
 import common.plan.node.MaterializationNode;
+import common.plan.node.MultiOutputNode;
 import common.plan.node.PlaceholderNode;
 import common.plan.node.PlanNode;
 
@@ -22,8 +25,45 @@ public class CompilerInternals extends common.compiler.CompilerInternals<BashTra
 
   private boolean parallelMaterialization = true;
 
+  private boolean partitionedRecursion = false;
+
+  private long inMemoryRecursionMaxRows = 0;
+
+  private boolean compressTemporaryFiles = false;
+
+  private int recursionRunsFanIn = 0;
+
+  private boolean profiling = false;
+
+  /** Deduplicate in hash tables of at most this many rows instead of sorting, in unordered mode; 0 if disabled */
+  private long unorderedMaxRows = 0;
+
+  /** Stream reused plans to their consumers through named pipes, instead of storing them in temporary files */
+  private boolean streamingMaterialization = false;
+
+  /** Placeholders that are read from named pipes, mapped to the prefix of the pipes; every reader gets a pipe of its own */
+  private Map<PlanNode, String> streamedPlaceholders = new HashMap<>();
+
+  /** Named pipes that were handed out to the readers of a streamed placeholder */
+  private Map<PlanNode, List<String>> placeholderPipes = new HashMap<>();
+
+  /** Recursions that output every delta as soon as it is computed, instead of the full relation at the end */
+  private Set<PlanNode> streamedResults = new HashSet<>();
+
+  /** Ids of the profiled plan nodes in the profile log; usually their hash */
+  Map<PlanNode, String> profileIds = new HashMap<>();
+
+  /** Files that are stored as a set of sorted runs */
+  Set<String> runFiles = new HashSet<>();
+
+  /** Temporary files that are stored compressed */
+  Set<String> compressedFiles = new HashSet<>();
+
   Map<PlanNode, Bash> cache = new HashMap<>();
 
+  /** Cache of relations across script runs, null if disabled */
+  private ResultCache resultCache = null;
+
   /** 
    * Constructor
    * @param translators map from a node class to its translator
@@ -33,11 +73,183 @@ public class CompilerInternals extends common.compiler.CompilerInternals<BashTra
 
   }
 
-  /** Whether the resulting bash script will materialize multiple plans in parallel */
+  /** Whether the resulting bash script will materialize multiple plans in parallel (with run_jobs of the script) */
   public boolean parallelMaterialization() {
     return parallelMaterialization;
   }
 
+  /** Whether recursions evaluate their recursive plan for several buckets of the delta in parallel */
+  public boolean partitionedRecursion() {
+    return partitionedRecursion;
+  }
+
+  void setPartitionedRecursion(boolean partitionedRecursion) {
+    this.partitionedRecursion = partitionedRecursion;
+  }
+
+  /** Maximum number of rows for computing a recursion in memory, 0 if disabled */
+  public long inMemoryRecursionMaxRows() {
+    return inMemoryRecursionMaxRows;
+  }
+
+  void setInMemoryRecursionMaxRows(long inMemoryRecursionMaxRows) {
+    this.inMemoryRecursionMaxRows = inMemoryRecursionMaxRows;
+  }
+
+  /** Whether temporary files (materializations, full relations of recursions) are stored compressed */
+  public boolean compressTemporaryFiles() {
+    return compressTemporaryFiles;
+  }
+
+  void setCompressTemporaryFiles(boolean compressTemporaryFiles) {
+    this.compressTemporaryFiles = compressTemporaryFiles;
+  }
+
+  /** Whether the output of the commands is recorded in a profile log (see Profile) */
+  public boolean profiling() {
+    return profiling;
+  }
+
+  void setProfiling(boolean profiling) {
+    this.profiling = profiling;
+  }
+
+  void setResultCache(ResultCache resultCache) {
+    this.resultCache = resultCache;
+  }
+
+  /** Key of the relation of the plan in the result cache, null if the result cache is disabled or the plan cannot be cached */
+  private Map.Entry<String, List<String>> cacheKey(PlanNode plan) {
+    if (resultCache == null) {
+      return null;
+    }
+    // the cached file has the format of the temporary files; in unordered mode, unions and distinct nodes deduplicate
+    // in hash tables, so the same plan produces a relation that is not sorted
+    String format = (compressTemporaryFiles ? "compressed" : "plain") + (unorderedMaxRows > 0 ? " unordered" : " sorted");
+    return ResultCache.key(plan, placeholderToParent, format);
+  }
+
+  /** Whether the relation of the plan is stored in the result cache */
+  public boolean cacheable(PlanNode plan) {
+    return cacheKey(plan) != null;
+  }
+
+  /**
+   * Take the relation of the plan from the result cache, if it is there; otherwise run the command, which writes the
+   * relation to the file, and add the file to the cache. Returns the command itself if the plan is not cached.
+   * The command runs in a subshell that stops at the first failing command or pipe (but not within functions of the
+   * script), and removes the file; the file is only added to the cache if the command succeeded, so that no run reuses
+   * a partial relation.
+   */
+  public Bash cached(PlanNode plan, String file, Bash command) {
+    Map.Entry<String, List<String>> key = cacheKey(plan);
+    if (key == null) {
+      return command;
+    }
+    String var = "key" + getNextIndex();
+    Bash.CommandSequence result = new Bash.CommandSequence();
+    result.other(var + "=$(cache_key " + key.getKey() + key.getValue().stream().map(f -> " \"" + f + "\"").collect(Collectors.joining()) + ")");
+    result.other("if ! cache_get $" + var + " " + file + "; then");
+    result.add(command.wrap("( set -o pipefail; trap 'rm -f " + file + "; exit 1' ERR\n", "\n)"));
+    result.other("[ $? = 0 ] && cache_put $" + var + " " + file);
+    result.other("fi");
+    return result;
+  }
+
+  /** Whether reused plans may be streamed to their consumers (see Materialization) */
+  public boolean streamingMaterialization() {
+    return streamingMaterialization;
+  }
+
+  void setStreamingMaterialization(boolean streamingMaterialization) {
+    this.streamingMaterialization = streamingMaterialization;
+  }
+
+  /** Indicates that every reader of plan *node* should take its input from a named pipe of its own (pipePrefix.0, .1, ...) */
+  public void registerStreamedPlaceholder(PlaceholderNode node, String pipePrefix) {
+    String file = placeholderToFilename.remove(node);
+    if (file != null) filenameToPlaceholder.remove(file);
+    streamedPlaceholders.put(node, pipePrefix);
+    placeholderPipes.put(node, new ArrayList<>());
+  }
+
+  /** Named pipes of the readers of a streamed placeholder that were compiled so far */
+  public List<String> streamReaders(PlaceholderNode node) {
+    return placeholderPipes.get(node);
+  }
+
+  /** Maximum number of rows of the hash tables for removing duplicates in unordered mode, 0 if the output is sorted */
+  public long unorderedMaxRows() {
+    return unorderedMaxRows;
+  }
+
+  void setUnorderedMaxRows(long unorderedMaxRows) {
+    this.unorderedMaxRows = unorderedMaxRows;
+  }
+
+  /** The recursion should output its rows as soon as they are found, in any order (call before compiling it) */
+  public void streamResult(PlanNode recursion) {
+    streamedResults.add(recursion);
+  }
+
+  /** Whether the recursion outputs its rows as soon as they are found */
+  public boolean streamsResult(PlanNode recursion) {
+    return streamedResults.contains(recursion);
+  }
+
+  /** Number of runs of a tier that are merged into one run of the next tier, 0 if full relations are stored as one file */
+  public int recursionRunsFanIn() {
+    return recursionRunsFanIn;
+  }
+
+  void setRecursionRunsFanIn(int recursionRunsFanIn) {
+    this.recursionRunsFanIn = recursionRunsFanIn;
+  }
+
+  /**
+   * Store the temporary file as a set of sorted runs (file.t[tier].[id]), which are maintained by lsm_add of the script.
+   * read(...) merges the runs.
+   */
+  public void sortedRuns(String file) {
+    runFiles.add(file);
+  }
+
+  /** Store the temporary file compressed, if enabled. Use read(...) and write(...) to access it. */
+  public void compressed(String file) {
+    if (compressTemporaryFiles) {
+      compressedFiles.add(file);
+    }
+  }
+
+  /** Bash snippet that outputs the content of a file */
+  public Bash read(String file) {
+    if (runFiles.contains(file)) {
+      return new Bash.Command("$sort").arg("-m").file(file + ".t*");
+    }
+    if (compressedFiles.contains(file)) {
+      return new Bash.Command("$compress").arg("-dc").file(file);
+    }
+    return new Bash.BashFile(file);
+  }
+
+  /** Redirection of the output of a command to a file */
+  public String write(String file) {
+    if (compressedFiles.contains(file)) {
+      return " | $compress -1 -c > " + file;
+    }
+    return " > " + file;
+  }
+
+  /** Temporary file in the scratch directory of the script run, for relations that might be large */
+  public String tempFile(String name) {
+    return "$tmp/" + name;
+  }
+
+  /** Temporary file in the RAM directory of the script run (the scratch directory if no RAM disk is available) */
+  public String smallTempFile(String name) {
+    return "$shm/" + name;
+  }
+
   /** Indicates that plan *node* should take its input from *file* */
   public void registerPlaceholder(PlaceholderNode node, String file) {
     placeholderToFilename.put(node, file);
@@ -50,62 +262,53 @@ public class CompilerInternals extends common.compiler.CompilerInternals<BashTra
   }
 
   /**
-   * Get placeholder descendants. Recursively for all children that were not translated.
-   * @param children
-   * @param accumulator
+   * Record rows, bytes and time of the output of the snippet in the profile log, with the hash of the plan node.
+   * Materializations and multi outputs just output their main plan, which is recorded itself.
    */
-  private void directPlaceholderDescendants(Collection<PlanNode> children, Set<PlanNode> accumulator) {
-    for (PlanNode c : children) {
-      if (c instanceof PlaceholderNode) {
-        accumulator.add(c);
-      } else if (!cache.containsKey(c)) {
-        directPlaceholderDescendants(c.children(), accumulator);
-      }
+  private Bash profile(PlanNode planNode, Bash snippet) {
+    if (snippet instanceof Bash.BashFile || planNode instanceof MaterializationNode || planNode instanceof MultiOutputNode
+        || planNode.getArity() == 0) {
+      return snippet;
     }
-  }
-
-  /**
-   * Add a locking mechanism for materialization nodes.
-   * This happens if the bash snippet directly uses a materialized file.
-   * @param snippet
-   * @param children
-   * @return
-   */
-  Bash waitFor(Bash snippet, Collection<PlanNode> children) {
-    Bash result = snippet;
-    if (parallelMaterialization) {
-      // We need to wait if the command in snippet uses a materialized node directly
-      // Indirectly used files are treated at their respective snippet
-      // Some commands (e.g. ProjectFilter) might use more than one level of the plan tree, 
-      // and we need to check all files that are used by that snippet
-      HashSet<PlanNode> todo = new HashSet<>();
-      directPlaceholderDescendants(children, todo);
-
-      for (PlanNode child : todo) {
-        PlanNode parent = getParent((PlaceholderNode) child);
-        if (parent instanceof MaterializationNode) {
-          String matFile = placeholderToFilename.get(child);
-          if (parallelMaterialization && matFile.startsWith("tmp/")) {
-            result = new Bash.Command("cat").arg(matFile.replace("tmp/", "tmp/lock_")).arg("1>&2").arg("2>/dev/null").arg("; ").other(result);
-          }
-        }
-      }
+    if (snippet instanceof Bash.CommandSequence && !(snippet instanceof Bash.Pipe)) {
+      snippet = snippet.wrap("{ ", "\n}");
     }
+    String id = planNode.hash().trim();
+    for (int i = 1; profileIds.containsValue(id); i++) {
+      id = planNode.hash().trim() + "." + i;
+    }
+    profileIds.put(planNode, id);
+    Bash.Pipe result = new Bash.Pipe(snippet);
+    result.cmd("profile").arg(id);
     return result;
   }
 
+  /** Id of the plan node in the profile log, null if it is not profiled */
+  public String profileId(PlanNode planNode) {
+    return profileIds.get(planNode);
+  }
+
   /**
    * Translate a relational algebra plan to a bash snippet
    * @param planNode
    * @return bash snippet
    */
   public Bash compile(PlanNode planNode) {
+    if (streamedPlaceholders.containsKey(planNode)) {
+      // not cached, as every reader needs its own pipe
+      List<String> pipes = placeholderPipes.get(planNode);
+      pipes.add(streamedPlaceholders.get(planNode) + "." + pipes.size());
+      return new Bash.BashFile(pipes.get(pipes.size() - 1));
+    }
     if (cache.containsKey(planNode)) return cache.get(planNode);
 
-    // apply corresponding translator if possible; also applies locking for parallel materialization
+    // apply corresponding translator if possible
     bashlog.translation.BashTranslator t = translators.get(planNode.getClass());
     if (t != null) {
-      Bash result = waitFor(t.translate(planNode, this), planNode.children());
+      Bash result = t.translate(planNode, this);
+      if (profiling) {
+        result = profile(planNode, result);
+      }
       cache.put(planNode, result);
       return result;
     }
@@ -118,7 +321,7 @@ public class CompilerInternals extends common.compiler.CompilerInternals<BashTra
         placeholderToFilename.forEach((m, f) -> System.err.println(m.operatorString() + "  " + f));
         throw new IllegalStateException("no file assigned to " + planNode.operatorString() + " for " + parent.operatorString());
       }
-      Bash result = new Bash.BashFile(file);
+      Bash result = read(file);
       cache.put(planNode, result);
       return result;
     }
@@ -0,0 +1,109 @@
+package bashlog;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Profile log of a script that was compiled with profiling (see {@link BashlogCompiler#enableProfiling(String)}).
+ * The log starts with the plan (lines starting with '#', each followed by a tab and the id of the node, if it was profiled),
+ * followed by one line per execution of a command: id of the plan node (usually its hash), rows, bytes, and seconds
+ * until the command finished. Commands within recursions are executed several times.
+ * Cmd --explain-profile prints the plan with the measurements (see {@link #explain()}).
+ */
+public class Profile {
+
+  /** Accumulated measurements of the commands of a plan node */
+  public static class Entry {
+
+    public long rows, bytes;
+
+    public double seconds;
+
+    /** How often the command was executed */
+    public int loops;
+
+    @Override
+    public String toString() {
+      return "rows " + rows + ", bytes " + bytes + ", " + String.format(Locale.ROOT, "%.3f", seconds) + "s" + (loops > 1 ? ", loops " + loops : "");
+    }
+  }
+
+  /** Length of the hash at the beginning of every line of the plan, see PlanNode.hash() */
+  private static final int HASH_LENGTH = 4;
+
+  /** Lines of the plan, as printed by PlanNode.toPrettyString() */
+  private final List<String> plan = new ArrayList<>();
+
+  /** Ids of the plan nodes of every line of the plan; empty if it was not profiled */
+  private final List<String> ids = new ArrayList<>();
+
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  public static Profile read(String file) throws IOException {
+    Profile profile = new Profile();
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("#")) {
+          int tab = line.lastIndexOf('\t');
+          if (tab < 2) continue;
+          profile.plan.add(line.substring(2, tab));
+          profile.ids.add(line.substring(tab + 1));
+          continue;
+        }
+        String[] parts = line.split("\t");
+        if (parts.length < 4) continue;
+        Entry e = profile.entries.computeIfAbsent(parts[0], k -> new Entry());
+        e.rows += Long.parseLong(parts[1]);
+        e.bytes += Long.parseLong(parts[2]);
+        e.seconds += Double.parseDouble(parts[3]);
+        e.loops++;
+      }
+    }
+    return profile;
+  }
+
+  /** Measurements of the plan node with that id, null if it was not executed */
+  public Entry get(String id) {
+    return entries.get(id);
+  }
+
+  /** The plan of the script, annotated with the measurements of every node (similar to EXPLAIN ANALYZE) */
+  public String explain() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < plan.size(); i++) {
+      String line = plan.get(i);
+      sb.append(line);
+      Entry e = get(ids.get(i));
+      if (e != null) {
+        sb.append("   (").append(e);
+        long in = rowsIn(i);
+        if (in >= 0) sb.append(", in ").append(in);
+        sb.append(")");
+      }
+      sb.append("\n");
+    }
+    return sb.toString();
+  }
+
+  /** Sum of the rows of the children of the i-th line of the plan, -1 if not known */
+  private long rowsIn(int i) {
+    int depth = depth(plan.get(i));
+    long rows = -1;
+    for (int j = i + 1; j < plan.size() && depth(plan.get(j)) > depth; j++) {
+      Entry e = depth(plan.get(j)) == depth + 1 ? get(ids.get(j)) : null;
+      if (e != null) rows = Math.max(0, rows) + e.rows;
+    }
+    return rows;
+  }
+
+  /** Depth of a plan line, given by its prefix of "+-", "| " and "  " (see PlanNode.toPrettyString) */
+  private static int depth(String line) {
+    int pos = HASH_LENGTH + 1;
+    while (pos + 1 < line.length() && "| +-".indexOf(line.charAt(pos)) >= 0) {
+      pos++;
+    }
+    return (pos - HASH_LENGTH - 1) / 2;
+  }
+
+}
@@ -0,0 +1,172 @@
+package bashlog.plan;
+
+import java.util.*;
+
+import common.Tools;
+import common.plan.node.PlaceholderNode;
+import common.plan.node.PlanNode;
+
+/**
+ * Join (or anti-join) whose implementation is chosen at runtime, when the sizes of the inputs are known.
+ * Both inputs are written to files, which the alternatives read through placeholders: if the smaller input has at most
+ * maxBytes bytes, it is kept in memory (hash join), otherwise the inputs are sorted (sort join).
+ */
+public class AdaptiveJoinNode implements PlanNode {
+
+  private final PlanNode left, right;
+
+  /** Placeholders for the files of the left and the right input, used by the alternatives */
+  private final PlaceholderNode leftInput, rightInput;
+
+  /** Alternatives that keep the left or the right input in memory, and the alternative that sorts the inputs */
+  private final PlanNode buildLeftPlan, buildRightPlan, sortPlan;
+
+  private final long maxBytes;
+
+  public static class Builder {
+
+    private final PlaceholderNode leftInput, rightInput;
+
+    public Builder(int leftArity, int rightArity) {
+      leftInput = new PlaceholderNode("adaptive_left", leftArity);
+      rightInput = new PlaceholderNode("adaptive_right", rightArity);
+    }
+
+    /** Placeholder for the file of the left input */
+    public PlaceholderNode getLeftInput() {
+      return leftInput;
+    }
+
+    /** Placeholder for the file of the right input */
+    public PlaceholderNode getRightInput() {
+      return rightInput;
+    }
+
+    public AdaptiveJoinNode build(PlanNode left, PlanNode right, PlanNode buildLeftPlan, PlanNode buildRightPlan, PlanNode sortPlan, long maxBytes) {
+      return new AdaptiveJoinNode(left, right, leftInput, rightInput, buildLeftPlan, buildRightPlan, sortPlan, maxBytes);
+    }
+  }
+
+  /** Use builder if possible */
+  protected AdaptiveJoinNode(PlanNode left, PlanNode right, PlaceholderNode leftInput, PlaceholderNode rightInput, PlanNode buildLeftPlan,
+      PlanNode buildRightPlan, PlanNode sortPlan, long maxBytes) {
+    if (left.getArity() != leftInput.getArity() || right.getArity() != rightInput.getArity()) {
+      throw new IllegalArgumentException("the inputs need the arity of their placeholders");
+    }
+    if (buildLeftPlan.getArity() != sortPlan.getArity() || buildRightPlan.getArity() != sortPlan.getArity()) {
+      throw new IllegalArgumentException("all alternatives need the same arity");
+    }
+    this.left = left;
+    this.right = right;
+    this.leftInput = leftInput;
+    this.rightInput = rightInput;
+    this.buildLeftPlan = buildLeftPlan;
+    this.buildRightPlan = buildRightPlan;
+    this.sortPlan = sortPlan;
+    this.maxBytes = maxBytes;
+  }
+
+  public PlanNode getLeft() {
+    return left;
+  }
+
+  public PlanNode getRight() {
+    return right;
+  }
+
+  public PlaceholderNode getLeftInput() {
+    return leftInput;
+  }
+
+  public PlaceholderNode getRightInput() {
+    return rightInput;
+  }
+
+  /** Alternative that keeps the left input in memory */
+  public PlanNode getBuildLeftPlan() {
+    return buildLeftPlan;
+  }
+
+  /** Alternative that keeps the right input in memory */
+  public PlanNode getBuildRightPlan() {
+    return buildRightPlan;
+  }
+
+  /** Alternative that sorts both inputs */
+  public PlanNode getSortPlan() {
+    return sortPlan;
+  }
+
+  /** Inputs with at most this many bytes are kept in memory */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  @Override
+  public int getArity() {
+    return sortPlan.getArity();
+  }
+
+  @Override
+  public String operatorString() {
+    return "adaptive join max " + maxBytes + " bytes";
+  }
+
+  @Override
+  public List<PlanNode> children() {
+    return Arrays.asList(left, right, buildLeftPlan, buildRightPlan, sortPlan);
+  }
+
+  @Override
+  public List<PlaceholderNode> placeholders() {
+    return Arrays.asList(leftInput, rightInput);
+  }
+
+  @Override
+  public PlanNode transform(TransformFn fn, List<PlanNode> originalPath) {
+    try {
+      Tools.addLast(originalPath, this);
+      PlanNode newLeft = left.transform(fn, originalPath), newRight = right.transform(fn, originalPath);
+      PlanNode newBuildLeft = buildLeftPlan.transform(fn, originalPath), newBuildRight = buildRightPlan.transform(fn, originalPath);
+      PlanNode newSort = sortPlan.transform(fn, originalPath);
+      PlanNode newNode = newLeft.equals(left) && newRight.equals(right) && newBuildLeft.equals(buildLeftPlan) && newBuildRight.equals(buildRightPlan)
+          && newSort.equals(sortPlan) ? this
+              : new AdaptiveJoinNode(newLeft, newRight, leftInput, rightInput, newBuildLeft, newBuildRight, newSort, maxBytes);
+      return fn.apply(this, newNode, originalPath);
+    } finally {
+      Tools.removeLast(originalPath);
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return equals(obj, Collections.emptyMap());
+  }
+
+  @Override
+  public boolean equals(Object obj, Map<PlanNode, PlanNode> assumedEqualities) {
+    if (this == obj) return true;
+    if (!(obj.getClass() == getClass())) {
+      return false;
+    }
+    AdaptiveJoinNode node = (AdaptiveJoinNode) obj;
+    if (maxBytes != node.maxBytes || !left.equals(node.left, assumedEqualities) || !right.equals(node.right, assumedEqualities)) {
+      return false;
+    }
+    assumedEqualities = Tools.with(Tools.with(assumedEqualities, leftInput, node.leftInput), rightInput, node.rightInput);
+    return buildLeftPlan.equals(node.buildLeftPlan, assumedEqualities) && buildRightPlan.equals(node.buildRightPlan, assumedEqualities)
+        && sortPlan.equals(node.sortPlan, assumedEqualities);
+  }
+
+  @Override
+  public int hashCode() {
+    // the hash codes of the alternatives depend on the identity of the placeholders
+    return Objects.hash(left, right, getArity(), maxBytes);
+  }
+
+  @Override
+  public String toString() {
+    return toPrettyString();
+  }
+
+}
@@ -1,41 +1,155 @@
 package bashlog.plan;
 
 import common.Tools;
-import common.plan.node.PlanNode;
-import common.plan.node.ProjectNode;
-import common.plan.node.RecursionNode;
+import common.plan.node.*;
+import common.plan.optimizer.Keys;
 import common.plan.optimizer.Optimizer;
 
-import java.util.Arrays;
+import java.util.*;
 
 // TODO: "push up" sorting (only useful on topmost sort?)
 public class BashlogOptimizer implements Optimizer {
 
+  /** Whether unions are computed by sort -u, i.e., not in unordered mode; null if they might still become multi outputs */
+  private final Boolean sortedUnions;
+
+  /** Declared keys of the input relations */
+  private final Keys keys;
+
+  public BashlogOptimizer() {
+    this(true);
+  }
+
+  public BashlogOptimizer(Boolean sortedUnions) {
+    this(sortedUnions, new Keys());
+  }
+
+  public BashlogOptimizer(Boolean sortedUnions, Keys keys) {
+    this.sortedUnions = sortedUnions;
+    this.keys = keys;
+  }
+
+  /**
+   * Remove sorts whose input is already sorted (see SortOrder). Sorts with explicit columns prepare the input of a join,
+   * which only needs to be ordered by the first column. Sorts of all columns also remove duplicates; if the input is
+   * sorted, but might contain duplicates, it is only merged. If the input has no duplicates (e.g., it keeps a key),
+   * it is sorted without removing duplicates.
+   */
+  private PlanNode removeSort(SortNode sn, SortOrder orders) {
+    int[] cols = sn.sortColumns();
+    if (sn.merge()) {
+      // the input is sorted, but a previous pass did not know that it has no duplicates
+      return orders.of(sn.getTable()).unique ? sn.getTable() : sn;
+    }
+    if (cols.length == 0) return sn;
+    boolean dedup = Arrays.stream(Tools.sequence(sn.getArity())).allMatch(c -> Arrays.stream(cols).anyMatch(k -> k == c));
+    int[] required;
+    if (!dedup) {
+      required = new int[] { cols[0] };
+    } else if (Arrays.equals(cols, Tools.sequence(sn.getArity()))) {
+      required = cols;
+    } else {
+      return sn;
+    }
+    SortOrder.Order input = orders.of(sn.getTable());
+    if (!input.sortedBy(required)) {
+      // sort -k 1 compares whole lines, like a sort of all columns, but keeps duplicates
+      return dedup && input.unique && sn.getArity() > 1 ? new SortNode(sn.getTable(), new int[] { 0 }) : sn;
+    }
+    if (!dedup || input.unique) {
+      return sn.getTable();
+    }
+    return new SortNode(sn.getTable(), cols, true);
+  }
+
+  /** Values of columns that are constant, as strings (the representation in the output) */
+  private static Map<Integer, String> constants(PlanNode p) {
+    Map<Integer, String> result = new HashMap<>();
+    if (p instanceof ProjectNode) {
+      ProjectNode prj = (ProjectNode) p;
+      Map<Integer, String> child = constants(prj.getTable());
+      for (int i = 0; i < prj.getArity(); i++) {
+        int src = i < prj.getProjection().length ? prj.getProjection()[i] : -1;
+        if (src >= 0) {
+          if (child.containsKey(src)) result.put(i, child.get(src));
+        } else {
+          int col = i;
+          prj.getConstant(i).ifPresent(c -> result.put(col, c.toString()));
+        }
+      }
+    } else if (p instanceof ConstantEqualityFilterNode) {
+      ConstantEqualityFilterNode f = (ConstantEqualityFilterNode) p;
+      result.putAll(constants(f.getTable()));
+      result.put(f.getField(), f.getValue().toString());
+    } else if (p instanceof EqualityFilterNode) {
+      result.putAll(constants(((EqualityFilterNode) p).getTable()));
+    } else if (p instanceof SortNode || p instanceof DistinctNode || p instanceof SemiJoinFilterNode || p instanceof CombinedColumnNode) {
+      result.putAll(constants(p.children().iterator().next()));
+    }
+    return result;
+  }
+
+  /** Whether two plans have a column with different constant values */
+  private static boolean disjoint(Map<Integer, String> constants1, Map<Integer, String> constants2) {
+    return constants1.entrySet().stream().anyMatch(e -> constants2.containsKey(e.getKey()) && !constants2.get(e.getKey()).equals(e.getValue()));
+  }
+
+  /**
+   * A union of inputs without duplicates, which differ pairwise in the constant of a column, is a concatenation. In
+   * unordered mode, it needs no hash table; otherwise the result is sorted, but duplicates need not be removed.
+   */
+  private PlanNode disjointUnion(UnionNode u, SortOrder orders) {
+    List<PlanNode> children = new ArrayList<>(u.getChildren());
+    if (children.size() < 2 || !children.stream().allMatch(c -> orders.of(c).unique)) return u;
+    List<Map<Integer, String>> constants = new ArrayList<>();
+    for (PlanNode c : children) {
+      Map<Integer, String> cnst = constants(c);
+      if (constants.stream().anyMatch(other -> !disjoint(cnst, other))) return u;
+      constants.add(cnst);
+    }
+    PlanNode result = new DisjointUnionNode(new HashSet<>(children));
+    return sortedUnions ? new SortNode(result, new int[] { 0 }) : result;
+  }
+
+  /** A union of inputs that are sorted by all columns only needs to merge them, instead of sorting everything again */
+  private PlanNode mergeUnion(UnionNode u, SortOrder orders) {
+    int[] all = Tools.sequence(u.getArity());
+    if (u.getChildren().size() < 2 || !u.getChildren().stream().allMatch(c -> orders.of(c).sortedBy(all))) {
+      return disjointUnion(u, orders);
+    }
+    return new MergeUnionNode(new HashSet<>(u.getChildren()));
+  }
+
+  /**
+   * Whether the translation of the distinct node streams its input: a recursion then outputs every delta as soon as it is
+   * computed, and a union outputs the rows of its children (see translation.Distinct). Such distinct nodes are kept,
+   * although their input has no duplicates.
+   */
+  private static boolean streams(DistinctNode d) {
+    PlanNode p = d.getTable();
+    while (p instanceof DictionaryDecodeNode) {
+      p = ((DictionaryDecodeNode) p).getTable();
+    }
+    return p instanceof RecursionNode || p instanceof UnionNode;
+  }
+
   public PlanNode apply(PlanNode node) {
+    SortOrder orders = new SortOrder(node, sortedUnions, keys);
     return node.transform((n) -> {
       if (n instanceof SortNode) {
-        SortNode sn = (SortNode) n;
-        int[] parentSortCols = sn.sortColumns();
-        int[] childSortCols = null;
-
-        if (sn.getTable() instanceof RecursionNode) {
-          childSortCols = Tools.sequence(sn.getTable().getArity());
-        } else if (sn.getTable() instanceof SortNode) {
-          childSortCols = ((SortNode) sn.getTable()).sortColumns();
-        }
+        return removeSort((SortNode) n, orders);
+      }
 
-        if (childSortCols != null && parentSortCols.length <= childSortCols.length) {
-          for(int i=0; i<parentSortCols.length; i++) {
-            if (parentSortCols[i] != childSortCols[i]) {
-              return n;
-            }
-          }
-          if (sn.getTable() instanceof RecursionNode) {
-            return sn.getTable();
-          } else if (sn.getTable() instanceof SortNode) {
-            return ((SortNode) n).getTable();
-          }
-        }
+      else if (n instanceof DistinctNode && orders.of(((DistinctNode) n).getTable()).unique && !streams((DistinctNode) n)) {
+        return ((DistinctNode) n).getTable();
+      }
+
+      else if (n.getClass() == UnionNode.class && Boolean.TRUE.equals(sortedUnions)) {
+        return mergeUnion((UnionNode) n, orders);
+      }
+
+      else if (n.getClass() == UnionNode.class && sortedUnions != null) {
+        return disjointUnion((UnionNode) n, orders);
       }
 
       else if (n instanceof ProjectNode) {
@@ -1,24 +1,152 @@
 package bashlog.plan;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
 import common.Tools;
 import common.plan.node.*;
+import common.plan.optimizer.CostModel;
 import common.plan.optimizer.Optimizer;
+import common.plan.optimizer.Statistics;
+import common.plan.optimizer.Statistics.Stats;
 
 public class BashlogPlan implements Optimizer {
 
-  /** Adds extra column with dummy value */
-  private PlanNode prepareSortCrossProduct(PlanNode p) {
-    int[] proj = new int[p.getArity() + 1];
-    Comparable<?>[] cnst = new Comparable[proj.length];
-    for (int i = 0; i < p.getArity(); i++) {
-      proj[i + 1] = i;
+  /** Relations with at most this many rows are joined in memory (hash join) */
+  public static final long HASH_JOIN_MAX_ROWS = 100_000;
+
+  /** The keys of a selective join input are used to filter the other input before sorting it, up to this many keys */
+  public static final long SEMIJOIN_MAX_KEYS = 1_000_000;
+
+  /** A join input is selective if it is estimated to have this many times fewer rows than the other input */
+  public static final double SEMIJOIN_RATIO = 10;
+
+  /** By default, sort joins are hash partitioned (see ExchangeNode) if both inputs are estimated to have at least this many rows */
+  public static final double EXCHANGE_MIN_ROWS = 1_000_000;
+
+  /** Statistics for estimating the selectivity of join inputs, null if not available */
+  private final Statistics statistics;
+
+  /** Whether to hash partition sort joins and anti-joins, so that they run in parallel on smaller inputs */
+  private final boolean exchange;
+
+  /** Joins are only hash partitioned if both inputs have at least this many rows */
+  private final double exchangeMinRows;
+
+  /** Sort joins and anti-joins become adaptive joins, which keep an input of at most this many bytes in memory; 0 if disabled */
+  private final long adaptiveJoinMaxBytes;
+
+  private CostModel costModel;
+
+  public BashlogPlan() {
+    this(null, false, EXCHANGE_MIN_ROWS, 0);
+  }
+
+  public BashlogPlan(Statistics statistics, boolean exchange, double exchangeMinRows, long adaptiveJoinMaxBytes) {
+    this.statistics = statistics;
+    this.exchange = exchange;
+    this.exchangeMinRows = exchangeMinRows;
+    this.adaptiveJoinMaxBytes = adaptiveJoinMaxBytes;
+  }
+
+  /**
+   * Upper bound for the number of rows a plan produces, if it is known at compile time.
+   * @return bound, or -1 if unknown
+   */
+  static long maxRows(PlanNode p) {
+    if (p instanceof FactNode) {
+      return ((FactNode) p).getFacts().size();
+    } else if (p instanceof ProjectNode || p instanceof EqualityFilterNode || p instanceof SortNode || p instanceof CombinedColumnNode) {
+      return maxRows(p.children().iterator().next());
+    } else if (p instanceof UnionNode || p instanceof JoinNode) {
+      long result = p instanceof UnionNode ? 0 : 1;
+      for (PlanNode c : p.children()) {
+        long childRows = maxRows(c);
+        if (childRows < 0) return -1;
+        result = p instanceof UnionNode ? result + childRows : result * childRows;
+      }
+      return result;
+    } else if (p instanceof AntiJoinNode) {
+      return maxRows(((AntiJoinNode) p).getLeft());
+    }
+    return -1;
+  }
+
+  /** Whether a plan is known to be small enough to keep it in memory */
+  private boolean isSmall(PlanNode p) {
+    long rows = maxRows(p);
+    return rows >= 0 && rows <= HASH_JOIN_MAX_ROWS;
+  }
+
+  /** Whether the plan filters a column by a constant (e.g., pins a department), possibly followed by projections and filters */
+  private static boolean isPinned(PlanNode p) {
+    while (p instanceof ProjectNode || p instanceof VariableEqualityFilterNode) {
+      p = p instanceof ProjectNode ? ((ProjectNode) p).getTable() : ((VariableEqualityFilterNode) p).getTable();
+    }
+    return p instanceof ConstantEqualityFilterNode;
+  }
+
+  private static boolean containsPlaceholder(PlanNode p) {
+    return p instanceof PlaceholderNode || p.children().stream().anyMatch(BashlogPlan::containsPlaceholder);
+  }
+
+  /**
+   * Whether the input with the given join columns is much smaller than the other input, so its keys can prefilter the other one.
+   * Uses the estimates of the cost model if possible, otherwise inputs with a constant filter are considered to be selective.
+   */
+  private boolean isSelective(PlanNode input, int[] columns, PlanNode other) {
+    if (containsPlaceholder(input)) {
+      // the delta of a recursion changes in every iteration, so its keys would be computed twice
+      return false;
+    }
+    Stats s = costModel == null ? null : costModel.estimate(input), o = costModel == null ? null : costModel.estimate(other);
+    if (s != null && o != null) {
+      double keys = s.rows;
+      for (int c : columns) {
+        keys = Math.min(keys, s.distinct[c]);
+      }
+      return s.rows * SEMIJOIN_RATIO <= o.rows && keys <= SEMIJOIN_MAX_KEYS;
+    }
+    return isPinned(input) && !isPinned(other);
+  }
+
+  /**
+   * Whether a join of these inputs should be hash partitioned: if both are large by their estimates, or without estimates,
+   * by their maximal number of rows. Joins of inputs of unknown size are not partitioned, as splitting small inputs
+   * costs more than it saves. Not within recursions, as the shards would change in every iteration.
+   */
+  private boolean isPartitioned(PlanNode left, PlanNode right) {
+    if (!exchange || containsPlaceholder(left) || containsPlaceholder(right)) {
+      return false;
     }
-    proj[0] = -1;
-    cnst[0] = "_";
-    return p.project(proj, cnst);
+    Stats l = costModel == null ? null : costModel.estimate(left), r = costModel == null ? null : costModel.estimate(right);
+    if (l != null && r != null) {
+      return Math.min(l.rows, r.rows) >= exchangeMinRows;
+    }
+    long lm = maxRows(left), rm = maxRows(right);
+    return lm >= 0 && rm >= 0 && Math.min(lm, rm) >= exchangeMinRows;
+  }
+
+  /**
+   * Whether a join of these inputs should choose between hash join and sort join at runtime (see AdaptiveJoinNode).
+   * Not within recursions, as the inputs would be written to files in every iteration.
+   */
+  private boolean isAdaptive(PlanNode left, PlanNode right) {
+    return adaptiveJoinMaxBytes > 0 && !containsPlaceholder(left) && !containsPlaceholder(right);
+  }
+
+  /**
+   * Whether the left input of a cross product should be kept in memory: if it is known to be smaller than the right one,
+   * by its maximal number of rows or by an estimate.
+   */
+  private boolean buildLeft(PlanNode left, PlanNode right) {
+    long l = maxRows(left), r = maxRows(right);
+    if (l >= 0 || r >= 0) {
+      return l >= 0 && (r < 0 || l <= r);
+    }
+    Stats ls = costModel == null ? null : costModel.estimate(left), rs = costModel == null ? null : costModel.estimate(right);
+    return ls != null && rs != null && ls.rows < rs.rows;
   }
 
   private PlanNode prepareSortJoin(PlanNode p, int[] columns) {
@@ -36,53 +164,108 @@ public class BashlogPlan implements Optimizer {
     return new SortNode(c, new int[] { p.getArity() });
   }
 
-  /** Replace certain common.plan.* nodes with their bashlog implementations */
-  private PlanNode transform(PlanNode p) {
+  /** Sort the inputs, and join them on one column (a combined column if necessary) */
+  private PlanNode sortJoin(PlanNode left, PlanNode right, int[] leftProjection, int[] rightProjection) {
+    // sort input and add combined column if necessary
+    left = prepareSortJoin(left, leftProjection);
+    right = prepareSortJoin(right, rightProjection);
+    if (leftProjection.length == 1) {
+      // no combined column necessary, so we can directly return the join
+      return new SortJoinNode(left, right, leftProjection, rightProjection);
+    }
+    // remove extra columns
+    PlanNode join = new SortJoinNode(left, right, new int[] { left.getArity() - 1 }, new int[] { right.getArity() - 1 });
+    int rightStart = left.getArity();
+    return join.project(Tools.concat(Tools.sequence(left.getArity() - 1), Tools.sequence(rightStart, rightStart + right.getArity() - 1)));
+  }
+
+  /** Sort the inputs, and remove the rows of the left input that occur in the right input */
+  private PlanNode sortAntiJoin(PlanNode left, PlanNode right, int[] leftProjection) {
+    left = prepareSortJoin(left, leftProjection);
+    right = prepareSortJoin(right, Tools.sequence(right.getArity()));
+
+    if (leftProjection.length == 1) {
+      // no combined column necessary, so we can directly return the join
+      return new SortAntiJoinNode(left, right, leftProjection);
+    }
+    // remove extra columns
+    PlanNode antijoin = new SortAntiJoinNode(left, right.project(new int[] { right.getArity() - 1 }), new int[] { left.getArity() - 1 });
+    return antijoin.project(Tools.sequence(left.getArity() - 1));
+  }
+
+  /**
+   * Join of inputs that are too large to keep them in memory: a sort join, whose inputs might be prefiltered or hash partitioned
+   * @param oldJoin the join before its children were transformed, for estimating the sizes of the inputs
+   */
+  private PlanNode largeJoin(JoinNode oldJoin, PlanNode left, PlanNode right) {
+    int[] leftProjection = oldJoin.getLeftProjection(), rightProjection = oldJoin.getRightProjection();
+    // prefilter the large input with the join keys of a selective input, to sort less
+    if (isSelective(oldJoin.getLeft(), leftProjection, oldJoin.getRight())) {
+      right = new SemiJoinFilterNode(right, left.project(leftProjection), rightProjection, SEMIJOIN_MAX_KEYS);
+    } else if (isSelective(oldJoin.getRight(), rightProjection, oldJoin.getLeft())) {
+      left = new SemiJoinFilterNode(left, right.project(rightProjection), leftProjection, SEMIJOIN_MAX_KEYS);
+    }
+    if (isPartitioned(oldJoin.getLeft(), oldJoin.getRight())) {
+      // join every shard separately
+      ExchangeNode.Builder builder = new ExchangeNode.Builder();
+      PlanNode shardPlan = sortJoin(builder.getNextShard(left.getArity()), builder.getNextShard(right.getArity()), leftProjection, rightProjection);
+      return builder.build(shardPlan, Arrays.asList(left, right), Arrays.asList(leftProjection, rightProjection));
+    }
+    return sortJoin(left, right, leftProjection, rightProjection);
+  }
+
+  /** Anti-join of inputs that are too large to keep them in memory: a sort anti-join, which might be hash partitioned */
+  private PlanNode largeAntiJoin(AntiJoinNode oldAntiJoin, PlanNode left, PlanNode right) {
+    int[] leftProjection = oldAntiJoin.getLeftProjection();
+    if (isPartitioned(oldAntiJoin.getLeft(), oldAntiJoin.getRight())) {
+      // the right side is partitioned by all of its columns, which correspond to the key columns of the left side
+      ExchangeNode.Builder builder = new ExchangeNode.Builder();
+      PlanNode shardPlan = sortAntiJoin(builder.getNextShard(left.getArity()), builder.getNextShard(right.getArity()), leftProjection);
+      return builder.build(shardPlan, Arrays.asList(left, right), Arrays.asList(leftProjection, Tools.sequence(right.getArity())));
+    }
+    return sortAntiJoin(left, right, leftProjection);
+  }
+
+  /**
+   * Replace certain common.plan.* nodes with their bashlog implementations
+   * @param old the node before its children were transformed
+   */
+  private PlanNode transform(PlanNode old, PlanNode p) {
     if (p instanceof JoinNode) {
       // replace join node with sort join node
       JoinNode joinNode = (JoinNode) p;
+      JoinNode oldJoin = (JoinNode) old;
       if (joinNode.getLeftProjection().length == 0) {
-        // no join condition, so do a cross product
-        // sort input and add a dummy column
-        PlanNode left = prepareSortCrossProduct(joinNode.getLeft());
-        PlanNode right = prepareSortCrossProduct(joinNode.getRight());
-        PlanNode crossProduct = new SortJoinNode(left, right, new int[] { 0 }, new int[] { 0 });
-
-        // remove extra columns
-        int[] proj = new int[left.getArity() + right.getArity() - 2];
-        for (int i = 1; i < left.getArity(); i++) {
-          proj[i - 1] = i;
-        }
-        for (int i = 1; i < right.getArity(); i++) {
-          proj[left.getArity() - 2 + i] = left.getArity() + i;
-        }
-        return crossProduct.project(proj);
+        // no join condition, so do a cross product, keeping the smaller input in memory
+        return new CrossProductNode(joinNode.getLeft(), joinNode.getRight(), buildLeft(oldJoin.getLeft(), oldJoin.getRight()));
+      } else if (isSmall(joinNode.getLeft()) || isSmall(joinNode.getRight())) {
+        // keep the small side in memory, no need to sort the inputs
+        boolean buildLeft = isSmall(joinNode.getLeft()) && (!isSmall(joinNode.getRight()) || maxRows(joinNode.getLeft()) <= maxRows(joinNode.getRight()));
+        return new HashJoinNode(joinNode.getLeft(), joinNode.getRight(), joinNode.getLeftProjection(), joinNode.getRightProjection(), buildLeft);
+      } else if (isAdaptive(oldJoin.getLeft(), oldJoin.getRight())) {
+        // write the inputs to files, and keep the smaller one in memory if it turns out to be small enough
+        AdaptiveJoinNode.Builder builder = new AdaptiveJoinNode.Builder(joinNode.getLeft().getArity(), joinNode.getRight().getArity());
+        PlanNode left = builder.getLeftInput(), right = builder.getRightInput();
+        int[] leftProjection = joinNode.getLeftProjection(), rightProjection = joinNode.getRightProjection();
+        return builder.build(joinNode.getLeft(), joinNode.getRight(), new HashJoinNode(left, right, leftProjection, rightProjection, true),
+            new HashJoinNode(left, right, leftProjection, rightProjection, false), largeJoin(oldJoin, left, right), adaptiveJoinMaxBytes);
       } else {
-        // sort input and add combined column if necessary
-        PlanNode left = prepareSortJoin(joinNode.getLeft(), joinNode.getLeftProjection());
-        PlanNode right = prepareSortJoin(joinNode.getRight(), joinNode.getRightProjection());
-        if (joinNode.getLeftProjection().length == 1) {
-          // no combined column necessary, so we can directly return the join
-          return new SortJoinNode(left, right, joinNode.getLeftProjection(), joinNode.getRightProjection());
-        }
-        // remove extra columns
-        PlanNode join = new SortJoinNode(left, right, new int[] { left.getArity() - 1 }, new int[] { right.getArity() - 1 });
-        int rightStart = left.getArity();
-        return join.project(Tools.concat(Tools.sequence(left.getArity() - 1), Tools.sequence(rightStart, rightStart + right.getArity() - 1)));
+        return largeJoin(oldJoin, joinNode.getLeft(), joinNode.getRight());
       }
 
     } else if (p instanceof AntiJoinNode) {
       AntiJoinNode ajn = (AntiJoinNode) p;
-      PlanNode left = prepareSortJoin(ajn.getLeft(), ajn.getLeftProjection());
-      PlanNode right = prepareSortJoin(ajn.getRight(), Tools.sequence(ajn.getRight().getArity()));
-
-      if (ajn.getLeftProjection().length == 1) {
-        // no combined column necessary, so we can directly return the join
-        return new SortAntiJoinNode(left, right, ajn.getLeftProjection());
+      if (isSmall(ajn.getRight()) || isSmall(ajn.getLeft())) {
+        return new HashAntiJoinNode(ajn.getLeft(), ajn.getRight(), ajn.getLeftProjection(), !isSmall(ajn.getRight()));
+      }
+      AntiJoinNode oldAntiJoin = (AntiJoinNode) old;
+      if (isAdaptive(oldAntiJoin.getLeft(), oldAntiJoin.getRight())) {
+        AdaptiveJoinNode.Builder builder = new AdaptiveJoinNode.Builder(ajn.getLeft().getArity(), ajn.getRight().getArity());
+        PlanNode left = builder.getLeftInput(), right = builder.getRightInput();
+        return builder.build(ajn.getLeft(), ajn.getRight(), new HashAntiJoinNode(left, right, ajn.getLeftProjection(), true),
+            new HashAntiJoinNode(left, right, ajn.getLeftProjection(), false), largeAntiJoin(oldAntiJoin, left, right), adaptiveJoinMaxBytes);
       }
-      // remove extra columns
-      PlanNode antijoin = new SortAntiJoinNode(left, right.project(new int[] { right.getArity() - 1 }), new int[] { left.getArity() - 1 });
-      return antijoin.project(Tools.sequence(left.getArity() - 1));
+      return largeAntiJoin(oldAntiJoin, ajn.getLeft(), ajn.getRight());
 
     } else if (p instanceof RecursionNode) {
       // use sorted recursion
@@ -103,6 +286,7 @@ public class BashlogPlan implements Optimizer {
 
   @Override
   public PlanNode apply(PlanNode t) {
-    return t.transform(this::transform);
+    costModel = statistics == null ? null : new CostModel(statistics, t);
+    return t.transform((old, node, path) -> transform(old, node));
   }
 }
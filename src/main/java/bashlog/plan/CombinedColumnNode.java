@@ -1,8 +1,9 @@
 package bashlog.plan;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 
 import common.Tools;
 import common.plan.node.PlanNode;
@@ -47,7 +48,12 @@ public class CombinedColumnNode implements PlanNode {
 
   @Override
   public boolean equals(Object obj) {
-    return obj instanceof CombinedColumnNode && Objects.equals(child, ((CombinedColumnNode) obj).child)
+    return equals(obj, Collections.emptyMap());
+  }
+
+  @Override
+  public boolean equals(Object obj, Map<PlanNode, PlanNode> assumedEqualities) {
+    return obj instanceof CombinedColumnNode && child.equals(((CombinedColumnNode) obj).child, assumedEqualities)
         && Arrays.equals(columns, ((CombinedColumnNode) obj).columns);
   }
 
@@ -0,0 +1,64 @@
+package bashlog.plan;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import common.Tools;
+import common.plan.node.JoinNode;
+import common.plan.node.PlanNode;
+
+/** Cross product of two inputs: one of them (the build side) is kept in memory, and the other one is streamed */
+public class CrossProductNode extends JoinNode {
+
+  protected final boolean buildLeft;
+
+  /**
+   * @param buildLeft whether the left input is kept in memory, otherwise the right input is kept in memory
+   */
+  public CrossProductNode(PlanNode left, PlanNode right, boolean buildLeft) {
+    super(left, right, new int[0], new int[0]);
+    this.buildLeft = buildLeft;
+  }
+
+  /** Whether the left input is kept in memory */
+  public boolean buildLeft() {
+    return buildLeft;
+  }
+
+  @Override
+  public String operatorString() {
+    return "× build " + (buildLeft ? "left" : "right");
+  }
+
+  @Override
+  public PlanNode transform(TransformFn fn, List<PlanNode> originalPath) {
+    try {
+      Tools.addLast(originalPath, this);
+      return fn.apply(this, new CrossProductNode(getLeft().transform(fn, originalPath), getRight().transform(fn, originalPath), buildLeft),
+          originalPath);
+    } finally {
+      Tools.removeLast(originalPath);
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return equals(obj, new HashMap<>());
+  }
+
+  @Override
+  public boolean equals(Object obj, Map<PlanNode, PlanNode> assumedEqualities) {
+    if (this == obj) return true;
+    if (!(obj.getClass() == getClass())) {
+      return false;
+    }
+    return super.equals(obj, assumedEqualities) && buildLeft == ((CrossProductNode) obj).buildLeft;
+  }
+
+  @Override
+  public int hashCode() {
+    return super.hashCode() ^ Boolean.hashCode(buildLeft);
+  }
+
+}
@@ -0,0 +1,71 @@
+package bashlog.plan;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import common.Tools;
+import common.plan.node.PlanNode;
+
+/** Replace the integer ids of all columns by their values, as stored in a dictionary file */
+public class DictionaryDecodeNode implements PlanNode {
+
+  private final PlanNode child;
+
+  private final String dictionaryFile;
+
+  public DictionaryDecodeNode(PlanNode child, String dictionaryFile) {
+    this.child = child;
+    this.dictionaryFile = dictionaryFile;
+  }
+
+  @Override
+  public int getArity() {
+    return child.getArity();
+  }
+
+  public PlanNode getTable() {
+    return child;
+  }
+
+  public String getDictionaryFile() {
+    return dictionaryFile;
+  }
+
+  @Override
+  public String toString() {
+    return operatorString() + "(" + child + ")";
+  }
+
+  @Override
+  public String operatorString() {
+    return "decode_{" + dictionaryFile + "}";
+  }
+
+  @Override
+  public List<PlanNode> children() {
+    return Arrays.asList(child);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(child, dictionaryFile);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof DictionaryDecodeNode && Objects.equals(child, ((DictionaryDecodeNode) obj).child)
+        && Objects.equals(dictionaryFile, ((DictionaryDecodeNode) obj).dictionaryFile);
+  }
+
+  @Override
+  public PlanNode transform(TransformFn fn, List<PlanNode> originalPath) {
+    try {
+      Tools.addLast(originalPath, this);
+      return fn.apply(this, new DictionaryDecodeNode(child.transform(fn, originalPath), dictionaryFile), originalPath);
+    } finally {
+      Tools.removeLast(originalPath);
+    }
+  }
+
+}
@@ -0,0 +1,141 @@
+package bashlog.plan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import common.TSVReader;
+import common.plan.node.*;
+import common.plan.optimizer.Optimizer;
+
+/**
+ * Encode all values of the input relations as dense integer ids, so that sort and join compare short keys.
+ * The input files are encoded in one pass before the plan is executed, and the result is decoded at the root.
+ * Constants of the plan get their ids at compile time, based on the (persisted) dictionary file.
+ * The dictionary file contains lines "id TAB value", sorted by value.
+ */
+public class DictionaryEncoding implements Optimizer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DictionaryEncoding.class);
+
+  private final String dictionaryFile;
+
+  /** Maps values of the dictionary and of plan constants to their ids */
+  private final Map<String, Integer> valueToId = new HashMap<>();
+
+  /** Constants used in the plan, together with the ids assigned at compile time */
+  private final SortedMap<String, Integer> constants = new TreeMap<>();
+
+  /** Input relations (files and bash commands without arguments) to the files containing their encoded version */
+  private final Map<PlanNode, String> inputs = new LinkedHashMap<>();
+
+  /** Smallest id that is not used by the dictionary file at compile time */
+  private int dictionarySize = 0;
+
+  /** Smallest id that is not yet assigned */
+  private int nextId = 0;
+
+  /** Whether the plan was encoded */
+  private boolean active = false;
+
+  public DictionaryEncoding(String dictionaryFile) {
+    this.dictionaryFile = dictionaryFile;
+  }
+
+  public String getDictionaryFile() {
+    return dictionaryFile;
+  }
+
+  /** Constants of the plan and their ids */
+  public SortedMap<String, Integer> getConstants() {
+    return Collections.unmodifiableSortedMap(constants);
+  }
+
+  /** Relations that need to be encoded before executing the plan, and the file names of their encoded version */
+  public Map<PlanNode, String> getInputs() {
+    return Collections.unmodifiableMap(inputs);
+  }
+
+  /** Size of the dictionary when the plan was compiled. Ids of new constants start here. */
+  public int getCompiledDictionarySize() {
+    return dictionarySize;
+  }
+
+  /** Whether apply(...) has encoded the plan */
+  public boolean isActive() {
+    return active;
+  }
+
+  @Override
+  public PlanNode apply(PlanNode t) {
+    // bash commands with arguments receive the plan values, and cannot deal with the ids
+    boolean[] supported = new boolean[] { true };
+    t.transform(n -> {
+      if ((n instanceof BashNode && !n.children().isEmpty()) || n instanceof BuiltinNode) {
+        supported[0] = false;
+      }
+      return n;
+    });
+    if (!supported[0]) {
+      LOG.warn("dictionary encoding does not support bash commands that use other relations; values stay unencoded");
+      return t;
+    }
+
+    loadDictionary();
+    PlanNode encoded = t.transform(n -> {
+      if (n instanceof TSVFileNode || (n instanceof BashNode && n.children().isEmpty())) {
+        String file = inputs.computeIfAbsent(n, k -> "$tmp/enc" + inputs.size());
+        return new TSVFileNode(file, n.getArity());
+      } else if (n instanceof ConstantEqualityFilterNode) {
+        ConstantEqualityFilterNode f = (ConstantEqualityFilterNode) n;
+        return f.getTable().equalityFilter(f.getField(), encode(f.getValue()));
+      } else if (n instanceof ProjectNode && ((ProjectNode) n).hasConstants()) {
+        ProjectNode p = (ProjectNode) n;
+        Comparable<?>[] cnst = Arrays.stream(p.getConstants()).map(c -> c == null ? null : encode(c)).toArray(Comparable<?>[]::new);
+        return p.getTable().project(p.getProjection(), cnst);
+      } else if (n instanceof FactNode) {
+        List<FactNode> facts = new ArrayList<>();
+        for (Comparable<?>[] fact : ((FactNode) n).getFacts()) {
+          facts.add(new FactNode(Arrays.stream(fact).map(this::encode).toArray(Comparable<?>[]::new)));
+        }
+        return new FactNode(facts);
+      }
+      return n;
+    });
+    active = true;
+    if (encoded instanceof MultiQueryNode) {
+      return ((MultiQueryNode) encoded).mapQueries(q -> new DictionaryDecodeNode(q, dictionaryFile));
+    }
+    return new DictionaryDecodeNode(encoded, dictionaryFile);
+  }
+
+  /** Read the dictionary of previous runs, if available */
+  private void loadDictionary() {
+    File f = new File(dictionaryFile);
+    if (!f.exists()) return;
+    try (TSVReader reader = new TSVReader(f)) {
+      for (List<String> line : reader) {
+        if (line.isEmpty()) continue;
+        int id = Integer.parseInt(line.get(0));
+        // the reader drops trailing empty fields
+        valueToId.put(line.size() > 1 ? line.get(1) : "", id);
+        nextId = Math.max(nextId, id + 1);
+      }
+      dictionarySize = nextId;
+    } catch (IOException | NumberFormatException e) {
+      throw new IllegalStateException("could not read dictionary " + dictionaryFile, e);
+    }
+  }
+
+  /** Get id for a constant, and assign a new one if necessary */
+  private String encode(Comparable<?> value) {
+    String str = value.toString();
+    int id = valueToId.computeIfAbsent(str, k -> nextId++);
+    constants.put(str, id);
+    return Integer.toString(id);
+  }
+
+}
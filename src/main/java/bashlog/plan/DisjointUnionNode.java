@@ -0,0 +1,35 @@
+package bashlog.plan;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import common.Tools;
+import common.plan.node.PlanNode;
+import common.plan.node.UnionNode;
+
+/** Union of inputs that have no duplicates and that are pairwise disjoint, so the inputs only need to be concatenated */
+public class DisjointUnionNode extends UnionNode {
+
+  public DisjointUnionNode(Set<PlanNode> children) {
+    super(children);
+  }
+
+  @Override
+  public String operatorString() {
+    return "⊎";
+  }
+
+  @Override
+  public PlanNode transform(TransformFn fn, List<PlanNode> originalPath) {
+    try {
+      Tools.addLast(originalPath, this);
+      // nested unions are not flattened, as their inputs might overlap
+      Set<PlanNode> newChildren = children.stream().map(child -> child.transform(fn, originalPath)).collect(Collectors.toSet());
+      return fn.apply(this, newChildren.equals(children) ? this : new DisjointUnionNode(newChildren), originalPath);
+    } finally {
+      Tools.removeLast(originalPath);
+    }
+  }
+
+}
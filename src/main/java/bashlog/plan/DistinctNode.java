@@ -0,0 +1,70 @@
+package bashlog.plan;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import common.Tools;
+import common.plan.node.PlanNode;
+
+/** Remove duplicate rows, without sorting them; the rows are output as soon as they are seen the first time */
+public class DistinctNode implements PlanNode {
+
+  private final PlanNode child;
+
+  public DistinctNode(PlanNode child) {
+    this.child = child;
+  }
+
+  @Override
+  public int getArity() {
+    return child.getArity();
+  }
+
+  public PlanNode getTable() {
+    return child;
+  }
+
+  @Override
+  public String toString() {
+    return operatorString() + "(" + child + ")";
+  }
+
+  @Override
+  public String operatorString() {
+    return "distinct";
+  }
+
+  @Override
+  public List<PlanNode> children() {
+    return Arrays.asList(child);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(child, "distinct");
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return equals(obj, Collections.emptyMap());
+  }
+
+  @Override
+  public boolean equals(Object obj, Map<PlanNode, PlanNode> assumedEqualities) {
+    return obj instanceof DistinctNode && child.equals(((DistinctNode) obj).child, assumedEqualities);
+  }
+
+  @Override
+  public PlanNode transform(TransformFn fn, List<PlanNode> originalPath) {
+    try {
+      Tools.addLast(originalPath, this);
+      return fn.apply(this, new DistinctNode(child.transform(fn, originalPath)), originalPath);
+    } finally {
+      Tools.removeLast(originalPath);
+    }
+  }
+
+}
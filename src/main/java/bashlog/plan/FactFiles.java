@@ -0,0 +1,86 @@
+package bashlog.plan;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import common.Tools;
+import common.plan.node.FactNode;
+import common.plan.node.PlanNode;
+import common.plan.optimizer.Optimizer;
+
+/**
+ * Writes fact nodes with many facts to files at compile time, instead of inlining them into the script.
+ * The files are sorted like sort -u with LC_ALL=C (by the bytes of the lines), so the plan can use them without sorting.
+ * The name of a file is the hash of its content, so equal facts share a file, and recompiling doesn't write it again.
+ */
+public class FactFiles implements Optimizer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FactFiles.class);
+
+  /** Absolute path of the directory, so that the script also finds the files when it runs in another directory */
+  private final Path directory;
+
+  private final int minFacts;
+
+  /**
+   * @param directory where the files are written, relative to the working directory of the compiler
+   * @param minFacts fact nodes with fewer facts stay in the script
+   */
+  public FactFiles(String directory, int minFacts) {
+    this.directory = Paths.get(directory).toAbsolutePath();
+    this.minFacts = minFacts;
+  }
+
+  @Override
+  public PlanNode apply(PlanNode plan) {
+    return plan.transform(n -> n instanceof FactNode && ((FactNode) n).getFacts().size() >= minFacts ? write((FactNode) n) : n);
+  }
+
+  /** Compare strings like sort with LC_ALL=C */
+  private static int compareBytes(byte[] a, byte[] b) {
+    for (int i = 0; i < Math.min(a.length, b.length); i++) {
+      if (a[i] != b[i]) {
+        return (a[i] & 0xff) - (b[i] & 0xff);
+      }
+    }
+    return a.length - b.length;
+  }
+
+  private PlanNode write(FactNode facts) {
+    List<byte[]> lines = facts.getFacts().stream() //
+        .map(fact -> Arrays.stream(fact).map(Object::toString).collect(Collectors.joining("\t")).getBytes(StandardCharsets.UTF_8)) //
+        .sorted(FactFiles::compareBytes).collect(Collectors.toList());
+    StringBuilder content = new StringBuilder();
+    byte[] prev = null;
+    for (byte[] line : lines) {
+      if (prev == null || compareBytes(prev, line) != 0) {
+        content.append(new String(line, StandardCharsets.UTF_8)).append("\n");
+      }
+      prev = line;
+    }
+    Path path = directory.resolve("facts-" + Tools.md5(content.toString()) + ".tsv");
+    try {
+      if (!Files.exists(path)) {
+        Files.createDirectories(directory);
+        // write to a temporary file first, so that the file is either complete or missing
+        Path tmp = Files.createTempFile(directory, "facts-", ".tmp");
+        Files.write(tmp, content.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      LOG.warn("could not write facts to " + path + ", keeping them in the script: " + e.getMessage());
+      return facts;
+    }
+    return new TSVFileNode(path.toString(), facts.getArity(), true);
+  }
+
+}
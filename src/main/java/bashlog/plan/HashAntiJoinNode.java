@@ -0,0 +1,57 @@
+package bashlog.plan;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import common.Tools;
+import common.plan.node.PlanNode;
+
+/** Anti-join two inputs by loading one of them into an associative array. The right input contains the columns of the left projection. */
+public class HashAntiJoinNode extends HashJoinNode {
+
+  public HashAntiJoinNode(PlanNode left, PlanNode right, int[] leftJoinProjection, boolean buildLeft) {
+    super(left, right, leftJoinProjection, Tools.sequence(right.getArity()), buildLeft);
+  }
+
+  @Override
+  public int getArity() {
+    return getLeft().getArity();
+  }
+
+  @Override
+  public String operatorString() {
+    return super.operatorString().replaceFirst("⋈_", "▷_");
+  }
+
+  @Override
+  public PlanNode transform(TransformFn fn, List<PlanNode> originalPath) {
+    try {
+      Tools.addLast(originalPath, this);
+      return fn.apply(this,
+          new HashAntiJoinNode(getLeft().transform(fn, originalPath), getRight().transform(fn, originalPath), getLeftProjection(), buildLeft),
+          originalPath);
+    } finally {
+      Tools.removeLast(originalPath);
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return equals(obj, new HashMap<>());
+  }
+
+  @Override
+  public boolean equals(Object obj, Map<PlanNode, PlanNode> assumedEqualities) {
+    if (this == obj) return true;
+    if (!(obj.getClass() == getClass())) {
+      return false;
+    }
+    return super.equals(obj, assumedEqualities);
+  }
+
+  @Override
+  public int hashCode() {
+    return super.hashCode();
+  }
+}
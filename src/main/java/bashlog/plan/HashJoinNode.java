@@ -0,0 +1,65 @@
+package bashlog.plan;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import common.Tools;
+import common.plan.node.JoinNode;
+import common.plan.node.PlanNode;
+
+/** Join two inputs by loading one of them (the build side) into an associative array, and streaming the other one */
+public class HashJoinNode extends JoinNode {
+
+  protected final boolean buildLeft;
+
+  /**
+   * @param buildLeft whether the left input is kept in memory, otherwise the right input is kept in memory
+   */
+  public HashJoinNode(PlanNode left, PlanNode right, int[] leftJoinProjection, int[] rightJoinProjection, boolean buildLeft) {
+    super(left, right, leftJoinProjection, rightJoinProjection);
+    if (leftJoinProjection.length == 0) throw new UnsupportedOperationException("hash join requires at least one join column");
+    this.buildLeft = buildLeft;
+  }
+
+  /** Whether the left input is kept in memory */
+  public boolean buildLeft() {
+    return buildLeft;
+  }
+
+  @Override
+  public String operatorString() {
+    return super.operatorString().replaceFirst("_", "_hash_") + " build " + (buildLeft ? "left" : "right");
+  }
+
+  @Override
+  public PlanNode transform(TransformFn fn, List<PlanNode> originalPath) {
+    try {
+      Tools.addLast(originalPath, this);
+      return fn.apply(this, new HashJoinNode(getLeft().transform(fn, originalPath), getRight().transform(fn, originalPath), getLeftProjection(),
+          getRightProjection(), buildLeft), originalPath);
+    } finally {
+      Tools.removeLast(originalPath);
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return equals(obj, new HashMap<>());
+  }
+
+  @Override
+  public boolean equals(Object obj, Map<PlanNode, PlanNode> assumedEqualities) {
+    if (this == obj) return true;
+    if (!(obj.getClass() == getClass())) {
+      return false;
+    }
+    return super.equals(obj, assumedEqualities) && buildLeft == ((HashJoinNode) obj).buildLeft;
+  }
+
+  @Override
+  public int hashCode() {
+    return super.hashCode() ^ Boolean.hashCode(buildLeft);
+  }
+
+}
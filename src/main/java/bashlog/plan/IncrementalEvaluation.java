@@ -0,0 +1,242 @@
+package bashlog.plan;
+
+import java.util.*;
+
+import common.Tools;
+import common.plan.node.*;
+import common.plan.optimizer.CatToFile;
+
+/**
+ * Incremental evaluation for input files that only receive appended rows. The script keeps the results and the full
+ * relations of the recursions of a run in a state directory, together with the size and checksum of the input files.
+ * If the input files of a later run only grew, the script evaluates the plan for the appended rows, and merges the new
+ * rows into the stored relations; otherwise, it evaluates the plan from scratch, and stores its relations.
+ * <p>
+ * The delta of a plan is derived like the recursive plan of semi-naive evaluation, e.g., the delta of a join of A and B
+ * is (delta A) join (new B) union (new A) join (delta B), where "new" is the plan for the current input files.
+ * A recursion continues from its stored full relation: the deltas of its exit and recursive plan (with the stored relation
+ * as delta and full) are the first delta, and every iteration removes the rows of the stored relation.
+ * Bash commands other than "cat file", anti-joins with a right side that might change, and recursions that use the delta
+ * of an enclosing recursion are not supported.
+ */
+public class IncrementalEvaluation {
+
+  /** The plan cannot be evaluated incrementally */
+  public static class UnsupportedPlanException extends RuntimeException {
+
+    private static final long serialVersionUID = -2311904263528914745L;
+
+    public UnsupportedPlanException(String message) {
+      super(message);
+    }
+
+  }
+
+  private final String stateDirectory;
+
+  /** Input files, to the temporary files that contain their appended rows */
+  private final Map<String, String> inputs = new LinkedHashMap<>();
+
+  /** Recursions that don't use placeholders of enclosing plans, inner ones first */
+  private final List<PlanNode> recursions = new ArrayList<>();
+
+  /** Rows of a recursion that are not in the stored relation (null if there are none) */
+  private final Map<PlanNode, PlanNode> recursionDelta = new HashMap<>();
+
+  /** Relation of a recursion after the update */
+  private final Map<PlanNode, PlanNode> recursionNew = new HashMap<>();
+
+  private PlanNode fullPlan, incrementalPlan;
+
+  public IncrementalEvaluation(String stateDirectory) {
+    this.stateDirectory = stateDirectory;
+  }
+
+  public String getStateDirectory() {
+    return stateDirectory;
+  }
+
+  /** Input files, and the temporary files for their rows that were appended since the last run */
+  public Map<String, String> getInputs() {
+    return Collections.unmodifiableMap(inputs);
+  }
+
+  /** Plan that evaluates everything from scratch, and writes the state */
+  public PlanNode getFullPlan() {
+    return fullPlan;
+  }
+
+  /** Plan that evaluates the appended rows, and updates the state */
+  public PlanNode getIncrementalPlan() {
+    return incrementalPlan;
+  }
+
+  /**
+   * Derive the full and the incremental plan from a simplified plan, whose queries remove their duplicates (sort or distinct).
+   * @throws UnsupportedPlanException if the plan cannot be evaluated incrementally
+   */
+  public void apply(PlanNode root) {
+    List<PlanNode> queries = root instanceof MultiQueryNode ? ((MultiQueryNode) root).getQueries() : Arrays.asList(root);
+    // a single query writes its result to stdout
+    List<String> outputFiles = root instanceof MultiQueryNode ? ((MultiQueryNode) root).getOutputFiles() : Arrays.asList((String) null);
+
+    Map<PlaceholderNode, PlanNode> placeholderToParent = PlaceholderNode.placeholderToParentMap(root);
+    root.transform((o, n, op) -> {
+      if (o instanceof RecursionNode && !recursions.contains(o)) {
+        if (!PlaceholderNode.outerParents(o, placeholderToParent).isEmpty()) {
+          throw new UnsupportedPlanException("incremental evaluation does not support recursions within recursions");
+        }
+        recursions.add(o);
+      }
+      return n;
+    }, new LinkedList<>());
+    for (int i = 0; i < recursions.size(); i++) {
+      update((RecursionNode) recursions.get(i), stored("rec" + i, recursions.get(i).getArity()));
+    }
+
+    // the outputs first, then the state
+    List<PlanNode> fullQueries = new ArrayList<>(queries), incQueries = new ArrayList<>(), incState = new ArrayList<>();
+    List<String> files = new ArrayList<>(outputFiles);
+    for (int i = 0; i < queries.size(); i++) {
+      PlanNode query = queries.get(i);
+      if (!(query instanceof SortNode || query instanceof DistinctNode)) {
+        throw new IllegalStateException("expected duplicate elimination at the root of a query, got " + query.operatorString());
+      }
+      PlanNode table = query instanceof SortNode ? ((SortNode) query).getTable() : ((DistinctNode) query).getTable();
+      PlanNode delta = delta(table, Collections.emptyMap());
+      PlanNode old = stored("result" + i, table.getArity());
+      PlanNode result = delta == null ? old : old.union(delta);
+      incQueries.add(query instanceof SortNode ? new SortNode(result, null) : new DistinctNode(result));
+      fullQueries.add(new SortNode(table, null));
+      incState.add(new SortNode(result, null));
+      files.add(stateDirectory("result" + i + ".new"));
+    }
+    for (int i = 0; i < recursions.size(); i++) {
+      fullQueries.add(new SortNode(recursions.get(i), null));
+      incState.add(new SortNode(recursionNew.get(recursions.get(i)), null));
+      files.add(stateDirectory("rec" + i + ".new"));
+    }
+    incQueries.addAll(incState);
+    fullPlan = new MultiQueryNode(fullQueries, files);
+    incrementalPlan = new MultiQueryNode(incQueries, files);
+  }
+
+  /** Path of a file in the state directory, as used by the script */
+  private static String stateDirectory(String name) {
+    return "$state/" + name;
+  }
+
+  /** Relation stored by the last run, which is sorted and has no duplicates */
+  private static PlanNode stored(String name, int arity) {
+    return new SortNode(new TSVFileNode(stateDirectory(name), arity), null, true);
+  }
+
+  /** Compute the new rows of a recursion, starting from the stored relation */
+  private void update(RecursionNode r, PlanNode old) {
+    Map<PlanNode, PlanNode> stored = new HashMap<>();
+    stored.put(r.getDelta(), old);
+    stored.put(r.getFull(), old);
+    PlanNode seed = union(delta(r.getExitPlan(), stored), delta(r.getRecursivePlan(), stored));
+    if (seed == null) {
+      recursionDelta.put(r, null);
+      recursionNew.put(r, old);
+      return;
+    }
+
+    int[] all = Tools.sequence(r.getArity());
+    PlaceholderNode delta = new PlaceholderNode("delta", r.getArity()), full = new PlaceholderNode("full", r.getArity());
+    Map<PlanNode, PlanNode> continued = new HashMap<>();
+    continued.put(r.getDelta(), delta);
+    continued.put(r.getFull(), old.union(full));
+    PlanNode recursivePlan = r.getRecursivePlan();
+    PlanNode closure = r.getDelta().join(r.getFull(), new int[] { 1 }, new int[] { 0 }).project(new int[] { 0, 3 });
+    if (recursivePlan.equals(closure)) {
+      // the transitive closure only extends the delta at its end (see SimplifyRecursion), which needs all paths to grow from
+      // the exit plan; the stored paths also need to be extended at their end
+      recursivePlan = closure.union(r.getFull().join(r.getDelta(), new int[] { 1 }, new int[] { 0 }).project(new int[] { 0, 3 }));
+    }
+    PlanNode recursive = current(recursivePlan, continued).antiJoin(old, all);
+    PlanNode newRows = new RecursionNode(seed.antiJoin(old, all), recursive, delta, full);
+    recursionDelta.put(r, newRows);
+    recursionNew.put(r, old.union(newRows));
+  }
+
+  /** The plan for the current input files, with the placeholders replaced, and recursions continuing from their stored relation */
+  private PlanNode current(PlanNode plan, Map<PlanNode, PlanNode> placeholders) {
+    return plan.transform((o, n, op) -> {
+      PlanNode replacement = placeholders.containsKey(o) ? placeholders.get(o) : recursionNew.get(o);
+      return replacement == null ? n : replacement;
+    }, new LinkedList<>());
+  }
+
+  private static PlanNode union(PlanNode a, PlanNode b) {
+    return a == null ? b : b == null ? a : a.union(b);
+  }
+
+  /** Input file that a leaf reads, null for other nodes */
+  static String inputFile(PlanNode p) {
+    if (p instanceof TSVFileNode && !((TSVFileNode) p).getPath().startsWith("$")) {
+      return ((TSVFileNode) p).getPath();
+    }
+    if (p instanceof BashNode && p.children().isEmpty()) {
+      return CatToFile.catFile(((BashNode) p).getCommand());
+    }
+    return null;
+  }
+
+  /**
+   * A plan for (a superset of) the rows of the plan that are not in its result for the previous input files, and that are
+   * in its result for the current ones; null if there are none
+   * @param placeholders plans of the placeholders for the current input files; their deltas are empty
+   */
+  private PlanNode delta(PlanNode p, Map<PlanNode, PlanNode> placeholders) {
+    String file = inputFile(p);
+    if (file != null) {
+      return new TSVFileNode(inputs.computeIfAbsent(file, k -> "$tmp/appended" + inputs.size()), p.getArity());
+    }
+
+    if (p instanceof RecursionNode) {
+      return recursionDelta.get(p);
+    } else if (p instanceof PlaceholderNode || p instanceof FactNode) {
+      return null;
+    } else if (p instanceof UnionNode) {
+      PlanNode result = null;
+      for (PlanNode child : p.children()) {
+        result = union(result, delta(child, placeholders));
+      }
+      return result;
+    } else if (p instanceof ProjectNode) {
+      ProjectNode prj = (ProjectNode) p;
+      PlanNode child = delta(prj.getTable(), placeholders);
+      return child == null ? null : child.project(prj.getProjection(), prj.getConstants());
+    } else if (p instanceof ConstantEqualityFilterNode) {
+      ConstantEqualityFilterNode f = (ConstantEqualityFilterNode) p;
+      PlanNode child = delta(f.getTable(), placeholders);
+      return child == null ? null : child.equalityFilter(f.getField(), f.getValue());
+    } else if (p instanceof VariableEqualityFilterNode) {
+      VariableEqualityFilterNode f = (VariableEqualityFilterNode) p;
+      PlanNode child = delta(f.getTable(), placeholders);
+      return child == null ? null : child.equalityFilter(f.getField1(), f.getField2());
+    } else if (p.getClass() == JoinNode.class) {
+      JoinNode j = (JoinNode) p;
+      PlanNode left = delta(j.getLeft(), placeholders), right = delta(j.getRight(), placeholders);
+      PlanNode result = null;
+      if (left != null) {
+        result = left.join(current(j.getRight(), placeholders), j.getLeftProjection(), j.getRightProjection());
+      }
+      if (right != null) {
+        result = union(result, current(j.getLeft(), placeholders).join(right, j.getLeftProjection(), j.getRightProjection()));
+      }
+      return result;
+    } else if (p.getClass() == AntiJoinNode.class) {
+      AntiJoinNode j = (AntiJoinNode) p;
+      if (delta(j.getRight(), placeholders) != null) {
+        throw new UnsupportedPlanException("incremental evaluation does not support negation of relations that depend on input files");
+      }
+      PlanNode left = delta(j.getLeft(), placeholders);
+      return left == null ? null : left.antiJoin(current(j.getRight(), placeholders), j.getLeftProjection());
+    }
+    throw new UnsupportedPlanException("incremental evaluation does not support " + p.operatorString());
+  }
+
+}
@@ -0,0 +1,35 @@
+package bashlog.plan;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import common.Tools;
+import common.plan.node.PlanNode;
+import common.plan.node.UnionNode;
+
+/** Union of inputs that are sorted by all columns, so the inputs only need to be merged (removing duplicates) */
+public class MergeUnionNode extends UnionNode {
+
+  public MergeUnionNode(Set<PlanNode> children) {
+    super(children);
+  }
+
+  @Override
+  public String operatorString() {
+    return "∪ merge";
+  }
+
+  @Override
+  public PlanNode transform(TransformFn fn, List<PlanNode> originalPath) {
+    try {
+      Tools.addLast(originalPath, this);
+      // nested unions are not flattened, as their inputs might not be sorted anymore
+      Set<PlanNode> newChildren = children.stream().map(child -> child.transform(fn, originalPath)).collect(Collectors.toSet());
+      return fn.apply(this, newChildren.equals(children) ? this : new MergeUnionNode(newChildren), originalPath);
+    } finally {
+      Tools.removeLast(originalPath);
+    }
+  }
+
+}
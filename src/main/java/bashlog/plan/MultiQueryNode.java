@@ -0,0 +1,83 @@
+package bashlog.plan;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import common.Tools;
+import common.plan.node.PlanNode;
+
+/**
+ * Root of a plan that answers several queries at once, so that they can share subplans (see Materialize and MultiOutput).
+ * The result of every query is written to its own output file, or to stdout if the file is null.
+ */
+public class MultiQueryNode implements PlanNode {
+
+  private final List<PlanNode> queries;
+
+  private final List<String> outputFiles;
+
+  public MultiQueryNode(List<PlanNode> queries, List<String> outputFiles) {
+    if (queries.size() != outputFiles.size()) {
+      throw new IllegalArgumentException("need exactly one output file per query");
+    }
+    this.queries = queries;
+    this.outputFiles = outputFiles;
+  }
+
+  @Override
+  public int getArity() {
+    return 0;
+  }
+
+  public List<PlanNode> getQueries() {
+    return queries;
+  }
+
+  public List<String> getOutputFiles() {
+    return outputFiles;
+  }
+
+  /** Apply fn to the root of every query */
+  public MultiQueryNode mapQueries(Function<PlanNode, PlanNode> fn) {
+    return new MultiQueryNode(queries.stream().map(fn).collect(Collectors.toList()), outputFiles);
+  }
+
+  @Override
+  public String toString() {
+    return toPrettyString();
+  }
+
+  @Override
+  public String operatorString() {
+    return "queries_{" + outputFiles.stream().map(f -> f == null ? "stdout" : f).collect(Collectors.joining(", ")) + "}";
+  }
+
+  @Override
+  public List<PlanNode> children() {
+    return queries;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(queries, outputFiles);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof MultiQueryNode && Objects.equals(queries, ((MultiQueryNode) obj).queries)
+        && Objects.equals(outputFiles, ((MultiQueryNode) obj).outputFiles);
+  }
+
+  @Override
+  public PlanNode transform(TransformFn fn, List<PlanNode> originalPath) {
+    try {
+      Tools.addLast(originalPath, this);
+      List<PlanNode> newQueries = queries.stream().map(q -> q.transform(fn, originalPath)).collect(Collectors.toList());
+      return fn.apply(this, new MultiQueryNode(newQueries, outputFiles), originalPath);
+    } finally {
+      Tools.removeLast(originalPath);
+    }
+  }
+
+}
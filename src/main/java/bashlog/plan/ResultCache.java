@@ -0,0 +1,116 @@
+package bashlog.plan;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import common.Tools;
+import common.plan.node.*;
+
+/**
+ * Content-addressed cache of materialized relations and results of recursions, which is shared by the runs of all
+ * scripts that use the same cache directory. A relation is stored under a key that consists of the fingerprint of its
+ * plan, and the path, size, modification time and inode of the input files that the plan reads (the latter are
+ * determined by the script at runtime). The cache is limited in size; the script removes the least recently used
+ * relations first.
+ * <p>
+ * The fingerprint does not depend on the node identities of the plan: placeholders are named by the position of the node
+ * that introduces them, and placeholders of enclosing materializations and multi outputs are replaced by the plans they
+ * stand for. Plans with placeholders of an enclosing recursion or exchange, with bash commands other than "cat file",
+ * or with files of the script run (e.g., the relations of the dictionary encoding or the incremental evaluation)
+ * are not cached.
+ */
+public class ResultCache {
+
+  private final String directory;
+
+  private final long maxMegabytes;
+
+  public ResultCache(String directory, long maxMegabytes) {
+    this.directory = directory;
+    this.maxMegabytes = maxMegabytes;
+  }
+
+  public String getDirectory() {
+    return directory;
+  }
+
+  /** Size limit of the cache directory */
+  public long getMaxMegabytes() {
+    return maxMegabytes;
+  }
+
+  /**
+   * Fingerprint of the plan, and the input files it reads (in a fixed order); null if the plan cannot be cached
+   * @param placeholderToParent the nodes that introduce the placeholders of the plan (see PlaceholderNode)
+   * @param format distinguishes the file formats of the relation (e.g., whether it is compressed), and the translation
+   *          choices that affect its order (e.g., whether it is sorted)
+   */
+  public static Map.Entry<String, List<String>> key(PlanNode plan, Map<PlaceholderNode, PlanNode> placeholderToParent, String format) {
+    Set<String> inputs = new TreeSet<>();
+    String canonical = canonical(plan, new HashMap<>(), placeholderToParent, inputs);
+    if (canonical == null) {
+      return null;
+    }
+    return new AbstractMap.SimpleImmutableEntry<>(Tools.md5(format + "\n" + canonical), new ArrayList<>(inputs));
+  }
+
+  /**
+   * Canonical string representation of a plan, null if the plan cannot be cached
+   * @param binders nodes within the plan that introduce placeholders, with their position (in the order of nesting)
+   * @param inputs collects the input files
+   */
+  private static String canonical(PlanNode p, Map<PlanNode, Integer> binders, Map<PlaceholderNode, PlanNode> placeholderToParent,
+      Set<String> inputs) {
+    if (p instanceof PlaceholderNode) {
+      PlanNode parent = placeholderToParent.get(p);
+      if (binders.containsKey(parent)) {
+        return "$" + binders.get(parent) + "." + parent.placeholders().indexOf(p) + "/" + p.getArity();
+      } else if (parent instanceof MaterializationNode) {
+        return canonical(((MaterializationNode) parent).getReusedPlan(), binders, placeholderToParent, inputs);
+      } else if (parent instanceof MultiOutputNode) {
+        MultiOutputNode mo = (MultiOutputNode) parent;
+        return canonical(mo.reusedPlans().get(mo.reuseNodes().indexOf(p)), binders, placeholderToParent, inputs);
+      }
+      return null;
+    }
+
+    String file = IncrementalEvaluation.inputFile(p);
+    if (file != null) {
+      inputs.add(file);
+      return "file " + file + "/" + p.getArity();
+    }
+    String label;
+    if (p instanceof TSVFileNode || p instanceof BashNode || p instanceof BuiltinNode) {
+      // files of the script run, or commands that might output something else in every run
+      return null;
+    } else if (p instanceof FactNode) {
+      label = ((FactNode) p).getFacts().stream().map(Arrays::toString).collect(Collectors.joining(", ", "facts ", ""));
+    } else if (p instanceof DictionaryDecodeNode) {
+      inputs.add(((DictionaryDecodeNode) p).getDictionaryFile());
+      label = p.operatorString();
+    } else if (p instanceof MaterializationNode || p instanceof RecursionNode || p instanceof MultiOutputNode || p instanceof MultiFilterNode) {
+      // the operator string of these nodes contains their hash
+      label = p.getClass().getSimpleName();
+    } else {
+      label = p.operatorString();
+    }
+    if (!p.placeholders().isEmpty()) {
+      binders = Tools.with(binders, p, binders.size());
+    }
+
+    List<String> children = new ArrayList<>();
+    for (PlanNode child : p.childrenForPrettyString()) {
+      String c = canonical(child, binders, placeholderToParent, inputs);
+      if (c == null) {
+        return null;
+      }
+      children.add(c);
+    }
+    if (p instanceof UnionNode || p instanceof MultiFilterNode) {
+      // the children are a set
+      Collections.sort(children);
+    }
+    return label + "/" + p.getArity() + children.stream().collect(Collectors.joining(", ", "(", ")"));
+  }
+
+}
@@ -0,0 +1,101 @@
+package bashlog.plan;
+
+import java.util.*;
+
+import common.Tools;
+import common.plan.node.PlanNode;
+
+/**
+ * Keep the rows of a table whose key columns occur in a (small) set of keys, i.e., a semi-join.
+ * This is a prefilter for joins: if there are more than maxKeys keys at runtime, all rows of the table are kept.
+ */
+public class SemiJoinFilterNode implements PlanNode {
+
+  private final PlanNode table;
+
+  /** Plan with the key columns of the table, in this order */
+  private final PlanNode keys;
+
+  private final int[] keyColumns;
+
+  private final long maxKeys;
+
+  public SemiJoinFilterNode(PlanNode table, PlanNode keys, int[] keyColumns, long maxKeys) {
+    if (keys.getArity() != keyColumns.length) {
+      throw new IllegalArgumentException("the keys need to have one column for every key column of the table");
+    }
+    this.table = table;
+    this.keys = keys;
+    this.keyColumns = keyColumns;
+    this.maxKeys = maxKeys;
+  }
+
+  @Override
+  public int getArity() {
+    return table.getArity();
+  }
+
+  public PlanNode getTable() {
+    return table;
+  }
+
+  public PlanNode getKeys() {
+    return keys;
+  }
+
+  public int[] getKeyColumns() {
+    return keyColumns;
+  }
+
+  public long getMaxKeys() {
+    return maxKeys;
+  }
+
+  @Override
+  public String toString() {
+    return table.toString() + operatorString() + keys.toString();
+  }
+
+  @Override
+  public String operatorString() {
+    return "⋉_{" + Arrays.toString(keyColumns) + "} max " + maxKeys;
+  }
+
+  @Override
+  public List<PlanNode> children() {
+    return Arrays.asList(table, keys);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return equals(obj, Collections.emptyMap());
+  }
+
+  @Override
+  public boolean equals(Object obj, Map<PlanNode, PlanNode> assumedEqualities) {
+    if (this == obj) return true;
+    if (!(obj.getClass() == getClass())) {
+      return false;
+    }
+    SemiJoinFilterNode node = (SemiJoinFilterNode) obj;
+    return Arrays.equals(keyColumns, node.keyColumns) && maxKeys == node.maxKeys && table.equals(node.table, assumedEqualities)
+        && keys.equals(node.keys, assumedEqualities);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(table, keys, Arrays.hashCode(keyColumns), maxKeys);
+  }
+
+  @Override
+  public PlanNode transform(TransformFn fn, List<PlanNode> originalPath) {
+    try {
+      Tools.addLast(originalPath, this);
+      return fn.apply(this, new SemiJoinFilterNode(table.transform(fn, originalPath), keys.transform(fn, originalPath), keyColumns, maxKeys),
+          originalPath);
+    } finally {
+      Tools.removeLast(originalPath);
+    }
+  }
+
+}
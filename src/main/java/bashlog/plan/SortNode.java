@@ -11,10 +11,18 @@ public class SortNode implements PlanNode {
 
   private final int[] sortColumns;
 
+  /** Whether the input is already sorted, so that it only needs to be merged (e.g., for removing duplicates) */
+  private final boolean merge;
+
   public SortNode(PlanNode child, int[] sortColumns) {
+    this(child, sortColumns, false);
+  }
+
+  public SortNode(PlanNode child, int[] sortColumns, boolean merge) {
     this.child = child;
     //this.sortColumns = sortColumns == null ? Tools.sequence(child.getArity()) : sortColumns;
     this.sortColumns = sortColumns;
+    this.merge = merge;
   }
 
   @Override
@@ -33,7 +41,7 @@ public class SortNode implements PlanNode {
 
   @Override
   public String operatorString() {
-    return "sort_{" + Arrays.toString(sortColumns) + "}";
+    return "sort_{" + Arrays.toString(sortColumns) + "}" + (merge ? " merge" : "");
   }
 
   @Override
@@ -46,6 +54,11 @@ public class SortNode implements PlanNode {
     return sortColumns;
   }
 
+  /** Whether the input is already sorted, so that it only needs to be merged */
+  public boolean merge() {
+    return merge;
+  }
+
   @Override
   public boolean equals(Object obj) {
     return equals(obj, Collections.emptyMap());
@@ -57,19 +70,19 @@ public class SortNode implements PlanNode {
       return false;
     }
     SortNode node = (SortNode) obj;
-    return Arrays.equals(sortColumns, node.sortColumns) && child.equals(node.child, assumedEqualities);
+    return Arrays.equals(sortColumns, node.sortColumns) && merge == node.merge && child.equals(node.child, assumedEqualities);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(child, Arrays.hashCode(sortColumns));
+    return Objects.hash(child, Arrays.hashCode(sortColumns), merge);
   }
 
   @Override
   public PlanNode transform(TransformFn fn, List<PlanNode> originalPath) {
     try {
       Tools.addLast(originalPath, this);
-      return fn.apply(this, new SortNode(child.transform(fn, originalPath), sortColumns), originalPath);
+      return fn.apply(this, new SortNode(child.transform(fn, originalPath), sortColumns, merge), originalPath);
     } finally {
       Tools.removeLast(originalPath);
     }
@@ -0,0 +1,246 @@
+package bashlog.plan;
+
+import java.util.*;
+
+import java.util.stream.Collectors;
+
+import common.Tools;
+import common.plan.node.*;
+import common.plan.optimizer.Keys;
+
+/**
+ * Derives the physical properties of the output of the commands of a bashlog plan: the columns by which the rows are
+ * ordered (as by sort and join with LC_ALL=C), whether the output has no duplicates, and its keys.
+ * Filters and projections keep the order of their input, join outputs the rows ordered by the join column,
+ * and hash joins keep the order of the streamed input. Keys come from the declarations of the input relations.
+ */
+public class SortOrder {
+
+  /** Physical properties of the output of a plan */
+  public static class Order {
+
+    public static final Order NONE = new Order(new int[0], false, Collections.emptyList());
+
+    /** The rows are ordered lexicographically by these columns (possibly further columns are ordered, too) */
+    public final int[] columns;
+
+    /** Whether every row occurs only once */
+    public final boolean unique;
+
+    /** Sets of columns, such that no two rows agree on all columns of a set */
+    public final List<int[]> keys;
+
+    public Order(int[] columns, boolean unique) {
+      this(columns, unique, Collections.emptyList());
+    }
+
+    public Order(int[] columns, boolean unique, List<int[]> keys) {
+      this.columns = columns;
+      this.unique = unique || !keys.isEmpty();
+      this.keys = keys;
+    }
+
+    /** Whether the rows are ordered by the given columns */
+    public boolean sortedBy(int[] cols) {
+      return cols.length <= columns.length && Arrays.equals(cols, Arrays.copyOf(columns, cols.length));
+    }
+
+    @Override
+    public String toString() {
+      return "order " + Arrays.toString(columns) + (unique ? ", unique" : "")
+          + keys.stream().map(Arrays::toString).collect(Collectors.joining(", ", keys.isEmpty() ? "" : ", keys ", ""));
+    }
+  }
+
+  private final Map<PlaceholderNode, PlanNode> placeholderToParent;
+
+  /**
+   * Whether unions are computed by sort -u (otherwise, they remove duplicates with a hash table);
+   * null if unions might still become multi outputs, so that nothing is known about their output
+   */
+  private final Boolean sortedUnions;
+
+  /** Declared keys of the input relations */
+  private final Keys keys;
+
+  private final Map<PlanNode, Order> cache = new HashMap<>();
+
+  public SortOrder(PlanNode plan, Boolean sortedUnions) {
+    this(plan, sortedUnions, new Keys());
+  }
+
+  public SortOrder(PlanNode plan, Boolean sortedUnions, Keys keys) {
+    this.placeholderToParent = PlaceholderNode.placeholderToParentMap(plan);
+    this.sortedUnions = sortedUnions;
+    this.keys = keys;
+  }
+
+  public Order of(PlanNode p) {
+    Order result = cache.get(p);
+    if (result == null) {
+      result = compute(p);
+      cache.put(p, result);
+    }
+    return result;
+  }
+
+  private Order compute(PlanNode p) {
+    if (p instanceof SortNode) {
+      SortNode s = (SortNode) p;
+      int[] cols = s.sortColumns();
+      // sort -k c compares the rest of the line, starting from column c; it removes duplicates if all columns are keys
+      boolean unique = Arrays.stream(Tools.sequence(p.getArity())).allMatch(c -> Arrays.stream(cols).anyMatch(k -> k == c));
+      Order child = of(s.getTable());
+      return new Order(cols.length == 0 ? cols : Tools.sequence(cols[0], p.getArity()), unique || child.unique, child.keys);
+
+    } else if (p instanceof RecursionNode || (p instanceof TSVFileNode && ((TSVFileNode) p).isSorted())) {
+      return new Order(Tools.sequence(p.getArity()), true);
+
+    } else if (p instanceof ProjectNode) {
+      ProjectNode prj = (ProjectNode) p;
+      Order child = of(prj.getTable());
+      int[] projection = prj.getProjection();
+      boolean unique = child.unique && Arrays.stream(Tools.sequence(prj.getTable().getArity())).allMatch(c -> indexOf(projection, c) >= 0);
+      return new Order(map(child.columns, projection), unique, mapKeys(child.keys, projection));
+
+    } else if (p instanceof EqualityFilterNode) {
+      return of(((EqualityFilterNode) p).getTable());
+
+    } else if (p instanceof SemiJoinFilterNode) {
+      return of(((SemiJoinFilterNode) p).getTable());
+
+    } else if (p instanceof CombinedColumnNode) {
+      // the combined column (appended) is ordered like the columns it combines, as their separator is smaller than other characters
+      CombinedColumnNode c = (CombinedColumnNode) p;
+      Order child = of(c.child);
+      if (child.sortedBy(c.columns)) {
+        int[] rest = Arrays.copyOfRange(child.columns, c.columns.length, child.columns.length);
+        return new Order(Tools.concat(new int[] { c.child.getArity() }, rest), child.unique, child.keys);
+      }
+      return child;
+
+    } else if (p instanceof SortAntiJoinNode) {
+      // outputs the rows of the left input that have no partner
+      SortAntiJoinNode j = (SortAntiJoinNode) p;
+      Order left = of(j.getLeft());
+      int[] out = j.getOutputProjection();
+      boolean unique = left.unique && Arrays.stream(Tools.sequence(j.getLeft().getArity())).allMatch(c -> indexOf(out, c) >= 0);
+      return new Order(map(left.columns, out), unique, mapKeys(left.keys, out));
+
+    } else if (p instanceof SortJoinNode) {
+      // rows are output by join column, the rows of every key in the order of the left input
+      SortJoinNode j = (SortJoinNode) p;
+      int key = j.getLeftProjection()[0];
+      Order left = of(j.getLeft());
+      int[] columns = left.sortedBy(new int[] { key }) ? left.columns : new int[] { key };
+      return new Order(map(columns, j.getOutputProjection()), false, mapKeys(joinKeys(j), j.getOutputProjection()));
+
+    } else if (p instanceof HashAntiJoinNode) {
+      HashAntiJoinNode j = (HashAntiJoinNode) p;
+      // if the left side is kept in memory, its remaining rows are output in hash order
+      Order left = of(j.getLeft());
+      return j.buildLeft() ? new Order(new int[0], left.unique, left.keys) : left;
+
+    } else if (p instanceof HashJoinNode || p instanceof CrossProductNode) {
+      // the streamed input keeps its order
+      JoinNode j = (JoinNode) p;
+      boolean buildLeft = p instanceof HashJoinNode ? ((HashJoinNode) j).buildLeft() : ((CrossProductNode) j).buildLeft();
+      if (buildLeft) {
+        int leftArity = j.getLeft().getArity();
+        return new Order(Arrays.stream(of(j.getRight()).columns).map(c -> c + leftArity).toArray(), false, joinKeys(j));
+      }
+      return new Order(of(j.getLeft()).columns, false, joinKeys(j));
+
+    } else if (p instanceof DisjointUnionNode) {
+      // the inputs are unique, and disjoint
+      return new Order(new int[0], true);
+
+    } else if (p instanceof MergeUnionNode) {
+      return new Order(Tools.sequence(p.getArity()), true);
+
+    } else if (p instanceof UnionNode) {
+      if (sortedUnions == null) return Order.NONE;
+      return new Order(sortedUnions ? Tools.sequence(p.getArity()) : new int[0], true);
+
+    } else if (p instanceof DistinctNode) {
+      return new Order(new int[0], true, of(((DistinctNode) p).getTable()).keys);
+
+    } else if (p instanceof MaterializationNode) {
+      return of(((MaterializationNode) p).getMainPlan());
+
+    } else if (p instanceof MultiOutputNode) {
+      return of(((MultiOutputNode) p).getMainPlan());
+
+    } else if (p instanceof PlaceholderNode) {
+      PlanNode parent = placeholderToParent.get(p);
+      if (parent instanceof RecursionNode) {
+        // delta and full relation are sorted
+        return new Order(Tools.sequence(p.getArity()), true);
+      } else if (parent instanceof MaterializationNode) {
+        return of(((MaterializationNode) parent).getReusedPlan());
+      } else if (parent instanceof MultiOutputNode) {
+        // the outputs are written in the order of the leaf; a union of several outputs is written to the same file
+        MultiOutputNode mo = (MultiOutputNode) parent;
+        PlanNode reused = mo.reusedPlans().get(mo.reuseNodes().indexOf(p));
+        return reused instanceof UnionNode ? Order.NONE : of(reused);
+      } else if (parent instanceof ExchangeNode) {
+        // every shard keeps the order of the input
+        ExchangeNode e = (ExchangeNode) parent;
+        return of(e.getInputs().get(e.getShards().indexOf(p)));
+      } else if (parent instanceof AdaptiveJoinNode) {
+        // the inputs are written to files as they are
+        AdaptiveJoinNode a = (AdaptiveJoinNode) parent;
+        return of(p == a.getLeftInput() ? a.getLeft() : a.getRight());
+      }
+    }
+    List<int[]> declared = keys.get(p);
+    return declared.isEmpty() ? Order.NONE : new Order(new int[0], true, declared);
+  }
+
+  /**
+   * Keys of the output of a join (before its output projection): if every row of one side has at most one partner,
+   * as the join columns of the other side contain a key, the keys of the first side stay keys
+   */
+  private List<int[]> joinKeys(JoinNode j) {
+    int leftArity = j.getLeft().getArity();
+    List<int[]> result = new ArrayList<>();
+    if (Keys.containsKey(of(j.getRight()).keys, j.getRightProjection())) {
+      result.addAll(of(j.getLeft()).keys);
+    }
+    if (Keys.containsKey(of(j.getLeft()).keys, j.getLeftProjection())) {
+      of(j.getRight()).keys.forEach(k -> result.add(Arrays.stream(k).map(c -> c + leftArity).toArray()));
+    }
+    return result;
+  }
+
+  /** Keys after a projection: the keys of which all columns are projected */
+  private static List<int[]> mapKeys(List<int[]> keys, int[] projection) {
+    List<int[]> result = new ArrayList<>();
+    for (int[] key : keys) {
+      int[] mapped = Arrays.stream(key).map(c -> indexOf(projection, c)).toArray();
+      if (Arrays.stream(mapped).allMatch(c -> c >= 0)) {
+        result.add(mapped);
+      }
+    }
+    return result;
+  }
+
+  private static int indexOf(int[] array, int value) {
+    for (int i = 0; i < array.length; i++) {
+      if (array[i] == value) return i;
+    }
+    return -1;
+  }
+
+  /** Map the order of the input of a projection to its output; the order ends at the first column that is not projected */
+  private static int[] map(int[] columns, int[] projection) {
+    int[] result = new int[columns.length];
+    int i = 0;
+    for (; i < columns.length; i++) {
+      result[i] = indexOf(projection, columns[i]);
+      if (result[i] < 0) break;
+    }
+    return Arrays.copyOf(result, i);
+  }
+
+}
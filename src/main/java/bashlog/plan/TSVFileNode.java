@@ -11,9 +11,17 @@ public class TSVFileNode implements PlanNode {
 
   final int arity;
 
+  /** Whether the file is sorted (like sort -u with LC_ALL=C), so it has no duplicates */
+  final boolean sorted;
+
   public TSVFileNode(String path, int arity) {
+    this(path, arity, false);
+  }
+
+  public TSVFileNode(String path, int arity, boolean sorted) {
     this.path = path;
     this.arity = arity;
+    this.sorted = sorted;
   }
 
   @Override
@@ -23,7 +31,7 @@ public class TSVFileNode implements PlanNode {
 
   @Override
   public String operatorString() {
-    return "file: " + path;
+    return "file: " + path + (sorted ? " sorted" : "");
   }
 
   @Override
@@ -35,13 +43,17 @@ public class TSVFileNode implements PlanNode {
     return path;
   }
 
+  public boolean isSorted() {
+    return sorted;
+  }
+
     @Override
   public boolean equals(Object obj) {
     if (!(obj.getClass() == getClass())) {
       return false;
     }
     TSVFileNode node = (TSVFileNode) obj;
-    return this.path.equals(node.path) && this.arity == node.arity;
+    return this.path.equals(node.path) && this.arity == node.arity && this.sorted == node.sorted;
   }
 
   @Override
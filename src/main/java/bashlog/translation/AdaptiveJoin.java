@@ -0,0 +1,92 @@
+package bashlog.translation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import bashlog.CompilerInternals;
+import bashlog.command.Bash;
+import bashlog.plan.AdaptiveJoinNode;
+import common.plan.node.PlaceholderNode;
+import common.plan.node.PlanNode;
+
+/**
+ * Translates an adaptive join: the inputs run as background jobs, which write to named pipes (unless they are files already).
+ * The script reads a prefix of at most the limit of the node (plus one byte) of every input into a probe file.
+ * If a probe contains the whole input, the smaller one is kept in memory, otherwise the inputs are sorted.
+ * The chosen alternative reads the probe and then the rest of the pipe, so only the probes are written to files.
+ * The whole command runs in a subshell, which waits for each of its jobs, and fails if one of them failed.
+ */
+public class AdaptiveJoin implements BashTranslator {
+
+  /**
+   * Bash snippet that starts the input as a background job, and reads the probe; registers the probe followed by the rest
+   * of the input for its placeholder.
+   * @return the name of the file whose size is checked (the probe, or the input file)
+   */
+  private static String input(PlanNode input, PlaceholderNode placeholder, String file, long maxBytes, String pids, List<String> fds,
+      Bash.CommandSequence result, CompilerInternals bc) {
+    Bash bash = bc.compile(input);
+    if (bash instanceof Bash.BashFile) {
+      file = ((Bash.BashFile) bash).getPath();
+      bc.registerPlaceholder(placeholder, file);
+      return file;
+    }
+    if (bash instanceof Bash.CommandSequence && !(bash instanceof Bash.Pipe)) {
+      bash = bash.wrap("{ ", "\n}");
+    }
+    String fd = file.substring(file.lastIndexOf('/') + 1);
+    fds.add(fd);
+    result.other("mkfifo " + file);
+    result.add(bash.wrap("", " > " + file + Exchange.background(pids)));
+    result.other("exec {" + fd + "}< " + file + "; head -c " + (maxBytes + 1) + " <&$" + fd + " > " + file + "_probe");
+    bc.registerPlaceholder(placeholder, "<(cat " + file + "_probe - <&$" + fd + ")");
+    return file + "_probe";
+  }
+
+  /** The alternative as a part of an if statement */
+  private static Bash alternative(PlanNode plan, CompilerInternals bc) {
+    Bash bash = bc.compile(plan);
+    if (bash instanceof Bash.CommandSequence && !(bash instanceof Bash.Pipe)) {
+      bash = bash.wrap("{ ", "\n}");
+    }
+    return bash;
+  }
+
+  @Override
+  public Bash translate(PlanNode planNode, CompilerInternals bc) {
+    AdaptiveJoinNode a = (AdaptiveJoinNode) planNode;
+    int idx = bc.getNextIndex();
+    String prefix = bc.tempFile("adaptive" + idx + "_");
+    String size = "size" + idx + "_";
+
+    String pids = "pids" + idx;
+    List<String> fds = new ArrayList<>();
+    Bash.CommandSequence result = new Bash.CommandSequence();
+    result.other(pids + "=");
+    String left = input(a.getLeft(), a.getLeftInput(), prefix + "left", a.getMaxBytes(), pids, fds, result, bc);
+    String right = input(a.getRight(), a.getRightInput(), prefix + "right", a.getMaxBytes(), pids, fds, result, bc);
+    result.other(size + "l=$(wc -c < " + left + "); " + size + "r=$(wc -c < " + right + ")");
+
+    result.other("if [ $" + size + "l -le $" + size + "r ] && [ $" + size + "l -le " + a.getMaxBytes() + " ]; then ");
+    result.add(alternative(a.getBuildLeftPlan(), bc));
+    result.other("elif [ $" + size + "r -le " + a.getMaxBytes() + " ]; then ");
+    result.add(alternative(a.getBuildRightPlan(), bc));
+    result.other("else ");
+    result.add(alternative(a.getSortPlan(), bc));
+    result.other("fi");
+    // the alternative might stop reading an input early (e.g., if the other one is empty)
+    for (String fd : fds) {
+      result.other("cat <&$" + fd + " > /dev/null");
+    }
+    result.other(Exchange.waitAll(pids));
+    result.cmd("rm -f").file(prefix + "*");
+    return result.wrap(" ( ", "\n)");
+  }
+
+  @Override
+  public List<Class<?>> supports() {
+    return Arrays.asList(AdaptiveJoinNode.class);
+  }
+
+}
@@ -2,8 +2,10 @@ package bashlog.translation;
 
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import bashlog.plan.CombinedColumnNode;
 import common.plan.node.*;
 
 /** Stores helper functions that are used during bashlog compilation */
@@ -131,7 +133,7 @@ public class AwkHelper {
           values.forEach(vals -> {
             awkProg.append("  ");
             if (output != null) {
-              awkProg.append(output.replace("tmp/", "")).append("_");
+              awkProg.append(name(output)).append("_");
             }
             awkProg.append("out").append(joinColStr(outCols, "c").replace("-", "_"));
             awkProg.append("_cond").append(joinColStr(filterCols, "c").replace("-", "_"));
@@ -151,7 +153,7 @@ public class AwkHelper {
           String condition = (String) "(" + joinColStr(filterCols.stream().map(i -> "$" + (i + 1)), " FS ") + ")" + //
           " in ";
           if (output != null) {
-            condition += output.replace("tmp/", "") + "_";
+            condition += name(output) + "_";
           }
           condition += ("out" + joinColStr(outCols, "c") + "_cond" + joinColStr(filterCols, "c")).replace("-", "_");
   
@@ -164,7 +166,7 @@ public class AwkHelper {
         Stream<String> awkOutCols = outCols.stream().map(i -> i<0 ? "\"" + integerToOutputConst.get(i) + "\"" :  "$" + (i + 1));
         awkProg.append("{ print ").append(joinColStr(awkOutCols, " FS "));
         if (output != null) {
-          awkProg.append(" >> \"").append(output).append("\"");
+          awkProg.append(" ").append(redirect(output));
         }
         awkProg.append(" } \n ");
       });
@@ -241,12 +243,105 @@ public class AwkHelper {
       project.append(awkProject(p));
     }
     if (output != null) {
-      project.append(" >> \"").append(output).append("\" ");
+      project.append(" ").append(redirect(output)).append(" ");
     }
     project.append("} \n ");
     return plan;
   }
 
+  /**
+   * AWK expressions of the output columns of a chain of filters, projections and combined columns, in terms of the fields
+   * of the input of the chain, so that the chain can be evaluated by a single AWK rule.
+   * @param conditions accumulator for the conditions of the filters
+   * @param input accumulator for the input of the chain (the first node that is not part of it)
+   */
+  static List<String> fusedColumns(PlanNode plan, List<String> conditions, List<PlanNode> input) {
+    if (plan instanceof ProjectNode) {
+      ProjectNode p = (ProjectNode) plan;
+      List<String> columns = fusedColumns(p.getTable(), conditions, input), result = new ArrayList<>();
+      for (int i = 0; i < p.getArity(); i++) {
+        int col = i < p.getProjection().length ? p.getProjection()[i] : -1;
+        result.add(col >= 0 ? columns.get(col) : "\"" + escape(p.getConstant(i).map(Object::toString).orElse("")) + "\"");
+      }
+      return result;
+    } else if (plan instanceof ConstantEqualityFilterNode) {
+      ConstantEqualityFilterNode f = (ConstantEqualityFilterNode) plan;
+      List<String> columns = fusedColumns(f.getTable(), conditions, input);
+      conditions.add(columns.get(f.getField()) + " == \"" + escape(f.getValue().toString()) + "\"");
+      return columns;
+    } else if (plan instanceof VariableEqualityFilterNode) {
+      VariableEqualityFilterNode f = (VariableEqualityFilterNode) plan;
+      List<String> columns = fusedColumns(f.getTable(), conditions, input);
+      conditions.add(columns.get(f.getField1()) + " == " + columns.get(f.getField2()));
+      return columns;
+    } else if (plan instanceof CombinedColumnNode) {
+      CombinedColumnNode c = (CombinedColumnNode) plan;
+      List<String> columns = new ArrayList<>(fusedColumns(c.getTable(), conditions, input));
+      columns.add(Arrays.stream(c.getColumns()).mapToObj(columns::get).collect(Collectors.joining(" \"\\002\" ")));
+      return columns;
+    }
+    input.add(plan);
+    return IntStream.range(0, plan.getArity()).mapToObj(i -> "$" + (i + 1)).collect(Collectors.toList());
+  }
+
+  /**
+   * Translate a chain of filters, projections and combined columns to one AWK rule, and return the input of the chain
+   * @param arg accumulator for the AWK rule
+   */
+  public static PlanNode fusedAwkLine(PlanNode plan, StringBuilder arg) {
+    List<String> conditions = new ArrayList<>();
+    List<PlanNode> input = new ArrayList<>();
+    List<String> columns = fusedColumns(plan, conditions, input);
+    if (!conditions.isEmpty()) {
+      arg.append("(").append(String.join(" && ", conditions)).append(")");
+    }
+    // the fields of the input that are output in their order are printed at once
+    int prefix = 0;
+    while (prefix < columns.size() && columns.get(prefix).equals("$" + (prefix + 1))) {
+      prefix++;
+    }
+    List<String> out = new ArrayList<>(columns.subList(prefix, columns.size()));
+    if (prefix > 0 && prefix == input.get(0).getArity()) {
+      out.add(0, "$0");
+    } else {
+      out.addAll(0, columns.subList(0, prefix));
+    }
+    arg.append(" { print ").append(String.join(" FS ", out)).append("} \n ");
+    return input.get(0);
+  }
+
+  /** Whether the chain of filters and projections contains a combined column (see fusedAwkLine) */
+  public static boolean containsCombinedColumn(PlanNode plan) {
+    while (plan instanceof ProjectNode || plan instanceof EqualityFilterNode) {
+      plan = plan.children().iterator().next();
+    }
+    return plan instanceof CombinedColumnNode;
+  }
+
   public final static String AWK = "$awk -v FS=$'\\t' '";
 
+  /**
+   * AWK expression for the path of a file. Temporary files are relative to a directory variable of the script
+   * (e.g. $tmp/mat1), which is read from the environment, as the AWK program is in single quotes.
+   */
+  public static String file(String path) {
+    if (path.startsWith("$")) {
+      int slash = path.indexOf('/');
+      if (slash > 1) {
+        return "(ENVIRON[\"" + path.substring(1, slash) + "\"] \"" + path.substring(slash) + "\")";
+      }
+    }
+    return "\"" + path + "\"";
+  }
+
+  /** AWK redirection that appends to a file */
+  public static String redirect(String path) {
+    return ">> " + file(path);
+  }
+
+  /** Name of the file without directory, usable as a prefix for AWK variables */
+  static String name(String path) {
+    return path.substring(path.lastIndexOf('/') + 1);
+  }
+
 }
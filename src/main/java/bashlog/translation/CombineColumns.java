@@ -8,28 +8,17 @@ import bashlog.command.Bash;
 import bashlog.plan.CombinedColumnNode;
 import common.plan.node.PlanNode;
 
-/** Translate a combine column to an AWK command */
+/**
+ * Translate a combine column to an AWK command. Filters and projections below it are evaluated by the same AWK rule
+ * (see AwkHelper#fusedAwkLine).
+ */
 public class CombineColumns implements BashTranslator {
 
   @Override
   public Bash translate(PlanNode planNode, CompilerInternals bc) {
-    CombinedColumnNode c = (CombinedColumnNode) planNode;
-    Bash prev = bc.compile(c.getTable());
-
-    Bash.Pipe result = new Bash.Pipe(prev);
-    Bash.Command cmd = result.cmd(AwkHelper.AWK);
-    StringBuilder sb = new StringBuilder();
-    sb.append("{ print $0 FS ");
-    for (int i = 0; i < c.getColumns().length; i++) {
-      if (i > 0) {
-        sb.append(" \"\\002\" ");
-      }
-      sb.append("$" + (c.getColumns()[i] + 1));
-    }
-    sb.append("}'");
-    cmd.arg(sb.toString());
-    return result;
-
+    StringBuilder awk = new StringBuilder();
+    PlanNode inner = AwkHelper.fusedAwkLine(planNode, awk);
+    return new Bash.Command(AwkHelper.AWK).arg(awk.toString()).arg("'").file(bc.compile(inner));
   }
 
   @Override
@@ -0,0 +1,38 @@
+package bashlog.translation;
+
+import java.util.Arrays;
+import java.util.List;
+
+import bashlog.CompilerInternals;
+import bashlog.command.Bash;
+import bashlog.plan.CrossProductNode;
+import common.plan.node.PlanNode;
+
+/**
+ * Translate a cross product to an AWK command. The build side is read in the BEGIN block into an array,
+ * then every row of the other side is combined with all of its rows. Nothing is sorted.
+ */
+public class CrossProduct implements BashTranslator {
+
+  @Override
+  public Bash translate(PlanNode planNode, CompilerInternals bc) {
+    CrossProductNode c = (CrossProductNode) planNode;
+
+    StringBuilder awk = new StringBuilder();
+    // read build side, and skip it in the main loop; if it is empty, the other side needs not be read
+    awk.append("BEGIN { while ((getline < ARGV[1]) > 0) r[++n] = $0; ARGV[1] = \"\"; if (!n) exit } \n");
+    String out = c.buildLeft() ? "r[i] FS $0" : "$0 FS r[i]";
+    awk.append("{ for (i = 1; i <= n; i++) print ").append(out).append(" }'");
+
+    Bash.Command cmd = new Bash.Command(AwkHelper.AWK).arg(awk.toString());
+    cmd.file(bc.compile(c.buildLeft() ? c.getLeft() : c.getRight()));
+    cmd.file(bc.compile(c.buildLeft() ? c.getRight() : c.getLeft()));
+    return cmd;
+  }
+
+  @Override
+  public List<Class<?>> supports() {
+    return Arrays.asList(CrossProductNode.class);
+  }
+
+}
@@ -0,0 +1,81 @@
+package bashlog.translation;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import bashlog.CompilerInternals;
+import bashlog.command.Bash;
+import bashlog.plan.DictionaryDecodeNode;
+import bashlog.plan.DictionaryEncoding;
+import common.plan.node.PlanNode;
+
+/**
+ * Translates the dictionary decoding to an AWK command, which loads the dictionary in an associative array.
+ * Also generates the encoding stage that is executed before the plan.
+ */
+public class Dictionary implements BashTranslator {
+
+  @Override
+  public Bash translate(PlanNode planNode, CompilerInternals bc) {
+    DictionaryDecodeNode d = (DictionaryDecodeNode) planNode;
+    Bash.Command cmd = new Bash.Command("$awk -v FS=$'\\t' -v OFS=$'\\t' -v dict=\"" + d.getDictionaryFile() + "\" '");
+    cmd.arg("BEGIN { while ((getline line < dict) > 0) { p = index(line, FS); v[substr(line, 1, p - 1)] = substr(line, p + 1) } } \n");
+    cmd.arg("{ for (i = 1; i <= NF; i++) $i = v[$i]; print }'");
+    cmd.file(bc.compile(d.getTable()));
+    return cmd;
+  }
+
+  /**
+   * Encode all input relations in one AWK pass, and write the updated dictionary.
+   * Values already in the dictionary keep their id, new values get the next free id.
+   */
+  public static Bash encode(DictionaryEncoding dict, CompilerInternals bc) {
+    Bash.CommandSequence result = new Bash.CommandSequence();
+    result.other("# dictionary encoding");
+    if (!dict.getInputs().isEmpty()) {
+      // create files of empty inputs
+      Bash.Command touch = result.cmd("touch");
+      dict.getInputs().values().forEach(touch::file);
+    }
+
+    StringBuilder awk = new StringBuilder();
+    awk.append("\nfunction seed(v, i) {\n");
+    awk.append("  if ((v in id) ? id[v] != i : i < size) { failed = 1; print \"dictionary \" dict \" changed since compilation\" > \"/dev/stderr\"; exit 1 }\n");
+    awk.append("  id[v] = i; if (i >= n) n = i + 1\n");
+    awk.append("}\n");
+    awk.append("BEGIN {\n");
+    awk.append("  n = 0\n");
+    awk.append("  while ((getline line < dict) > 0) { p = index(line, FS); i = substr(line, 1, p - 1) + 0; id[substr(line, p + 1)] = i; if (i >= n) n = i + 1 }\n");
+    awk.append("  close(dict); size = n\n");
+    for (Map.Entry<String, Integer> e : dict.getConstants().entrySet()) {
+      awk.append("  seed(\"").append(AwkHelper.escape(e.getKey())).append("\", ").append(e.getValue()).append(")\n");
+    }
+    int i = 1;
+    for (String file : dict.getInputs().values()) {
+      awk.append("  out[ARGV[").append(i++).append("]] = ").append(AwkHelper.file(file)).append("\n");
+    }
+    awk.append("}\n");
+    awk.append("{ s = \"\"; for (k = 1; k <= NF; k++) { if (!($k in id)) id[$k] = n++; s = s (k > 1 ? FS : \"\") id[$k] } print s > out[FILENAME] }\n");
+    awk.append("END { if (failed) exit 1; for (v in id) print id[v], v > (dict \".new\") }'");
+
+    Bash.Command cmd = result.cmd("$awk -v FS=$'\\t' -v OFS=$'\\t' -v dict=\"" + dict.getDictionaryFile() + "\" '");
+    cmd.arg(awk.toString());
+    if (dict.getInputs().isEmpty()) {
+      cmd.file("/dev/null");
+    }
+    for (PlanNode input : dict.getInputs().keySet()) {
+      cmd.file(bc.compile(input));
+    }
+    cmd.arg("&& \\\n");
+    cmd.arg("$sort -t $'\\t' -k 2 -o \"" + dict.getDictionaryFile() + "\" \"" + dict.getDictionaryFile() + ".new\" && rm \"" + dict.getDictionaryFile() + ".new\"");
+    cmd.arg("|| exit 1");
+    return result;
+  }
+
+  @Override
+  public List<Class<?>> supports() {
+    return Arrays.asList(DictionaryDecodeNode.class);
+  }
+
+}
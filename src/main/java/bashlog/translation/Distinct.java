@@ -0,0 +1,55 @@
+package bashlog.translation;
+
+import java.util.Arrays;
+import java.util.List;
+
+import bashlog.CompilerInternals;
+import bashlog.command.Bash;
+import bashlog.plan.DictionaryDecodeNode;
+import bashlog.plan.DistinctNode;
+import common.plan.node.PlanNode;
+import common.plan.node.RecursionNode;
+import common.plan.node.UnionNode;
+
+/**
+ * Translates a distinct node to an AWK command that outputs every row the first time it is seen (unordered mode).
+ * At most $max rows are kept in memory; once the hash table is full, the remaining unseen rows are deduplicated by a sort,
+ * whose output follows at the end. Recursions and unions are already duplicate free, so recursions stream their deltas instead.
+ */
+public class Distinct implements BashTranslator {
+
+  /** AWK command that removes duplicates of its input, keeping at most maxRows rows in memory */
+  static Bash.Command dedup(long maxRows) {
+    return new Bash.Command("$awk").arg("-v max=" + maxRows).arg("-v sort=\"$sort -u\"")
+        .arg("'!($0 in seen) { if (n < max) { seen[$0]; n++; print } else print | sort } "
+            + "END { if (n >= max) { fflush(); close(sort) } }'");
+  }
+
+  /** The node that produces the rows of p, if these are duplicate free; null otherwise */
+  private static PlanNode distinctSource(PlanNode p) {
+    if (p instanceof DictionaryDecodeNode) {
+      // decoding maps different ids to different values
+      return distinctSource(((DictionaryDecodeNode) p).getTable());
+    }
+    return p instanceof RecursionNode || p instanceof UnionNode ? p : null;
+  }
+
+  @Override
+  public Bash translate(PlanNode planNode, CompilerInternals bc) {
+    PlanNode child = ((DistinctNode) planNode).getTable();
+    PlanNode source = distinctSource(child);
+    if (source != null) {
+      if (source instanceof RecursionNode) {
+        bc.streamResult(source);
+      }
+      return bc.compile(child);
+    }
+    return dedup(bc.unorderedMaxRows()).file(bc.compile(child));
+  }
+
+  @Override
+  public List<Class<?>> supports() {
+    return Arrays.asList(DistinctNode.class);
+  }
+
+}
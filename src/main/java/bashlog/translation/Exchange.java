@@ -0,0 +1,75 @@
+package bashlog.translation;
+
+import java.util.Arrays;
+import java.util.List;
+
+import bashlog.CompilerInternals;
+import bashlog.command.Bash;
+import common.plan.node.ExchangeNode;
+import common.plan.node.PlanNode;
+
+/**
+ * Translates an exchange: every input is split into $exchange_partitions files by an AWK command (in parallel),
+ * then the shard plan runs for every shard as a background job, and the results are concatenated.
+ * The whole command runs in a subshell, which waits for each of its jobs, and fails if one of them failed.
+ */
+public class Exchange implements BashTranslator {
+
+  /**
+   * AWK program that writes every row to the file prefix + shard, where the shard is a hash of the key modulo n.
+   * The hash uses the length and the last 16 characters of the key, which is enough to spread typical keys.
+   */
+  static String split(int[] key, String prefix) {
+    return "BEGIN { for (i = 0; i < 256; i++) ord[sprintf(\"%c\", i)] = i; for (i = 0; i < n; i++) printf \"\" > (" + AwkHelper.file(prefix) + " i) } \n" //
+        + "{ k = " + HashJoin.key(key) + "; l = length(k); h = l; " //
+        + "for (i = l > 16 ? l - 15 : 1; i <= l; i++) h = (h * 31 + ord[substr(k, i, 1)]) % 1048573; " //
+        + "print > (" + AwkHelper.file(prefix) + " (h % n)) }'";
+  }
+
+  /** Suffix that runs a command as background job, and appends its PID to the variable */
+  static String background(String pids) {
+    return " & " + pids + "=\"$" + pids + " $!\"";
+  }
+
+  /** Waits for the background jobs whose PIDs are in the variable, and exits with an error if one of them failed; resets the variable */
+  static String waitAll(String pids) {
+    return "for p in $" + pids + "; do wait $p || exit 1; done; " + pids + "=";
+  }
+
+  @Override
+  public Bash translate(PlanNode planNode, CompilerInternals bc) {
+    ExchangeNode e = (ExchangeNode) planNode;
+    int idx = bc.getNextIndex();
+    String shard = "x" + idx;
+    String prefix = bc.tempFile("exchange" + idx + "_");
+
+    String pids = "pids" + idx;
+    Bash.CommandSequence result = new Bash.CommandSequence();
+    result.other(pids + "=");
+    for (int i = 0; i < e.getInputs().size(); i++) {
+      String inputPrefix = prefix + i + "_";
+      Bash.Command cmd = new Bash.Command("$awk -v FS=$'\\t' -v n=$exchange_partitions '").arg(split(e.getKeys().get(i), inputPrefix));
+      cmd.file(bc.compile(e.getInputs().get(i)));
+      result.add(cmd.wrap("", background(pids)));
+      bc.registerPlaceholder(e.getShards().get(i), inputPrefix + "$" + shard);
+    }
+    result.other(waitAll(pids));
+
+    Bash shardPlan = bc.compile(e.getShardPlan());
+    if (shardPlan instanceof Bash.CommandSequence && !(shardPlan instanceof Bash.Pipe)) {
+      shardPlan = shardPlan.wrap("{ ", "\n}");
+    }
+    result.other("for " + shard + " in $(seq 0 $((exchange_partitions - 1))); do ");
+    result.add(shardPlan.wrap("", " > " + prefix + "out_$" + shard + background(pids)));
+    result.other("done; " + waitAll(pids));
+    result.cmd("cat").file(prefix + "out_*").arg("; ");
+    result.cmd("rm -f").file(prefix + "*");
+    return result.wrap(" ( ", "\n)");
+  }
+
+  @Override
+  public List<Class<?>> supports() {
+    return Arrays.asList(ExchangeNode.class);
+  }
+
+}
@@ -17,7 +17,8 @@ public class Fact implements BashTranslator {
     FactNode j = (FactNode) planNode;
 
     Bash.CommandSequence result = new Bash.CommandSequence();
-    Bash.Command c = new Bash.Command("cat ");
+    // bash writes the here document to $TMPDIR, so only this command uses the RAM directory
+    Bash.Command c = new Bash.Command("TMPDIR=$shm cat ");
     StringBuilder content = new StringBuilder();
     for (Comparable<?>[] fact : j.getFacts()) {
       content.append(Arrays.stream(fact).map(f -> f.toString()).collect(Collectors.joining("\t")));
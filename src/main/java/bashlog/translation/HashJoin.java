@@ -0,0 +1,66 @@
+package bashlog.translation;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import bashlog.CompilerInternals;
+import bashlog.command.Bash;
+import bashlog.plan.HashAntiJoinNode;
+import bashlog.plan.HashJoinNode;
+import common.plan.node.PlanNode;
+
+/**
+ * Translate a hash join to an AWK command. The build side is read in the BEGIN block into an associative array,
+ * then the other side is streamed through it. Also treats anti-join.
+ */
+public class HashJoin implements BashTranslator {
+
+  /** AWK expression for the join key */
+  static String key(int[] columns) {
+    return Arrays.stream(columns).mapToObj(c -> "$" + (c + 1)).collect(Collectors.joining(" FS "));
+  }
+
+  @Override
+  public Bash translate(PlanNode planNode, CompilerInternals bc) {
+    HashJoinNode j = (HashJoinNode) planNode;
+    boolean anti = j instanceof HashAntiJoinNode;
+    String buildKey = key(j.buildLeft() ? j.getLeftProjection() : j.getRightProjection());
+    String probeKey = key(j.buildLeft() ? j.getRightProjection() : j.getLeftProjection());
+
+    StringBuilder awk = new StringBuilder();
+    // read build side, and skip it in the main loop
+    awk.append("BEGIN { while ((getline < ARGV[1]) > 0) ");
+    if (anti && !j.buildLeft()) {
+      awk.append("r[").append(buildKey).append("] = 1; ");
+    } else {
+      awk.append("{ k = ").append(buildKey).append("; r[k, ++n[k]] = $0 } ");
+    }
+    awk.append("ARGV[1] = \"\" } \n");
+
+    if (!anti) {
+      String out = j.buildLeft() ? "r[k, i] FS $0" : "$0 FS r[k, i]";
+      awk.append("{ k = ").append(probeKey).append("; if (k in n) for (i = 1; i <= n[k]; i++) print ").append(out).append(" }");
+    } else if (!j.buildLeft()) {
+      awk.append("!((").append(probeKey).append(") in r) { print $0 }");
+    } else {
+      // remove matching rows from the build side, and output the remaining ones at the end
+      awk.append("{ k = ").append(probeKey).append("; if (k in n) delete n[k] } \n");
+      awk.append("END { for (k in n) for (i = 1; i <= n[k]; i++) print r[k, i] }");
+    }
+    awk.append("'");
+
+    Bash.Command cmd = new Bash.Command(AwkHelper.AWK).arg(awk.toString());
+    PlanNode build = j.buildLeft() ? j.getLeft() : j.getRight();
+    PlanNode probe = j.buildLeft() ? j.getRight() : j.getLeft();
+    cmd.file(bc.compile(build));
+    cmd.file(bc.compile(probe));
+    return cmd;
+  }
+
+  @Override
+  public List<Class<?>> supports() {
+    return Arrays.asList(HashJoinNode.class, HashAntiJoinNode.class);
+  }
+
+}
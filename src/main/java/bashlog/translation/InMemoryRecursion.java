@@ -0,0 +1,303 @@
+package bashlog.translation;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import bashlog.CompilerInternals;
+import bashlog.command.Bash;
+import bashlog.plan.*;
+import common.Tools;
+import common.plan.node.*;
+
+/**
+ * Generates an AWK program that computes the fixpoint of a recursion in memory.
+ * The full relation is a hash set, and the delta is a work list: every new tuple is added to the full relation,
+ * and then joined with the indexes of the other relations. Relations that don't depend on the recursion are loaded
+ * into indexes at the beginning; relations that are computed from the full relation are indexed whenever a tuple is added.
+ * The program exits with status 1 if more than $max tuples would be kept in memory.
+ */
+class InMemoryRecursion {
+
+  /** A relation that is kept in an associative array, either as multimap (key -&gt; rows) or as set of keys */
+  private static class Index {
+
+    final int id;
+
+    /** Relation that is indexed, null for indexes that are filled while adding tuples to the full relation */
+    final PlanNode input;
+
+    final int[] keyColumns;
+
+    final boolean set;
+
+    Index(int id, PlanNode input, int[] keyColumns, boolean set) {
+      this.id = id;
+      this.input = input;
+      this.keyColumns = keyColumns;
+      this.set = set;
+    }
+  }
+
+  /** Generate code for tuples given as column expressions */
+  private interface Continuation {
+
+    boolean emit(String[] columns, StringBuilder sb);
+  }
+
+  private final RecursionNode rn;
+
+  private final List<Index> indexes = new ArrayList<>();
+
+  /** Code that indexes tuples of the full relation, executed for each new tuple */
+  private final StringBuilder indexFull = new StringBuilder();
+
+  /** Local variables of the function that adds a tuple */
+  private final List<String> addLocals = new ArrayList<>();
+
+  /** Whether the generated code is part of the function that adds a tuple */
+  private boolean inAdd = false;
+
+  private int varCount = 0;
+
+  private InMemoryRecursion(RecursionNode rn) {
+    this.rn = rn;
+  }
+
+  /**
+   * Translate the recursion to an AWK command that reads the exit relation from full
+   * @return the command, or null if the recursive plan is not supported
+   */
+  static Bash translate(RecursionNode rn, CompilerInternals bc, Bash full, long maxRows) {
+    InMemoryRecursion imr = new InMemoryRecursion(rn);
+    StringBuilder loop = new StringBuilder();
+    String[] delta = columns("d", rn.getArity());
+    if (!supported(rn.getRecursivePlan()) || !imr.path(rn.getRecursivePlan(), rn.getDelta(), delta, imr::add, loop)) {
+      return null;
+    }
+    return imr.generate(bc, loop, full, maxRows);
+  }
+
+  /** Plans that write temporary files of their own cannot be translated twice */
+  private static boolean supported(PlanNode plan) {
+    boolean[] result = new boolean[] { true };
+    plan.transform(n -> {
+      if (n instanceof MaterializationNode || n instanceof MultiOutputNode || n instanceof RecursionNode || n instanceof MultiFilterNode) {
+        result[0] = false;
+      }
+      return n;
+    });
+    return result[0];
+  }
+
+  private Bash generate(CompilerInternals bc, StringBuilder loop, Bash full, long maxRows) {
+    StringBuilder awk = new StringBuilder();
+    awk.append("\nfunction add(t, f").append(addLocals.stream().map(v -> ", " + v).collect(Collectors.joining())).append(") {\n");
+    awk.append("  if (t in full) return\n");
+    awk.append("  if (++size > max) exit 1\n");
+    awk.append("  full[t] = 1; delta[++nd] = t\n");
+    if (indexFull.length() > 0) {
+      awk.append("  split(t, f, FS)\n");
+      awk.append(indexFull);
+    }
+    awk.append("}\n");
+    awk.append("BEGIN {\n");
+
+    List<PlanNode> inputs = new ArrayList<>();
+    for (Index idx : indexes) {
+      if (idx.input == null) continue;
+      inputs.add(idx.input);
+      awk.append("  while ((getline line < ARGV[").append(inputs.size()).append("]) > 0) { ");
+      awk.append("if (++size > max) exit 1; split(line, f, FS); ");
+      String key = key(columns("f", idx.input.getArity()), idx.keyColumns);
+      if (idx.set) {
+        awk.append("s").append(idx.id).append("[").append(key).append("] = 1 }\n");
+      } else {
+        awk.append("k = ").append(key).append("; r").append(idx.id).append("[k, ++n").append(idx.id).append("[k]] = line }\n");
+      }
+    }
+    awk.append("  while ((getline line < ARGV[").append(inputs.size() + 1).append("]) > 0) add(line)\n");
+    awk.append("  for (i = 1; i <= nd; i++) {\n");
+    awk.append("    split(delta[i], d, FS); delete delta[i]\n");
+    awk.append(loop);
+    awk.append("  }\n");
+    awk.append("  for (t in full) print t\n");
+    awk.append("  exit 0\n");
+    awk.append("}'");
+
+    Bash.Command cmd = new Bash.Command("$awk -v FS=$'\\t' -v max=" + maxRows + " '").arg(awk.toString());
+    for (PlanNode input : inputs) {
+      cmd.file(bc.compile(input));
+    }
+    cmd.file(full);
+    return cmd;
+  }
+
+  /** Called for every tuple of the recursive plan */
+  private boolean add(String[] columns, StringBuilder sb) {
+    sb.append("add(").append(tuple(columns)).append(")\n");
+    return true;
+  }
+
+  /**
+   * Generate code that evaluates the part of a plan that depends on 'source', for the tuple given by 'sourceColumns'
+   * @return false if the plan is not supported
+   */
+  private boolean path(PlanNode p, PlaceholderNode source, String[] sourceColumns, Continuation cont, StringBuilder sb) {
+    if (p.equals(source)) {
+      return cont.emit(sourceColumns, sb);
+    } else if (p instanceof SortNode) {
+      return path(((SortNode) p).getTable(), source, sourceColumns, cont, sb);
+    } else if (p instanceof ProjectNode) {
+      ProjectNode prj = (ProjectNode) p;
+      return path(prj.getTable(), source, sourceColumns, (cols, sb2) -> {
+        int[] projection = prj.getProjection();
+        String[] result = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+          result[i] = projection[i] >= 0 ? cols[projection[i]] : constant(prj.getConstant(i).get());
+        }
+        return cont.emit(result, sb2);
+      }, sb);
+    } else if (p instanceof ConstantEqualityFilterNode) {
+      ConstantEqualityFilterNode f = (ConstantEqualityFilterNode) p;
+      return path(f.getTable(), source, sourceColumns, (cols, sb2) -> {
+        sb2.append("if ((").append(cols[f.getField()]).append(" \"\") == ").append(constant(f.getValue())).append(") {\n");
+        return cont.emit(cols, sb2) && close(sb2);
+      }, sb);
+    } else if (p instanceof VariableEqualityFilterNode) {
+      VariableEqualityFilterNode f = (VariableEqualityFilterNode) p;
+      return path(f.getTable(), source, sourceColumns, (cols, sb2) -> {
+        sb2.append("if ((").append(cols[f.getField1()]).append(" \"\") == (").append(cols[f.getField2()]).append(" \"\")) {\n");
+        return cont.emit(cols, sb2) && close(sb2);
+      }, sb);
+    } else if (p instanceof CombinedColumnNode) {
+      CombinedColumnNode c = (CombinedColumnNode) p;
+      return path(c.getTable(), source, sourceColumns, (cols, sb2) -> {
+        String combined = Arrays.stream(c.getColumns()).mapToObj(i -> cols[i]).collect(Collectors.joining(" \"\\002\" ", "(", ")"));
+        String[] result = Arrays.copyOf(cols, cols.length + 1);
+        result[cols.length] = combined;
+        return cont.emit(result, sb2);
+      }, sb);
+    } else if (p instanceof UnionNode) {
+      for (PlanNode c : p.children()) {
+        if (!c.contains(source) || !path(c, source, sourceColumns, cont, sb)) return false;
+      }
+      return true;
+    } else if (p instanceof SortAntiJoinNode || p instanceof HashAntiJoinNode || p instanceof AntiJoinNode) {
+      boolean logical = p instanceof AntiJoinNode;
+      PlanNode left = logical ? ((AntiJoinNode) p).getLeft() : ((JoinNode) p).getLeft();
+      PlanNode right = logical ? ((AntiJoinNode) p).getRight() : ((JoinNode) p).getRight();
+      int[] leftPrj = logical ? ((AntiJoinNode) p).getLeftProjection() : ((JoinNode) p).getLeftProjection();
+      int[] rightPrj = logical ? Tools.sequence(right.getArity()) : ((JoinNode) p).getRightProjection();
+      if (!left.contains(source) || !isStatic(right)) return false;
+      Index idx = index(right, rightPrj, true);
+      return path(left, source, sourceColumns, (cols, sb2) -> {
+        sb2.append("if (!((").append(key(cols, leftPrj)).append(") in s").append(idx.id).append(")) {\n");
+        return cont.emit(output(p, cols), sb2) && close(sb2);
+      }, sb);
+    } else if (p instanceof JoinNode) {
+      JoinNode j = (JoinNode) p;
+      boolean sourceLeft = j.getLeft().contains(source);
+      PlanNode pathSide = sourceLeft ? j.getLeft() : j.getRight(), other = sourceLeft ? j.getRight() : j.getLeft();
+      int[] pathPrj = sourceLeft ? j.getLeftProjection() : j.getRightProjection();
+      int[] otherPrj = sourceLeft ? j.getRightProjection() : j.getLeftProjection();
+      Index idx;
+      if (isStatic(other)) {
+        idx = index(other, otherPrj, false);
+      } else if (!inAdd && source.equals(rn.getDelta()) && !other.contains(rn.getDelta())) {
+        idx = indexFull(other, otherPrj);
+        if (idx == null) return false;
+      } else {
+        return false;
+      }
+      return path(pathSide, source, sourceColumns, (cols, sb2) -> {
+        String k = var("k"), i = var("i"), v = var("v");
+        sb2.append(k).append(" = ").append(key(cols, pathPrj)).append("; ");
+        sb2.append("for (").append(i).append(" = 1; ").append(i).append(" <= n").append(idx.id).append("[").append(k).append("]; ").append(i)
+            .append("++) {\n");
+        sb2.append("split(r").append(idx.id).append("[").append(k).append(", ").append(i).append("], ").append(v).append(", FS)\n");
+        String[] otherCols = columns(v, other.getArity());
+        String[] joined = sourceLeft ? concat(cols, otherCols) : concat(otherCols, cols);
+        return cont.emit(output(p, joined), sb2) && close(sb2);
+      }, sb);
+    }
+    return false;
+  }
+
+  /** Index of a relation that is computed from the full relation; the index is updated for every new tuple */
+  private Index indexFull(PlanNode p, int[] keyColumns) {
+    Index idx = new Index(indexes.size(), null, keyColumns, false);
+    indexes.add(idx);
+    inAdd = true;
+    try {
+      return path(p, rn.getFull(), columns("f", rn.getArity()), (cols, sb) -> {
+        String k = var("k");
+        sb.append(k).append(" = ").append(key(cols, keyColumns)).append("; r").append(idx.id).append("[").append(k).append(", ++n").append(idx.id)
+            .append("[").append(k).append("]] = ").append(tuple(cols)).append("\n");
+        return true;
+      }, indexFull) ? idx : null;
+    } finally {
+      inAdd = false;
+    }
+  }
+
+  private Index index(PlanNode p, int[] keyColumns, boolean set) {
+    // the input does not need to be sorted
+    while (p instanceof SortNode) {
+      p = ((SortNode) p).getTable();
+    }
+    Index idx = new Index(indexes.size(), p, keyColumns, set);
+    indexes.add(idx);
+    return idx;
+  }
+
+  /** Whether the plan does not depend on the recursion */
+  private boolean isStatic(PlanNode p) {
+    return !p.contains(rn.getDelta()) && !p.contains(rn.getFull());
+  }
+
+  /** Apply the output projection of sort joins */
+  private static String[] output(PlanNode join, String[] columns) {
+    if (!(join instanceof SortJoinNode)) return columns;
+    return Arrays.stream(((SortJoinNode) join).getOutputProjection()).mapToObj(i -> columns[i]).toArray(String[]::new);
+  }
+
+  private String var(String prefix) {
+    String name = prefix + (varCount++);
+    if (inAdd) addLocals.add(name);
+    return name;
+  }
+
+  private static boolean close(StringBuilder sb) {
+    sb.append("}\n");
+    return true;
+  }
+
+  private static String[] columns(String array, int arity) {
+    String[] result = new String[arity];
+    for (int i = 0; i < arity; i++) {
+      result[i] = array + "[" + (i + 1) + "]";
+    }
+    return result;
+  }
+
+  private static String[] concat(String[] a, String[] b) {
+    String[] result = Arrays.copyOf(a, a.length + b.length);
+    System.arraycopy(b, 0, result, a.length, b.length);
+    return result;
+  }
+
+  private static String key(String[] columns, int[] keyColumns) {
+    if (keyColumns.length == 0) return "\"\"";
+    return Arrays.stream(keyColumns).mapToObj(i -> columns[i]).collect(Collectors.joining(" FS ", "(", ")"));
+  }
+
+  private static String tuple(String[] columns) {
+    if (columns.length == 0) return "\"\"";
+    return String.join(" FS ", columns);
+  }
+
+  private static String constant(Comparable<?> value) {
+    return "\"" + AwkHelper.escape(value.toString()) + "\"";
+  }
+
+}
@@ -1,62 +1,156 @@
 package bashlog.translation;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
+import java.util.stream.Collectors;
 
 import bashlog.CompilerInternals;
 import bashlog.command.Bash;
 import bashlog.command.Bash.BashFile;
+import bashlog.plan.AdaptiveJoinNode;
+import bashlog.plan.MultiQueryNode;
+import bashlog.plan.SortNode;
+import common.plan.node.ExchangeNode;
 import common.plan.node.MaterializationNode;
+import common.plan.node.MultiOutputNode;
 import common.plan.node.PlanNode;
+import common.plan.node.RecursionNode;
 
 /** 
  * Translate a materialization node. The command is just executed and its output stored in a file.
+ * Materializations of one plan are executed in parallel, as far as their dependencies allow.
+ * If streaming is enabled and all consumers run at the same time, the output is sent to the consumers through
+ * named pipes instead (see {@link #canStream(PlanNode, PlanNode)}).
+ * With a result cache, a materialized relation is taken from the cache if a previous run computed it for the same input
+ * files; such relations are not streamed.
  */
 public class Materialization implements BashTranslator {
 
+  /** Start of the body of a job, which stops at its first failing command or pipe, so that run_jobs sees the failure */
+  private static final String JOB_START = "() { set -o pipefail; trap 'exit 1' ERR; ";
+
+  /**
+   * Whether the reuse node can be streamed to its consumers in the plan, i.e., all of them read it at the same time.
+   * This is the case if they are part of one command, so not inside recursions (which read it in every iteration),
+   * or nested materializations (which are executed before, or wait for other materializations).
+   * Every consumer needs to end in a sort (possibly after filters and projections), which reads its input completely
+   * before it outputs something. Otherwise a consumer might wait for the output of another one, while the tee waits for it.
+   */
+  static boolean canStream(PlanNode plan, PlanNode reuseNode) {
+    List<PlanNode> consumers = new ArrayList<>();
+    if (!collectConsumers(plan, null, false, reuseNode, consumers) || consumers.isEmpty()) {
+      return false;
+    }
+    // equal consumers are compiled once, but their command occurs several times in the script
+    return new HashSet<>(consumers).size() == consumers.size();
+  }
+
+  /** @param sorted whether the output of p is only passed through unary operators to a sort */
+  private static boolean collectConsumers(PlanNode p, PlanNode parent, boolean sorted, PlanNode reuseNode, List<PlanNode> consumers) {
+    if (p.equals(reuseNode)) {
+      consumers.add(parent);
+      return sorted;
+    }
+    // an adaptive join checks the size of its input files, so they cannot be named pipes
+    if (p instanceof RecursionNode || p instanceof MaterializationNode || p instanceof MultiOutputNode || p instanceof MultiQueryNode
+        || p instanceof AdaptiveJoinNode) {
+      return !p.contains(reuseNode);
+    }
+    if (p instanceof ExchangeNode) {
+      // the inputs are split into files, before the shard plan runs several times
+      ExchangeNode e = (ExchangeNode) p;
+      return !e.getShardPlan().contains(reuseNode) && e.getInputs().stream().allMatch(c -> collectConsumers(c, p, true, reuseNode, consumers));
+    }
+    // a merge (sort -m) streams its input
+    boolean childSorted = (p instanceof SortNode && !((SortNode) p).merge()) || (sorted && p.children().size() == 1);
+    return p.children().stream().allMatch(c -> collectConsumers(c, p, childSorted, reuseNode, consumers));
+  }
+
+  /**
+   * Send the output of the command to the named pipes of the readers of the placeholder.
+   * The command runs in the background; the readers block until the data arrives.
+   */
+  static Bash streamTo(Bash reused, List<String> pipes) {
+    Bash.CommandSequence result = new Bash.CommandSequence();
+    if (pipes.isEmpty()) {
+      result.add(reused.wrap("", " > /dev/null &"));
+      return result;
+    }
+    result.other("mkfifo " + String.join(" ", pipes));
+    if (reused instanceof Bash.CommandSequence && !(reused instanceof Bash.Pipe)) {
+      reused = reused.wrap("{ ", "\n}");
+    }
+    Bash.Pipe pipe = reused.pipe();
+    Bash.Command tee = pipe.cmd("tee");
+    pipes.subList(0, pipes.size() - 1).forEach(tee::file);
+    result.add(pipe.wrap("", " > " + pipes.get(pipes.size() - 1) + " &"));
+    return result;
+  }
+
+  /**
+   * Translates a chain of materialization nodes (whose main plan is a materialization node) at once.
+   * With parallel materialization, every reused plan becomes a job (a bash function), and run_jobs of the script executes
+   * them with a limited number of job slots, each after the jobs whose results it reads. The main plan starts afterwards.
+   * A job fails at its first failing command; run_jobs then does not start the jobs that depend on it, and fails.
+   */
   @Override
   public Bash translate(PlanNode planNode, CompilerInternals bc) {
-    MaterializationNode m = (MaterializationNode) planNode;
-    String matFile = "tmp/mat" + bc.getNextIndex();
-    bc.registerPlaceholder(m.getReuseNode(), matFile);
     Bash.CommandSequence result = new Bash.CommandSequence();
-    result.info(planNode, "");
+    // job name and dependencies, in the format of run_jobs
+    List<String> jobs = new ArrayList<>();
+    Map<PlanNode, String> reuseNodeToJob = new LinkedHashMap<>();
+    MaterializationNode streamed = null;
+    Bash streamedPlan = null;
+    String streamedPipes = null;
 
-    Bash reused = bc.compile(m.getReusedPlan());
-    if (reused instanceof BashFile) {
-      BashFile rf = (BashFile) reused;
-      bc.registerPlaceholder(m.getReuseNode(), rf.getPath());
-    } else {
-      if (bc.parallelMaterialization()) {
-        String lockFile = matFile.replaceAll("tmp/", "tmp/lock_");
-        String doneFile = matFile.replaceAll("tmp/", "tmp/done_");
-        Bash.CommandSequence cs = new Bash.CommandSequence();
-        /*cs.other("mkfifo " + lockFile + "; ( ");
-        cs.add(reused);
-        cs.other(" > " + matFile + //
-          "; mv " + lockFile + " " + doneFile + //
-          "; cat " + doneFile + " > /dev/null & " + //
-          "exec 3> " + doneFile + "; exec 3>&-;" + //
-          " ) & ");
-        reused = cs;*/
-        reused = reused.wrap("mkfifo " + lockFile + "; ( ", //
-            " > " + matFile + //
-                "; mv " + lockFile + " " + doneFile + //
-                "; cat " + doneFile + " > /dev/null & " + //
-                "exec 3> " + doneFile + "; exec 3>&-;" + //
-                " ) & ");
+    PlanNode p = planNode;
+    for (; p instanceof MaterializationNode; p = ((MaterializationNode) p).getMainPlan()) {
+      MaterializationNode m = (MaterializationNode) p;
+      int idx = bc.getNextIndex();
+      String matFile = bc.tempFile("mat" + idx);
+      bc.registerPlaceholder(m.getReuseNode(), matFile);
+      bc.compressed(matFile);
+      result.info(m, "");
+
+      Bash reused = bc.compile(m.getReusedPlan());
+      if (reused instanceof BashFile) {
+        BashFile rf = (BashFile) reused;
+        bc.registerPlaceholder(m.getReuseNode(), rf.getPath());
+      } else if (bc.streamingMaterialization() && !bc.cacheable(m.getReusedPlan()) && canStream(m.getMainPlan(), m.getReuseNode())) {
+        // only possible for the last materialization of the chain, started after the jobs it might depend on
+        streamed = m;
+        streamedPlan = reused;
+        streamedPipes = bc.smallTempFile("pipe" + idx);
+      } else if (bc.parallelMaterialization()) {
+        String job = "job_mat" + idx;
+        String dependencies = reuseNodeToJob.entrySet().stream() //
+            .filter(e -> m.getReusedPlan().contains(e.getKey())).map(Map.Entry::getValue).collect(Collectors.joining(","));
+        if (bc.cacheable(m.getReusedPlan())) {
+          result.add(bc.cached(m.getReusedPlan(), matFile, reused.wrap("", bc.write(matFile))).wrap(job + JOB_START, "; }"));
+        } else {
+          result.add(reused.wrap(job + JOB_START, bc.write(matFile) + "; }"));
+        }
+        jobs.add(job + ":" + dependencies);
+        reuseNodeToJob.put(m.getReuseNode(), job);
       } else {
-        reused = reused.wrap("", " > " + matFile);
+        result.add(bc.cached(m.getReusedPlan(), matFile, reused.wrap("", bc.write(matFile))));
       }
-      result.add(reused);
+    }
+    if (!jobs.isEmpty()) {
+      result.other("run_jobs " + String.join(" ", jobs));
     }
 
-    if (!(m.getMainPlan() instanceof MaterializationNode)) {
-      result.other("\n# plan");
+    Bash main;
+    if (streamed != null) {
+      // the main plan needs to be compiled first, to know the readers
+      bc.registerStreamedPlaceholder(streamed.getReuseNode(), streamedPipes);
+      main = bc.compile(p);
+      result.add(streamTo(streamedPlan, bc.streamReaders(streamed.getReuseNode())));
+    } else {
+      main = bc.compile(p);
     }
-    result.add(bc.compile(m.getMainPlan()));
+    result.other("\n# plan");
+    result.add(main);
     return result;
-
   }
 
   @Override
@@ -1,5 +1,6 @@
 package bashlog.translation;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -13,6 +14,7 @@ import common.plan.node.PlanNode;
 /**
  * Translates a multi output plan to one single AWK command.
  * A multi output executes several projections and filters (of several branches) that operate on one input plan.
+ * If streaming is enabled and all outputs can be streamed (see Materialization), AWK writes to named pipes instead of files.
  */
 public class MultiOutput implements BashTranslator {
 
@@ -25,18 +27,34 @@ public class MultiOutput implements BashTranslator {
 
     StringBuilder arg = new StringBuilder("");
     List<PlanNode> plans = mo.reusedPlans(), nodes = mo.reuseNodes();
+    List<String> matFiles = new ArrayList<>();
     for (int i = 0; i < plans.size(); i++) {
       PlanNode plan = plans.get(i), node = nodes.get(i);
 
-      String matFile = "tmp/mat" + bc.getNextIndex();
+      String matFile = bc.smallTempFile("mat" + bc.getNextIndex());
       touch.file(matFile);
       bc.registerPlaceholder((PlaceholderNode) node, matFile);
+      bc.compressed(matFile);
+      matFiles.add(matFile);
 
       //TODO: if there are more conditions on one output file:
       // if (!complexAwkLine(Arrays.asList(plan), matFile, arg).isEmpty()) { ... }
       AwkHelper.multioutAwkLine(plan, i, matFile, arg);
     }
-    cmd.arg(arg.toString()).arg("'");
+    String awk = arg.toString();
+    if (bc.streamingMaterialization() && nodes.stream().allMatch(n -> Materialization.canStream(mo.getMainPlan(), n))) {
+      return stream(bc, mo, cmd, awk, matFiles);
+    }
+    if (bc.compressTemporaryFiles()) {
+      // write through a pipe to the compression program; empty outputs need to be valid compressed files, too
+      result = new Bash.CommandSequence();
+      for (String matFile : matFiles) {
+        result.other("$compress -1 -c < /dev/null > " + matFile);
+        awk = awk.replace(AwkHelper.redirect(matFile), "| \"$compress -1 -c > " + matFile + "\"");
+      }
+      result.add(cmd);
+    }
+    cmd.arg(awk).arg("'");
     cmd.file(bc.compile(mo.getLeaf()));
     cmd.arg("\n");
     result.add(bc.compile(mo.getMainPlan()));
@@ -44,6 +62,46 @@ public class MultiOutput implements BashTranslator {
 
   }
 
+  /** Run the AWK command in the background, writing every output to the named pipe(s) of its readers */
+  private Bash stream(CompilerInternals bc, MultiOutputNode mo, Bash.Command cmd, String awk, List<String> matFiles) {
+    List<PlanNode> nodes = mo.reuseNodes();
+    for (int i = 0; i < nodes.size(); i++) {
+      bc.registerStreamedPlaceholder((PlaceholderNode) nodes.get(i), matFiles.get(i));
+    }
+    // the main plan needs to be compiled first, to know the readers
+    Bash main = bc.compile(mo.getMainPlan());
+
+    Bash.CommandSequence result = new Bash.CommandSequence();
+    List<String> allPipes = new ArrayList<>();
+    StringBuilder open = new StringBuilder("BEGIN { ");
+    for (int i = 0; i < nodes.size(); i++) {
+      List<String> pipes = bc.streamReaders((PlaceholderNode) nodes.get(i));
+      allPipes.addAll(pipes);
+      String output;
+      if (pipes.isEmpty()) {
+        output = "> \"/dev/null\"";
+      } else if (pipes.size() == 1) {
+        output = "> " + AwkHelper.file(pipes.get(0));
+      } else {
+        // several readers, the pipes are opened by tee; $shm is exported
+        output = "| \"tee " + String.join(" ", pipes.subList(0, pipes.size() - 1)) + " > " + pipes.get(pipes.size() - 1) + "\"";
+      }
+      awk = awk.replace(AwkHelper.redirect(matFiles.get(i)), output);
+      // open all pipes, otherwise readers of empty outputs would wait forever
+      open.append("printf \"\" ").append(output).append("; ");
+    }
+    open.append("} \n");
+    if (!allPipes.isEmpty()) {
+      result.other("mkfifo " + String.join(" ", allPipes));
+    }
+    cmd.arg(open + awk).arg("'");
+    cmd.file(bc.compile(mo.getLeaf()));
+    cmd.arg("&\n");
+    result.add(cmd);
+    result.add(main);
+    return result;
+  }
+
   @Override
   public List<Class<?>> supports() {
     return Arrays.asList(MultiOutputNode.class);
@@ -0,0 +1,47 @@
+package bashlog.translation;
+
+import java.util.Arrays;
+import java.util.List;
+
+import bashlog.CompilerInternals;
+import bashlog.command.Bash;
+import bashlog.plan.MultiQueryNode;
+import common.plan.node.PlanNode;
+
+/**
+ * Translates the root of several queries to a sequence of commands, each writing the result of a query to its file
+ * (or to stdout, if the file is null)
+ */
+public class MultiQuery implements BashTranslator {
+
+  @Override
+  public Bash translate(PlanNode planNode, CompilerInternals bc) {
+    MultiQueryNode m = (MultiQueryNode) planNode;
+    Bash.CommandSequence result = new Bash.CommandSequence();
+    for (int i = 0; i < m.getQueries().size(); i++) {
+      String file = m.getOutputFiles().get(i);
+      Bash query = bc.compile(m.getQueries().get(i));
+      if (file == null) {
+        result.comment("output");
+        result.add(query instanceof Bash.BashFile ? new Bash.Command("cat").file(query) : query);
+        continue;
+      }
+      result.comment("output " + file);
+      if (query instanceof Bash.BashFile) {
+        // e.g., two queries with the same result
+        query = new Bash.Command("cat").file(query);
+      } else if (query instanceof Bash.CommandSequence && !(query instanceof Bash.Pipe)) {
+        // redirect the output of all commands, e.g., of a recursion that streams its deltas
+        query = query.wrap("{ ", "\n}");
+      }
+      result.add(query.wrap("", " > \"" + file + "\"\n"));
+    }
+    return result;
+  }
+
+  @Override
+  public List<Class<?>> supports() {
+    return Arrays.asList(MultiQueryNode.class);
+  }
+
+}
@@ -10,12 +10,17 @@ import common.plan.node.PlanNode;
 import common.plan.node.ProjectNode;
 import common.plan.node.VariableEqualityFilterNode;
 
-/** Translates projects and filters to an AWK command */
+/** Translates projects and filters to an AWK command (together with combined columns, see CombineColumns) */
 public class ProjectFilter implements BashTranslator {
 
   @Override
   public Bash translate(PlanNode planNode, CompilerInternals bc) {
     StringBuilder awk = new StringBuilder();
+    if (AwkHelper.containsCombinedColumn(planNode)) {
+      // one AWK command for the combined column, and the filters and projections around it
+      PlanNode inner = AwkHelper.fusedAwkLine(planNode, awk);
+      return new Bash.Command(AwkHelper.AWK).arg(awk.toString()).arg("'").file(bc.compile(inner));
+    }
     PlanNode inner = AwkHelper.simpleAwkLine(planNode, null, awk);
 
     StringBuilder advAwk = new StringBuilder();
@@ -1,67 +1,300 @@
 package bashlog.translation;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import bashlog.CompilerInternals;
 import bashlog.command.Bash;
+import bashlog.plan.AdaptiveJoinNode;
+import bashlog.plan.SortJoinNode;
+import bashlog.plan.SortNode;
+import common.plan.node.EqualityFilterNode;
+import common.plan.node.ExchangeNode;
+import common.plan.node.JoinNode;
+import common.plan.node.MaterializationNode;
+import common.plan.node.MultiOutputNode;
+import common.plan.node.PlaceholderNode;
 import common.plan.node.PlanNode;
+import common.plan.node.ProjectNode;
 import common.plan.node.RecursionNode;
 
-/** Translates a recursion node to a bash while loop */
+/**
+ * Translates a recursion node to a bash while loop.
+ * If enabled, the script first tries to compute the fixpoint in memory (see InMemoryRecursion),
+ * and only falls back to the loop if the recursion turns out to be too large.
+ * In partitioned mode, every iteration hash partitions the delta into $recursion_partitions buckets by its join columns,
+ * and evaluates the recursive plan for each bucket in a background job, joining with the matching shards of the static inputs.
+ * With sorted runs, the full relation is a set of runs in size tiers (like a log-structured merge tree): every delta
+ * becomes a new run, instead of rewriting the full relation in every iteration.
+ * In unordered mode, a recursion may output every delta as soon as it is computed, instead of the full relation at the end.
+ * With a result cache, the full relation is taken from the cache if a previous run computed it for the same input files.
+ */
 public class Recursion implements BashTranslator {
 
-  private Bash setMinusSorted(Bash prev, String filename) {
+  /** Suffix of the delta/new files of a bucket, in partitioned mode */
+  private static final String BUCKET = "_$b";
+
+  private Bash setMinusSorted(Bash prev, Bash full) {
     Bash.Pipe result = prev.pipe();
     result.cmd("comm")//
         .arg("-23").arg("-")//
-        .file(filename);
+        .file(full);
     return result;
   }
 
-  private Bash recursionSorted(CompilerInternals bc, RecursionNode rn, String fullFile, String deltaFile, String newDeltaFile) {
+  /** Output the delta, if the recursion streams its result */
+  private void streamDelta(CompilerInternals bc, RecursionNode rn, Bash.CommandSequence result, String deltaFile) {
+    if (bc.streamsResult(rn)) {
+      result.cmd("cat").file(deltaFile).arg("; ");
+    }
+  }
+
+  /** Merge the delta into the full relation */
+  private void mergeFull(CompilerInternals bc, Bash.CommandSequence result, int idx, String fullFile, String deltaFile) {
+    if (bc.recursionRunsFanIn() > 0) {
+      // add the delta as a new run; the iteration number is the id of the run
+      result.cmd("lsm_add").file(fullFile).file(deltaFile).arg("$((++iteration" + idx + "))").arg("; ");
+    } else if (bc.compressTemporaryFiles()) {
+      bc.compressed(fullFile + ".new");
+      result.cmd("$sort")//
+          .arg("-u").arg("--merge")//
+          .file(bc.read(fullFile)).file(deltaFile).arg(bc.write(fullFile + ".new") + "; ");
+      result.cmd("mv").file(fullFile + ".new").file(fullFile).arg("; ");
+    } else {
+      result.cmd("$sort")//
+          .arg("-u").arg("--merge").arg("-o")//
+          .file(fullFile).file(fullFile).file(deltaFile).arg("; ");
+    }
+  }
+
+  private Bash recursionSorted(CompilerInternals bc, RecursionNode rn, int idx, String fullFile, String deltaFile, String newDeltaFile) {
     Bash prev = bc.compile(rn.getRecursivePlan());
-    //setMinusInMemory(fullFile, sb);
-    Bash delta = setMinusSorted(prev, fullFile);
+    Bash delta = setMinusSorted(prev, bc.read(fullFile));
     delta = delta.wrap("", " > " + newDeltaFile + ";");
 
     Bash.CommandSequence result = new Bash.CommandSequence();
     result.add(delta);
     result.info(rn, "continued");
     result.cmd("mv").file(newDeltaFile).file(deltaFile).arg("; ");
-    result.cmd("$sort")//
-        .arg("-u").arg("--merge").arg("-o")//
-        .file(fullFile).file(fullFile).file(deltaFile).arg("; ");
+    streamDelta(bc, rn, result, deltaFile);
+    mergeFull(bc, result, idx, fullFile, deltaFile);
+
+    return result;
+  }
+
+  /**
+   * Each bucket contains the rows of the delta whose key (the join columns of the delta, see partitionKey) hash to it.
+   * This is correct, as the recursive plan is a union of subplans that each use the delta at most once (see
+   * SimplifyRecursion). The buckets only evaluate the recursive plan; the rows of the full relation are removed once,
+   * after merging their outputs.
+   */
+  private Bash recursionPartitioned(CompilerInternals bc, RecursionNode rn, PlanNode recursivePlan, int[] key, int idx, String fullFile,
+      String deltaFile, String newDeltaFile) {
+    String pids = "pids" + idx;
+    Bash prev = bc.compile(recursivePlan);
+    prev = prev.wrap("if [ -s " + deltaFile + BUCKET + " ]; then ( ", //
+        " > " + newDeltaFile + BUCKET + " )" + Exchange.background(pids) + "; else : > " + newDeltaFile + BUCKET + "; fi");
+
+    Bash.CommandSequence result = new Bash.CommandSequence();
+    result.other("$awk -v FS=$'\\t' -v n=$recursion_partitions '" + Exchange.split(key, deltaFile + "_") + " " + deltaFile);
+    result.other("for b in $(seq 0 $((recursion_partitions - 1))); do ");
+    result.add(prev);
+    result.other("done; " + Exchange.waitAll(pids));
+    result.info(rn, "continued");
+    Bash merged = new Bash.Command("$sort").arg("-u").arg("--merge").file(newDeltaFile + "_*");
+    result.add(setMinusSorted(merged, bc.read(fullFile)).wrap("", " > " + newDeltaFile + ";"));
+    result.cmd("mv").file(newDeltaFile).file(deltaFile).arg("; ");
+    streamDelta(bc, rn, result, deltaFile);
+    mergeFull(bc, result, idx, fullFile, deltaFile);
+
+    return result;
+  }
+
+  /** Column of the delta that a column of the plan is taken from, or -1 */
+  private static int deltaColumn(PlanNode p, int column, PlanNode delta) {
+    if (p.equals(delta)) {
+      return column;
+    } else if (p instanceof SortNode) {
+      return deltaColumn(((SortNode) p).getTable(), column, delta);
+    } else if (p instanceof EqualityFilterNode) {
+      return deltaColumn(((EqualityFilterNode) p).getTable(), column, delta);
+    } else if (p instanceof ProjectNode) {
+      int c = ((ProjectNode) p).getProjection()[column];
+      return c < 0 ? -1 : deltaColumn(((ProjectNode) p).getTable(), c, delta);
+    } else if (p instanceof JoinNode) {
+      JoinNode j = (JoinNode) p;
+      if (j instanceof SortJoinNode) {
+        column = ((SortJoinNode) j).getOutputProjection()[column];
+      }
+      int leftArity = j.getLeft().getArity();
+      return column < leftArity ? deltaColumn(j.getLeft(), column, delta) : deltaColumn(j.getRight(), column - leftArity, delta);
+    }
+    return -1;
+  }
+
+  /** Joins of rows of the delta with inputs that do not change during the recursion (in pre-order) */
+  private static void staticJoins(PlanNode p, RecursionNode rn, List<JoinNode> joins) {
+    if (p instanceof JoinNode) {
+      JoinNode j = (JoinNode) p;
+      if (isStatic(j.getLeft(), rn) != isStatic(j.getRight(), rn) && (j.getLeft().contains(rn.getDelta()) || j.getRight().contains(rn.getDelta()))) {
+        joins.add(j);
+      }
+    }
+    p.children().forEach(c -> staticJoins(c, rn, joins));
+  }
+
+  private static boolean isStatic(PlanNode p, RecursionNode rn) {
+    return !p.contains(rn.getDelta()) && !p.contains(rn.getFull());
+  }
 
+  /** Columns of the delta that a join with a static input uses, or null */
+  private static int[] deltaKey(JoinNode j, RecursionNode rn) {
+    boolean staticLeft = isStatic(j.getLeft(), rn);
+    int[] columns = staticLeft ? j.getRightProjection() : j.getLeftProjection();
+    int[] result = new int[columns.length];
+    for (int i = 0; i < columns.length; i++) {
+      result[i] = deltaColumn(staticLeft ? j.getRight() : j.getLeft(), columns[i], rn.getDelta());
+      if (result[i] < 0) return null;
+    }
     return result;
   }
 
+  /** The key by which the delta is partitioned: the columns of the delta of the first join with a static input */
+  private static int[] partitionKey(RecursionNode rn) {
+    List<JoinNode> joins = new ArrayList<>();
+    staticJoins(rn.getRecursivePlan(), rn, joins);
+    return joins.stream().map(j -> deltaKey(j, rn)).filter(k -> k != null && k.length > 0).findFirst().orElse(new int[] { 0 });
+  }
+
+  /**
+   * Split the static inputs of all joins on the key into shards once, before the loop (by the same hash as the delta),
+   * so that every bucket only joins with the shard of its keys. Other joins read their whole static input.
+   * @return the recursive plan, with placeholders for the shards
+   */
+  private static PlanNode shardStaticInputs(CompilerInternals bc, RecursionNode rn, int[] key, int idx, Bash.CommandSequence result) {
+    List<JoinNode> joins = new ArrayList<>();
+    staticJoins(rn.getRecursivePlan(), rn, joins);
+    // shards of the static inputs of the joins on the key (by identity of the join)
+    Map<PlanNode, PlaceholderNode> shards = new IdentityHashMap<>();
+    String pids = "pids" + idx;
+    for (JoinNode j : joins) {
+      if (!Arrays.equals(key, deltaKey(j, rn))) continue;
+      boolean staticLeft = isStatic(j.getLeft(), rn);
+      PlanNode input = staticLeft ? j.getLeft() : j.getRight();
+      PlaceholderNode shard = new PlaceholderNode("shard", input.getArity());
+      String prefix = bc.tempFile("shard" + idx + "_" + shards.size() + "_");
+      bc.registerPlaceholder(shard, prefix + "$b");
+      shards.put(j, shard);
+      Bash.Command cmd = new Bash.Command("$awk -v FS=$'\\t' -v n=$recursion_partitions '")
+          .arg(Exchange.split(staticLeft ? j.getLeftProjection() : j.getRightProjection(), prefix));
+      cmd.file(bc.compile(input));
+      result.add(cmd.wrap("", Exchange.background(pids)));
+    }
+    if (shards.isEmpty()) {
+      return rn.getRecursivePlan();
+    }
+    result.other(Exchange.waitAll(pids));
+    // replace the static inputs only where they are joined on the key, as other joins might use the same input
+    return rn.getRecursivePlan().transform((o, n, path) -> {
+      PlanNode parent = path.size() >= 2 ? path.get(path.size() - 2) : null;
+      return shards.containsKey(parent) && isStatic(o, rn) ? shards.get(parent) : n;
+    }, new ArrayList<>());
+  }
+
+  /** Plans that write temporary files of their own cannot be executed several times in parallel */
+  private boolean canPartition(RecursionNode rn) {
+    boolean[] result = new boolean[] { true };
+    rn.getRecursivePlan().transform(n -> {
+      if (n instanceof MaterializationNode || n instanceof MultiOutputNode || n instanceof RecursionNode || n instanceof ExchangeNode
+          || n instanceof AdaptiveJoinNode) {
+        result[0] = false;
+      }
+      return n;
+    });
+    return result[0];
+  }
+
   @Override
   public Bash translate(PlanNode planNode, CompilerInternals bc) {
     RecursionNode rn = (RecursionNode) planNode;
     int idx = bc.getNextIndex();
-    String deltaFile = "tmp/delta" + idx;
-    String newDeltaFile = "tmp/new" + idx;
-    String fullFile = "tmp/full" + idx;
-    bc.registerPlaceholder(rn.getDelta(), deltaFile);
+    String deltaFile = bc.smallTempFile("delta" + idx);
+    String newDeltaFile = bc.smallTempFile("new" + idx);
+    String fullFile = bc.tempFile("full" + idx);
+    boolean partitioned = bc.partitionedRecursion() && canPartition(rn);
+    bc.registerPlaceholder(rn.getDelta(), partitioned ? deltaFile + BUCKET : deltaFile);
     bc.registerPlaceholder(rn.getFull(), fullFile);
+    // the result of the exit plan is the first run of the full relation
+    String fullOutput = fullFile;
+    if (bc.recursionRunsFanIn() > 0) {
+      bc.sortedRuns(fullFile);
+      fullOutput = fullFile + ".t0.0";
+    } else {
+      // the delta stays uncompressed, as it is checked for emptiness
+      bc.compressed(fullFile);
+    }
 
     Bash.CommandSequence result = new Bash.CommandSequence();
     Bash b = bc.compile(rn.getExitPlan());
     Bash.Pipe pipe = b.pipe();
     Bash.Command cmd = pipe.cmd("tee");
-    cmd.file(fullFile);
-    result.add(pipe.wrap("", " > " + deltaFile));
+    cmd.file(deltaFile);
+    result.add(pipe.wrap("", bc.write(fullOutput)));
+    streamDelta(bc, rn, result, deltaFile);
+
+    Bash inMemory = null;
+    if (bc.inMemoryRecursionMaxRows() > 0) {
+      inMemory = InMemoryRecursion.translate(rn, bc, bc.read(fullFile), bc.inMemoryRecursionMaxRows());
+    }
+    if (inMemory != null) {
+      String memFile = bc.tempFile("mem" + idx);
+      result.add(inMemory.wrap("if ", " > " + memFile + "; then"));
+      result.cmd("$sort").arg("-u").file(memFile).arg(bc.write(fullOutput) + "; ");
+      if (bc.streamsResult(rn)) {
+        // the delta still contains the result of the exit plan, which was already output
+        result.cmd("comm").arg("-13").file(deltaFile).file(bc.read(fullFile)).arg("; ");
+      }
+      result.cmd("rm").file(memFile);
+      result.other("else");
+    }
 
-    // "do while" loop in bash
-    result.cmd("while \n");
+    // loop in bash while there is a delta; the iterations are in the body, so that a failing command stops the
+    // recursion of a cached relation (see CompilerInternals.cached)
+    if (bc.recursionRunsFanIn() > 0) {
+      result.other("iteration" + idx + "=0");
+    }
+    int[] key = null;
+    PlanNode recursivePlan = rn.getRecursivePlan();
+    if (partitioned) {
+      key = partitionKey(rn);
+      recursivePlan = shardStaticInputs(bc, rn, key, idx, result);
+    }
+    result.cmd("while \n[ -s " + deltaFile + " ]; do");
 
-    result.add(recursionSorted(bc, rn, fullFile, deltaFile, newDeltaFile));
-    result.cmd("[ -s " + deltaFile + " ]; ");
-    result.cmd("do continue; done\n");
+    if (partitioned) {
+      result.add(recursionPartitioned(bc, rn, recursivePlan, key, idx, fullFile, deltaFile, newDeltaFile));
+    } else {
+      result.add(recursionSorted(bc, rn, idx, fullFile, deltaFile, newDeltaFile));
+    }
+    result.cmd("done\n");
+    if (inMemory != null) {
+      result.other("fi");
+    }
     result.cmd("rm").file(deltaFile).wrap("", "\n");
-    result.cmd("cat").file(fullFile);
-    return result;
+    if (partitioned) {
+      result.cmd("rm -f").file(deltaFile + "_*").file(newDeltaFile + "_*").file(bc.tempFile("shard" + idx + "_*")).wrap("", "\n");
+    }
+    if (bc.streamsResult(rn)) {
+      return result;
+    }
+    // a full relation that consists of runs is not cached
+    Bash.CommandSequence cached = new Bash.CommandSequence();
+    cached.add(bc.recursionRunsFanIn() > 0 ? result : bc.cached(rn, fullFile, result));
+    cached.add(bc.read(fullFile));
+    return cached;
 
   }
 
@@ -0,0 +1,36 @@
+package bashlog.translation;
+
+import java.util.Arrays;
+import java.util.List;
+
+import bashlog.CompilerInternals;
+import bashlog.command.Bash;
+import bashlog.plan.SemiJoinFilterNode;
+import common.plan.node.PlanNode;
+
+/**
+ * Translate a semi-join filter to an AWK command. The keys are read in the BEGIN block into an associative array;
+ * if there are too many of them, the array is dropped and all rows pass.
+ */
+public class SemiJoinFilter implements BashTranslator {
+
+  @Override
+  public Bash translate(PlanNode planNode, CompilerInternals bc) {
+    SemiJoinFilterNode f = (SemiJoinFilterNode) planNode;
+    StringBuilder awk = new StringBuilder();
+    awk.append("BEGIN { while ((getline < ARGV[1]) > 0) if (!($0 in keys)) { keys[$0]; if (++n > max) { split(\"\", keys); all = 1; break } } ");
+    awk.append("close(ARGV[1]); ARGV[1] = \"\" } \n");
+    awk.append("all || ((").append(HashJoin.key(f.getKeyColumns())).append(") in keys) { print $0 }'");
+
+    Bash.Command cmd = new Bash.Command("$awk -v FS=$'\\t' -v max=" + f.getMaxKeys() + " '").arg(awk.toString());
+    cmd.file(bc.compile(f.getKeys()));
+    cmd.file(bc.compile(f.getTable()));
+    return cmd;
+  }
+
+  @Override
+  public List<Class<?>> supports() {
+    return Arrays.asList(SemiJoinFilterNode.class);
+  }
+
+}
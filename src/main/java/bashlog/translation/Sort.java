@@ -5,8 +5,10 @@ import java.util.List;
 
 import bashlog.CompilerInternals;
 import bashlog.command.Bash;
+import bashlog.plan.DisjointUnionNode;
 import bashlog.plan.SortNode;
 import common.plan.node.PlanNode;
+import common.plan.node.UnionNode;
 
 /** Translates a sort node to a sort command */
 public class Sort implements BashTranslator {
@@ -15,9 +17,10 @@ public class Sort implements BashTranslator {
 	public Bash translate(PlanNode p, CompilerInternals bc) {
 		SortNode s = (SortNode)p;
 		int[] cols = s.sortColumns();
-		Bash prev = bc.compile(s.getTable());
-		Bash.Pipe result = new Bash.Pipe(prev);
-		Bash.Command cmd = result.cmd("$sort").arg("-t $'\\t'");
+		Bash.Command cmd = new Bash.Command("$sort").arg("-t $'\\t'");
+		if (s.merge()) {
+			cmd.arg("-m");
+		}
 
 		boolean supportsUniq = cols == null;
 		if (cols != null) {
@@ -34,7 +37,15 @@ public class Sort implements BashTranslator {
 		if (supportsUniq) {
 			cmd.arg("-u");
 		}
-		cmd.file(prev);
+		if (supportsUniq && bc.unorderedMaxRows() > 0 && s.getTable() instanceof UnionNode && !s.getTable().children().isEmpty()) {
+			// the sort removes the duplicates itself, so the union doesn't need a hash table (see Distinct)
+			s.getTable().children().forEach(c -> cmd.file(bc.compile(c)));
+		} else if (s.getTable() instanceof DisjointUnionNode) {
+			// sort reads the inputs of the concatenation itself
+			s.getTable().children().forEach(c -> cmd.file(bc.compile(c)));
+		} else {
+			cmd.file(bc.compile(s.getTable()));
+		}
 
 		return cmd;
 	}
@@ -5,18 +5,31 @@ import java.util.List;
 
 import bashlog.CompilerInternals;
 import bashlog.command.Bash;
+import bashlog.plan.DisjointUnionNode;
+import bashlog.plan.MergeUnionNode;
 import common.plan.node.PlanNode;
 import common.plan.node.UnionNode;
 
-/** Translates a union node to a sort command, which removes duplicates */
+/**
+ * Translates a union node to a sort command, which removes duplicates; in unordered mode, to an AWK command (see Distinct).
+ * A disjoint union only concatenates its inputs, a union of sorted inputs merges them (sort -m -u).
+ */
 public class Union implements BashTranslator {
 
   @Override
   public Bash translate(PlanNode planNode, CompilerInternals bc) {
     if (planNode.children().size() == 0) {
       return new Bash.Command("echo").arg("-n");
+    } else if (planNode instanceof DisjointUnionNode) {
+      Bash.Command result = new Bash.Command("cat");
+      planNode.children().forEach(c -> result.file(bc.compile(c)));
+      return result;
+    } else if (planNode instanceof MergeUnionNode) {
+      Bash.Command result = new Bash.Command("$sort").arg("-m").arg("-u");
+      planNode.children().forEach(c -> result.file(bc.compile(c)));
+      return result;
     } else {
-      Bash.Command result = new Bash.Command("$sort").arg("-u");
+      Bash.Command result = bc.unorderedMaxRows() > 0 ? Distinct.dedup(bc.unorderedMaxRows()) : new Bash.Command("$sort").arg("-u");
       for (PlanNode child : ((UnionNode) planNode).getChildren()) {
         result.file(bc.compile(child));
       }
@@ -26,7 +39,7 @@ public class Union implements BashTranslator {
 
   @Override
   public List<Class<?>> supports() {
-    return Arrays.asList(UnionNode.class);
+    return Arrays.asList(UnionNode.class, DisjointUnionNode.class, MergeUnionNode.class);
   }
 
 }
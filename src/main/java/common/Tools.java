@@ -2,6 +2,9 @@ package common;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -131,6 +134,19 @@ public class Tools {
     return sb.toString();
   }
 
+  /** MD5 hash of the (UTF-8 encoded) string, as hexadecimal number */
+  public static String md5(String str) {
+    try {
+      StringBuilder sb = new StringBuilder();
+      for (byte b : MessageDigest.getInstance("MD5").digest(str.getBytes(StandardCharsets.UTF_8))) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   /** Get first n lines of string */
   public static String head(String prettyString, int n) {
     String[] parts = prettyString.split("\n", n + 1);
@@ -12,13 +12,17 @@ import java.util.stream.Stream;
  * Parses datalog
  * 
  * current grammar:
- *   program ::= rule*
+ *   program ::= (rule | key)*
  *   rule ::= compound_term :- compound_term+ '.' | compound_term '.'
  *   compound_term ::= atom '(' term* ')'
  *   term ::= variable | atom | constant
  *   variable ::= name_starting_with_uppercase
  *   atom ::= name_starting_with_lowercase
  *   constant ::= number | string_with_apostrophes
+ *   key ::= '@key(' compound_term (',' variable)+ ')' '.'
+ * 
+ * A key declaration, e.g., <code>@key(label(X, L), X).</code>, states that no two facts of the relation agree on the
+ * columns of the variables. Keys are not checked; the optimizer relies on them.
  * 
  * @author Thomas Rebele
  */
@@ -28,6 +32,9 @@ public class Program implements Parseable {
 
   private final Map<String, List<Rule>> relationToRules = new HashMap<>();
 
+  /** Declared keys of relations, see {@link #keys()} */
+  private final Map<String, List<int[]>> keys = new TreeMap<>();
+
   public Program() {
   }
 
@@ -54,6 +61,10 @@ public class Program implements Parseable {
     Rule r;
     do {
       pr.skipComments();
+      while (pr.consume("@key") != null) {
+        p.readKey(pr, supportedFeatures);
+        pr.skipComments();
+      }
       r = Rule.read(pr, supportedFeatures);
       if (r != null) {
         p.addRule(r);
@@ -62,9 +73,38 @@ public class Program implements Parseable {
     return p;
   }
 
+  /** Read the rest of a key declaration, after '@key' */
+  private void readKey(ParserReader pr, Set<String> supportedFeatures) {
+    pr.expect("(");
+    CompoundTerm relation = CompoundTerm.read(pr, new HashMap<>(), supportedFeatures);
+    if (relation == null) {
+      pr.error(new String[] { "expected: term(...)" }, null);
+    }
+    List<Integer> columns = new ArrayList<>();
+    pr.expect(",");
+    do {
+      CharSequence name = pr.readName();
+      int column = -1;
+      for (int i = 0; name != null && i < relation.args.length; i++) {
+        if (relation.args[i] instanceof Variable && ((Variable) relation.args[i]).name.equals(name.toString())) {
+          column = i;
+          break;
+        }
+      }
+      if (column < 0) {
+        pr.error("key variable " + name + " does not occur in " + relation, null);
+      }
+      columns.add(column);
+    } while (pr.consume(",") != null);
+    pr.expect(")");
+    pr.expect(".");
+    addKey(relation.getRelation(), columns.stream().mapToInt(i -> i).toArray());
+  }
+
   public Program copy() {
     Program result = new Program();
     this.rules.forEach(result::addRule);
+    result.addKeys(this);
     return result;
   }
 
@@ -75,11 +115,35 @@ public class Program implements Parseable {
 
   public void addRules(Program p) {
     p.rules().forEach(this::addRule);
+    addKeys(p);
+  }
+
+  /** Declare that no two facts of the relation agree on the columns */
+  public void addKey(String relation, int[] columns) {
+    List<int[]> relationKeys = keys.computeIfAbsent(relation, k -> new ArrayList<>());
+    if (relationKeys.stream().noneMatch(k -> Arrays.equals(k, columns))) {
+      relationKeys.add(columns);
+    }
+  }
+
+  private void addKeys(Program p) {
+    p.keys.forEach((relation, columns) -> columns.forEach(c -> addKey(relation, c)));
+  }
+
+  /** Declared keys: relation => column sets, such that no two facts of the relation agree on all columns of a set */
+  public Map<String, List<int[]>> keys() {
+    return Collections.unmodifiableMap(keys);
   }
 
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
+    keys.forEach((relation, columns) -> columns.forEach(c -> {
+      int arity = CompoundTerm.parseRelationArity(relation);
+      String args = Arrays.stream(Tools.sequence(arity)).mapToObj(i -> "X" + i).collect(Collectors.joining(", "));
+      String key = Arrays.stream(c).mapToObj(i -> "X" + i).collect(Collectors.joining(", "));
+      sb.append("@key(").append(relation.substring(0, relation.lastIndexOf('/'))).append("(").append(args).append("), ").append(key).append(").\n");
+    }));
     rules.forEach(r -> {
       sb.append(r.toString());
       sb.append("\n");
@@ -166,8 +230,8 @@ public class Program implements Parseable {
 
   public static Program merge(Program p1, Program p2) {
     Program result = new Program();
-    p1.rules().forEach(result::addRule);
-    p2.rules().forEach(result::addRule);
+    result.addRules(p1);
+    result.addRules(p2);
     return result;
   }
 
@@ -0,0 +1,146 @@
+package common.plan.node;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import common.Tools;
+
+/**
+ * Evaluates a plan for several shards of its inputs in parallel, and gathers the results (the union of the shards).
+ * Every input is hash partitioned by its key columns into the same number of shards, so rows with the same key are in
+ * the same shard. The shard plan reads the current shard of input i through placeholder i.
+ * This is correct if rows of different shards never contribute to the same output row, e.g., for a join or an anti-join
+ * on the key columns.
+ */
+public class ExchangeNode implements PlanNode {
+
+  private final PlanNode shardPlan;
+
+  private final List<PlanNode> inputs;
+
+  private final List<int[]> keys;
+
+  private final List<PlaceholderNode> shards;
+
+  public static class Builder {
+
+    List<PlaceholderNode> shards = new ArrayList<>();
+
+    /** Placeholder for the shards of the next input */
+    public PlaceholderNode getNextShard(int arity) {
+      PlaceholderNode shard = new PlaceholderNode("shard_" + shards.size(), arity);
+      shards.add(shard);
+      return shard;
+    }
+
+    public ExchangeNode build(PlanNode shardPlan, List<PlanNode> inputs, List<int[]> keys) {
+      return new ExchangeNode(shardPlan, inputs, keys, shards);
+    }
+  }
+
+  /** Use builder if possible */
+  protected ExchangeNode(PlanNode shardPlan, List<PlanNode> inputs, List<int[]> keys, List<PlaceholderNode> shards) {
+    if (inputs.size() != keys.size() || inputs.size() != shards.size()) {
+      throw new IllegalArgumentException("need key columns and a shard placeholder for every input");
+    }
+    for (int i = 0; i < inputs.size(); i++) {
+      if (inputs.get(i).getArity() != shards.get(i).getArity()) {
+        throw new IllegalArgumentException("input " + i + " has arity " + inputs.get(i).getArity() + ", but its shard " + shards.get(i).getArity());
+      }
+      if (keys.get(i).length != keys.get(0).length) {
+        throw new IllegalArgumentException("all inputs need the same number of key columns");
+      }
+    }
+    this.shardPlan = shardPlan;
+    this.inputs = inputs;
+    this.keys = keys;
+    this.shards = shards;
+  }
+
+  public PlanNode getShardPlan() {
+    return shardPlan;
+  }
+
+  public List<PlanNode> getInputs() {
+    return Collections.unmodifiableList(inputs);
+  }
+
+  /** Key columns of every input, by which it is partitioned */
+  public List<int[]> getKeys() {
+    return Collections.unmodifiableList(keys);
+  }
+
+  /** Placeholders for the shards of every input, used by the shard plan */
+  public List<PlaceholderNode> getShards() {
+    return Collections.unmodifiableList(shards);
+  }
+
+  @Override
+  public int getArity() {
+    return shardPlan.getArity();
+  }
+
+  @Override
+  public String operatorString() {
+    return "exchange_{" + keys.stream().map(Arrays::toString).collect(Collectors.joining(", ")) + "}";
+  }
+
+  @Override
+  public List<PlanNode> children() {
+    List<PlanNode> result = new ArrayList<>(inputs);
+    result.add(shardPlan);
+    return result;
+  }
+
+  @Override
+  public List<PlaceholderNode> placeholders() {
+    return Collections.unmodifiableList(shards);
+  }
+
+  @Override
+  public PlanNode transform(TransformFn fn, List<PlanNode> originalPath) {
+    try {
+      Tools.addLast(originalPath, this);
+      List<PlanNode> newInputs = inputs.stream().map(i -> i.transform(fn, originalPath)).collect(Collectors.toList());
+      PlanNode newShardPlan = shardPlan.transform(fn, originalPath);
+      PlanNode newNode = newInputs.equals(inputs) && newShardPlan.equals(shardPlan) ? this : new ExchangeNode(newShardPlan, newInputs, keys, shards);
+      return fn.apply(this, newNode, originalPath);
+    } finally {
+      Tools.removeLast(originalPath);
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return equals(obj, Collections.emptyMap());
+  }
+
+  @Override
+  public boolean equals(Object obj, Map<PlanNode, PlanNode> assumedEqualities) {
+    if (this == obj) return true;
+    if (!(obj.getClass() == getClass())) {
+      return false;
+    }
+    ExchangeNode node = (ExchangeNode) obj;
+    if (inputs.size() != node.inputs.size()) return false;
+    for (int i = 0; i < inputs.size(); i++) {
+      if (!Arrays.equals(keys.get(i), node.keys.get(i)) || !inputs.get(i).equals(node.inputs.get(i), assumedEqualities)) {
+        return false;
+      }
+      assumedEqualities = Tools.with(assumedEqualities, shards.get(i), node.shards.get(i));
+    }
+    return shardPlan.equals(node.shardPlan, assumedEqualities);
+  }
+
+  @Override
+  public int hashCode() {
+    // the hash code of the shard plan depends on the identity of the placeholders
+    return Objects.hash(inputs, shardPlan.getArity()) ^ keys.stream().mapToInt(Arrays::hashCode).sum();
+  }
+
+  @Override
+  public String toString() {
+    return toPrettyString();
+  }
+
+}
@@ -132,7 +132,9 @@ public class RecursionNode implements PlanNode {
 
   @Override
   public int hashCode() {
-    return exitPlan.hashCode() ^ 137 * recursivePlan.hashCode();
+    // the hash code of the recursive plan depends on the identity of the delta and full nodes,
+    // but equal recursions (e.g., built separately for several queries) might use different ones
+    return exitPlan.hashCode() ^ 137 * getArity();
   }
 
   @Override
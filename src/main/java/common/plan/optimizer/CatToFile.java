@@ -11,21 +11,9 @@ public class CatToFile implements Optimizer {
   public PlanNode apply(PlanNode t) {
     return t.transform(pn -> {
       if (pn instanceof BashNode) {
-        String cmd = ((BashNode) pn).getCommand();
-        // TODO: support multiple file names
-        if (cmd.trim().startsWith("cat ")) {
-          ParserReader pr = new ParserReader(cmd);
-          pr.expect("cat ");
-          pr.skipWhitespace();
-          String file;
-          if (pr.peek() == '\"' || pr.peek() == '\'') file = pr.readString();
-          else file = pr.readWhile((c, s) -> !Character.isWhitespace(c));
-          pr.skipWhitespace();
-          if (pr.peek() == '\0') {
-            if (!file.startsWith("!")) {
-              return new TSVFileNode(file, pn.getArity());
-            }
-          }
+        String file = catFile(((BashNode) pn).getCommand());
+        if (file != null) {
+          return new TSVFileNode(file, pn.getArity());
         }
       }
 
@@ -33,4 +21,24 @@ public class CatToFile implements Optimizer {
     });
   }
 
+  /** File name of a command like "cat file", null if the command does something else */
+  public static String catFile(String cmd) {
+    // TODO: support multiple file names
+    if (cmd.trim().startsWith("cat ")) {
+      ParserReader pr = new ParserReader(cmd);
+      pr.expect("cat ");
+      pr.skipWhitespace();
+      String file;
+      if (pr.peek() == '\"' || pr.peek() == '\'') file = pr.readString();
+      else file = pr.readWhile((c, s) -> !Character.isWhitespace(c));
+      pr.skipWhitespace();
+      if (pr.peek() == '\0') {
+        if (!file.startsWith("!")) {
+          return file;
+        }
+      }
+    }
+    return null;
+  }
+
 }
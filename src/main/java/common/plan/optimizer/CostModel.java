@@ -0,0 +1,126 @@
+package common.plan.optimizer;
+
+import java.util.*;
+
+import common.plan.node.*;
+import common.plan.optimizer.Statistics.Stats;
+
+/**
+ * Estimates the cardinality (rows and distinct values per column) of plans, based on the statistics of their leaves.
+ * Uses the textbook assumptions: values are uniformly distributed, columns are independent,
+ * and the values of the join column of the smaller domain are contained in the other one.
+ */
+public class CostModel {
+
+  /** Assumed growth of a recursion relative to its exit plan */
+  public static final double RECURSION_FACTOR = 10;
+
+  private final Statistics catalog;
+
+  private final Map<PlaceholderNode, PlanNode> placeholderToParent;
+
+  private final Map<PlanNode, Optional<Stats>> cache = new HashMap<>();
+
+  public CostModel(Statistics catalog, PlanNode plan) {
+    this.catalog = catalog;
+    this.placeholderToParent = PlaceholderNode.placeholderToParentMap(plan);
+  }
+
+  /** Estimate of the output of a plan, null if no estimate is possible */
+  public Stats estimate(PlanNode p) {
+    Optional<Stats> result = cache.get(p);
+    if (result == null) {
+      // prevent endless loops through recursions
+      cache.put(p, Optional.empty());
+      result = Optional.ofNullable(compute(p));
+      cache.put(p, result);
+    }
+    return result.orElse(null);
+  }
+
+  private Stats compute(PlanNode p) {
+    Stats leaf = catalog.get(p);
+    if (leaf != null) return leaf;
+
+    if (p instanceof ConstantEqualityFilterNode) {
+      ConstantEqualityFilterNode f = (ConstantEqualityFilterNode) p;
+      Stats s = estimate(f.getTable());
+      if (s == null) return null;
+      double rows = s.rows / Math.max(1, s.distinct[f.getField()]);
+      double[] distinct = capped(s.distinct, rows);
+      distinct[f.getField()] = Math.min(1, rows);
+      return new Stats(rows, -1, distinct);
+    } else if (p instanceof VariableEqualityFilterNode) {
+      VariableEqualityFilterNode f = (VariableEqualityFilterNode) p;
+      Stats s = estimate(f.getTable());
+      if (s == null) return null;
+      double rows = s.rows / Math.max(1, Math.max(s.distinct[f.getField1()], s.distinct[f.getField2()]));
+      double[] distinct = capped(s.distinct, rows);
+      distinct[f.getField1()] = distinct[f.getField2()] = Math.min(distinct[f.getField1()], distinct[f.getField2()]);
+      return new Stats(rows, -1, distinct);
+    } else if (p instanceof ProjectNode) {
+      ProjectNode prj = (ProjectNode) p;
+      Stats s = estimate(prj.getTable());
+      if (s == null) return null;
+      int[] projection = prj.getProjection();
+      double[] distinct = new double[projection.length];
+      for (int i = 0; i < projection.length; i++) {
+        distinct[i] = projection[i] >= 0 ? s.distinct[projection[i]] : 1;
+      }
+      return new Stats(s.rows, -1, distinct);
+    } else if (p instanceof UnionNode) {
+      double rows = 0;
+      double[] distinct = new double[p.getArity()];
+      for (PlanNode c : p.children()) {
+        Stats s = estimate(c);
+        if (s == null) return null;
+        rows += s.rows;
+        for (int i = 0; i < distinct.length; i++) {
+          distinct[i] += s.distinct[i];
+        }
+      }
+      return new Stats(rows, -1, capped(distinct, rows));
+    } else if (p instanceof JoinNode) {
+      JoinNode j = (JoinNode) p;
+      Stats l = estimate(j.getLeft()), r = estimate(j.getRight());
+      if (l == null || r == null) return null;
+      return join(l, r, j.getLeftProjection(), j.getRightProjection());
+    } else if (p instanceof AntiJoinNode) {
+      return estimate(((AntiJoinNode) p).getLeft());
+    } else if (p instanceof RecursionNode) {
+      Stats s = estimate(((RecursionNode) p).getExitPlan());
+      if (s == null) return null;
+      double rows = s.rows * RECURSION_FACTOR;
+      return new Stats(rows, -1, Arrays.stream(s.distinct).map(d -> Math.min(rows, d * RECURSION_FACTOR)).toArray());
+    } else if (p instanceof PlaceholderNode) {
+      // the delta and full relations start with the result of the exit plan
+      PlanNode parent = placeholderToParent.get(p);
+      if (parent instanceof RecursionNode) {
+        return estimate(((RecursionNode) parent).getExitPlan());
+      }
+    } else if (p instanceof MaterializationNode) {
+      return estimate(((MaterializationNode) p).getMainPlan());
+    }
+    return null;
+  }
+
+  /** Estimate the result of joining l and r on the given columns */
+  public static Stats join(Stats l, Stats r, int[] leftProjection, int[] rightProjection) {
+    double rows = l.rows * r.rows;
+    double[] distinct = new double[l.distinct.length + r.distinct.length];
+    System.arraycopy(l.distinct, 0, distinct, 0, l.distinct.length);
+    System.arraycopy(r.distinct, 0, distinct, l.distinct.length, r.distinct.length);
+    for (int i = 0; i < leftProjection.length; i++) {
+      double dl = l.distinct[leftProjection[i]], dr = r.distinct[rightProjection[i]];
+      rows /= Math.max(1, Math.max(dl, dr));
+      distinct[leftProjection[i]] = distinct[l.distinct.length + rightProjection[i]] = Math.min(dl, dr);
+    }
+    return new Stats(rows, -1, capped(distinct, rows));
+  }
+
+  /** A relation with n rows has at most n distinct values per column */
+  private static double[] capped(double[] distinct, double rows) {
+    return Arrays.stream(distinct).map(d -> Math.min(d, rows)).toArray();
+  }
+
+}
@@ -0,0 +1,131 @@
+package common.plan.optimizer;
+
+import java.util.*;
+
+import common.Tools;
+import common.plan.node.JoinNode;
+import common.plan.node.PlanNode;
+
+/**
+ * Remove self-joins on keys: if a tree of joins joins a relation with itself on the columns of a key, both occurrences
+ * refer to the same row, so the second occurrence can be replaced by the columns of the first one.
+ * Needs the joins to be pushed down (see {@link PushDownJoin}), and should run before the joins are reordered.
+ */
+public class EliminateSelfJoin implements Optimizer {
+
+  private final Keys keys;
+
+  public EliminateSelfJoin(Keys keys) {
+    this.keys = keys;
+  }
+
+  @Override
+  public PlanNode apply(PlanNode node) {
+    if (keys.isEmpty()) return node;
+    return node.transform((o, n, op) -> {
+      if (n instanceof JoinNode && n.getClass() == JoinNode.class && !(PlanNode.parent(op) instanceof JoinNode)) {
+        return eliminate((JoinNode) n);
+      }
+      return n;
+    }, new LinkedList<>());
+  }
+
+  /** Collect the leaves of a join tree, and the pairs of columns that are equal, using the output columns of the tree */
+  private void analyze(PlanNode n, List<PlanNode> leaves, List<int[]> conditions, int offset) {
+    if (n.getClass() == JoinNode.class) {
+      JoinNode j = (JoinNode) n;
+      analyze(j.getLeft(), leaves, conditions, offset);
+      int rightOffset = offset + j.getLeft().getArity();
+      analyze(j.getRight(), leaves, conditions, rightOffset);
+      for (int i = 0; i < j.getLeftProjection().length; i++) {
+        conditions.add(new int[] { offset + j.getLeftProjection()[i], rightOffset + j.getRightProjection()[i] });
+      }
+    } else {
+      leaves.add(n);
+    }
+  }
+
+  private static int find(int[] parent, int i) {
+    while (parent[i] != i) {
+      i = parent[i] = parent[parent[i]];
+    }
+    return i;
+  }
+
+  private static void union(int[] parent, int i, int j) {
+    parent[find(parent, i)] = find(parent, j);
+  }
+
+  private PlanNode eliminate(JoinNode join) {
+    List<PlanNode> leaves = new ArrayList<>();
+    List<int[]> conditions = new ArrayList<>();
+    analyze(join, leaves, conditions, 0);
+
+    // equivalence classes of the output columns
+    int[] cls = Tools.sequence(join.getArity());
+    conditions.forEach(c -> union(cls, c[0], c[1]));
+    int[] offsets = new int[leaves.size()];
+    for (int i = 1; i < leaves.size(); i++) {
+      offsets[i] = offsets[i - 1] + leaves.get(i - 1).getArity();
+    }
+
+    // find a kept leaf for every leaf, which is equal to it, and which it joins on a key
+    int[] keptLeaf = new int[leaves.size()];
+    boolean eliminated = false;
+    for (int j = 0; j < leaves.size(); j++) {
+      keptLeaf[j] = j;
+      List<int[]> leafKeys = keys.get(leaves.get(j));
+      for (int i = 0; i < j && keptLeaf[j] == j; i++) {
+        if (keptLeaf[i] != i || !leaves.get(i).equals(leaves.get(j))) continue;
+        int oi = offsets[i], oj = offsets[j];
+        if (leafKeys.stream().anyMatch(k -> Arrays.stream(k).allMatch(c -> find(cls, oi + c) == find(cls, oj + c)))) {
+          keptLeaf[j] = i;
+          eliminated = true;
+          for (int c = 0; c < leaves.get(j).getArity(); c++) {
+            union(cls, oi + c, oj + c);
+          }
+        }
+      }
+    }
+    if (!eliminated) return join;
+
+    // join the kept leaves from left to right; columns of eliminated leaves are taken from their kept leaf
+    int[] newColumn = new int[join.getArity()];
+    Arrays.fill(newColumn, -1);
+    PlanNode result = null;
+    for (int j = 0; j < leaves.size(); j++) {
+      if (keptLeaf[j] != j) continue;
+      PlanNode leaf = leaves.get(j);
+      int[] leftPrj = new int[leaf.getArity()], rightPrj = new int[leaf.getArity()];
+      int conds = 0;
+      for (int c = 0; c < leaf.getArity(); c++) {
+        int col = offsets[j] + c;
+        int other = -1;
+        for (int d = 0; d < col && other < 0; d++) {
+          if (find(cls, d) == find(cls, col) && (newColumn[d] >= 0 || d >= offsets[j])) other = d;
+        }
+        if (other >= offsets[j]) {
+          // equal to a previous column of the same leaf
+          leaf = leaf.equalityFilter(other - offsets[j], c);
+        } else if (other >= 0) {
+          leftPrj[conds] = newColumn[other];
+          rightPrj[conds++] = c;
+        }
+      }
+      int start = result == null ? 0 : result.getArity();
+      result = result == null ? leaf : result.join(leaf, Arrays.copyOf(leftPrj, conds), Arrays.copyOf(rightPrj, conds));
+      for (int c = 0; c < leaf.getArity(); c++) {
+        newColumn[offsets[j] + c] = start + c;
+      }
+    }
+
+    int[] projection = new int[join.getArity()];
+    for (int j = 0; j < leaves.size(); j++) {
+      for (int c = 0; c < leaves.get(j).getArity(); c++) {
+        projection[offsets[j] + c] = newColumn[offsets[keptLeaf[j]] + c];
+      }
+    }
+    return result.project(projection);
+  }
+
+}
@@ -0,0 +1,44 @@
+package common.plan.optimizer;
+
+import java.util.*;
+
+import common.plan.node.PlanNode;
+
+/**
+ * Catalog of the keys declared for relations (see {@link common.parser.Program#keys()}). A key is a set of columns such
+ * that no two rows of the relation agree on all of them; in particular, the relation has no duplicates.
+ * Keys are attached to the plan of their relation, so optimizers find them where this plan occurs unchanged, usually
+ * for input relations (files and commands). Keys are trusted, they are not checked.
+ */
+public class Keys {
+
+  private final Map<PlanNode, List<int[]>> keys = new HashMap<>();
+
+  /** Declare that no two rows of the plan agree on the columns */
+  public void add(PlanNode plan, int[] columns) {
+    List<int[]> planKeys = keys.computeIfAbsent(plan, k -> new ArrayList<>());
+    if (planKeys.stream().noneMatch(k -> Arrays.equals(k, columns))) {
+      planKeys.add(columns);
+    }
+  }
+
+  /** Use the keys of 'original' for 'plan', which is computed from it, e.g., the encoded version of a relation */
+  public void alias(PlanNode plan, PlanNode original) {
+    get(original).forEach(k -> add(plan, k));
+  }
+
+  /** Declared keys of a plan, empty if there are none */
+  public List<int[]> get(PlanNode plan) {
+    return keys.getOrDefault(plan, Collections.emptyList());
+  }
+
+  public boolean isEmpty() {
+    return keys.isEmpty();
+  }
+
+  /** Whether the columns contain a key */
+  public static boolean containsKey(List<int[]> keys, int[] columns) {
+    return keys.stream().anyMatch(k -> Arrays.stream(k).allMatch(c -> Arrays.stream(columns).anyMatch(d -> c == d)));
+  }
+
+}
@@ -210,7 +210,8 @@ public class Materialize implements Optimizer {
     }
 
     boolean reuse() {
-      return reuse && !(plan instanceof BuiltinNode || plan instanceof TSVFileNode || plan instanceof PlaceholderNode);
+      // facts are part of the script already
+      return reuse && !(plan instanceof BuiltinNode || plan instanceof TSVFileNode || plan instanceof PlaceholderNode || plan instanceof FactNode);
     }
 
     /** Get node with the deepest depth, and store depth in 2nd parameter */
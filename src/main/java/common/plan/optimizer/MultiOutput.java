@@ -35,14 +35,15 @@ public class MultiOutput implements Optimizer {
         // make placeholders for subplans
         nodesToInfo.computeIfAbsent(reuseAt, k -> new ArrayList<>()).add(i);
 
-        // group reuse nodes that appear within a the same unions
-        Map<Set<PlanNode>, Set<PlanNode>> parentsToPlans = new HashMap<>();
+        // group reuse nodes that appear within a the same unions; other parents (e.g., joins) need the plans separately
+        Map<Object, Set<PlanNode>> parentsToPlans = new HashMap<>();
         for (Entry<PlanNode, Set<PlanNode>> e : i.plansToParents.entrySet()) {
-          parentsToPlans.computeIfAbsent(e.getValue(), k -> new HashSet<>()).add(e.getKey());
+          Object group = e.getValue().stream().allMatch(parent -> parent instanceof UnionNode) ? e.getValue() : e.getKey();
+          parentsToPlans.computeIfAbsent(group, k -> new HashSet<>()).add(e.getKey());
         }
 
         // every such group gets one reuse node
-        for (Entry<Set<PlanNode>, Set<PlanNode>> e : parentsToPlans.entrySet()) {
+        for (Entry<Object, Set<PlanNode>> e : parentsToPlans.entrySet()) {
           int arity = e.getValue().iterator().next().getArity();
           PlanNode reuseNode = i.builder.getNextReuseNode(arity);
 
@@ -3,6 +3,7 @@ package common.plan.optimizer;
 import common.Tools;
 import common.plan.node.JoinNode;
 import common.plan.node.PlanNode;
+import common.plan.optimizer.Statistics.Stats;
 
 import java.util.*;
 
@@ -15,8 +16,23 @@ public class ReorderJoinLinear implements Optimizer {
 
   Random r = new Random();
 
+  /** Statistics of the input relations; if null, or if the cardinality of a leaf is unknown, the joins are ordered heuristically */
+  protected final Statistics statistics;
+
+  /** Cost model for the plan that is currently optimized */
+  protected CostModel costModel;
+
+  public ReorderJoinLinear() {
+    this(null);
+  }
+
+  public ReorderJoinLinear(Statistics statistics) {
+    this.statistics = statistics;
+  }
+
   @Override
   public PlanNode apply(PlanNode node) {
+    costModel = statistics == null ? null : new CostModel(statistics, node);
     return node.transform((o, n, op) -> {
       if (n instanceof JoinNode && !(PlanNode.parent(op) instanceof JoinNode)) {
         return reorder((JoinNode) n);
@@ -124,8 +140,11 @@ public class ReorderJoinLinear implements Optimizer {
 
   protected PlanNode reorderLinear(JoinNode n, JoinInfo info) {
     // reorder joins
-    int[] conditionCount = countJoinConditions(info);
-    int[] newLeafOrder = orderJoins(info, conditionCount);
+    int[] newLeafOrder = orderJoinsByCost(info);
+    if (newLeafOrder == null) {
+      int[] conditionCount = countJoinConditions(info);
+      newLeafOrder = orderJoins(info, conditionCount);
+    }
 
     boolean identity = true;
     for (int i = 0; i < newLeafOrder.length; i++) {
@@ -202,6 +221,73 @@ public class ReorderJoinLinear implements Optimizer {
     return newLeafOrder;
   }
 
+  /** Cardinality estimates of the leaves, null if some are unknown */
+  protected Stats[] estimateLeaves(JoinInfo info) {
+    if (costModel == null) return null;
+    Stats[] result = new Stats[info.leaves.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = costModel.estimate(info.leaves.get(i));
+      if (result[i] == null) return null;
+    }
+    return result;
+  }
+
+  /**
+   * Greedy join ordering: start with the smallest leaf, then repeatedly add the connected leaf that results in the smallest
+   * intermediate result (cross products only if nothing is connected).
+   * @return indices of the leaf nodes in which they appear after the reordering, null if no estimates are available
+   */
+  protected int[] orderJoinsByCost(JoinInfo info) {
+    Stats[] leafStats = estimateLeaves(info);
+    if (leafStats == null) return null;
+    int n = leafStats.length;
+    int[] newLeafOrder = new int[n];
+    boolean[] available = new boolean[n];
+    Arrays.fill(available, true);
+
+    // intermediate result, its columns are the columns of the joined leaves in the order of newLeafOrder
+    Stats current = null;
+    List<PlanNode> joined = new ArrayList<>();
+    for (int newLeafIdx = 0; newLeafIdx < n; newLeafIdx++) {
+      int best = -1;
+      boolean bestConnected = false;
+      Stats bestStats = null;
+      for (int i = 0; i < n; i++) {
+        if (!available[i]) continue;
+        int[][] prj = joinProjection(info, newLeafOrder, joined, i);
+        boolean connected = prj[0].length > 0;
+        Stats s = current == null ? leafStats[i] : CostModel.join(current, leafStats[i], prj[0], prj[1]);
+        if (best < 0 || (connected && !bestConnected) || (connected == bestConnected && s.rows < bestStats.rows)) {
+          best = i;
+          bestConnected = connected;
+          bestStats = s;
+        }
+      }
+      newLeafOrder[newLeafIdx] = best;
+      available[best] = false;
+      joined.add(info.leaves.get(best));
+      current = bestStats;
+    }
+    LOG.debug("estimated join result: " + current);
+    return newLeafOrder;
+  }
+
+  /** Join conditions between the already joined leaves (newLeafOrder[0..joined.size()-1]) and a leaf, as [left columns, right columns] */
+  private int[][] joinProjection(JoinInfo info, int[] newLeafOrder, List<PlanNode> joined, int leafIdx) {
+    List<int[]> conds = new ArrayList<>();
+    for (int k = 0; k < joined.size(); k++) {
+      int other = newLeafOrder[k];
+      for (int[] cond : info.joinConditions) {
+        if (cond[0] == other && cond[2] == leafIdx) {
+          conds.add(new int[] { leafIdxToJoinIdx(joined, k, cond[1]), cond[3] });
+        } else if (cond[2] == other && cond[0] == leafIdx) {
+          conds.add(new int[] { leafIdxToJoinIdx(joined, k, cond[3]), cond[1] });
+        }
+      }
+    }
+    return new int[][] { conds.stream().mapToInt(c -> c[0]).toArray(), conds.stream().mapToInt(c -> c[1]).toArray() };
+  }
+
   /**
    * Fill information in JoinInfo
    */
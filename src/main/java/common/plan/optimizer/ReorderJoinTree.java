@@ -10,13 +10,23 @@ import common.Tools;
 import common.plan.node.FactNode;
 import common.plan.node.JoinNode;
 import common.plan.node.PlanNode;
+import common.plan.optimizer.Statistics.Stats;
 
 public class ReorderJoinTree extends ReorderJoinLinear {
 
   private static final Logger LOG = LoggerFactory.getLogger(ReorderJoinLinear.class);
 
+  public ReorderJoinTree() {
+    super();
+  }
+
+  public ReorderJoinTree(Statistics statistics) {
+    super(statistics);
+  }
+
   @Override
   public PlanNode apply(PlanNode node) {
+    costModel = statistics == null ? null : new CostModel(statistics, node);
     return node.transform((o, n, op) -> {
       if (n instanceof JoinNode && !(PlanNode.parent(op) instanceof JoinNode)) {
         return reorder((JoinNode) n);
@@ -43,8 +53,14 @@ public class ReorderJoinTree extends ReorderJoinLinear {
     info.joinConditions.forEach(cond -> {
       edgesToConditions.computeIfAbsent(new AbstractMap.SimpleEntry<Integer, Integer>(cond[0], cond[2]), k -> new ArrayList<>()).add(cond);
     });
+    Comparator<Map.Entry<Map.Entry<Integer, Integer>, List<int[]>>> weight = (e1, e2) -> Integer.compare(e1.getValue().size(), e2.getValue().size());
+    Stats[] leafStats = estimateLeaves(info);
+    if (leafStats != null) {
+      // join the pairs with the smallest estimated result first
+      weight = Comparator.comparingDouble(e -> estimateEdge(leafStats, e.getKey(), e.getValue()));
+    }
     List<Map.Entry<Integer, Integer>> sortedEdges = edgesToConditions.entrySet().stream()
-        .sorted((e1, e2) -> Integer.compare(e1.getValue().size(), e2.getValue().size())).map(e -> e.getKey()).collect(Collectors.toList());
+        .sorted(weight).map(e -> e.getKey()).collect(Collectors.toList());
     
     // Kruskal's minimum spanning tree algorithm
     // adapted from https://github.com/SleekPanther/kruskals-algorithm-minimum-spanning-tree-mst/blob/master/Kruskal.java
@@ -157,6 +173,13 @@ public class ReorderJoinTree extends ReorderJoinLinear {
     return join.project(getFinalProjection(info, newLeaves, newLeavesOrder));
   }
 
+  /** Estimated number of rows when joining two leaves */
+  private double estimateEdge(Stats[] leafStats, Map.Entry<Integer, Integer> edge, List<int[]> conditions) {
+    int[] prjLeft = conditions.stream().mapToInt(c -> c[1]).toArray();
+    int[] prjRight = conditions.stream().mapToInt(c -> c[3]).toArray();
+    return CostModel.join(leafStats[edge.getKey()], leafStats[edge.getValue()], prjLeft, prjRight).rows;
+  }
+
   /** Translate a leaf index and leaf column to an output column */
   private int leafIdxToJoinIdx(List<PlanNode> newLeaves, int[] leafIndices, int dstLeafIdx, int j) {
     for (int k = 0; k < leafIndices.length; k++) {
@@ -0,0 +1,270 @@
+package common.plan.optimizer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import bashlog.plan.TSVFileNode;
+import common.Tools;
+import common.plan.node.BashNode;
+import common.plan.node.FactNode;
+import common.plan.node.PlanNode;
+
+/**
+ * Catalog of statistics (row count, size in bytes, number of distinct values per column) of the input relations.
+ * Statistics of files are collected at compile time, and cached in a directory (one file per input file, named by the
+ * hash of its path), so the directories of the inputs stay untouched. The cached statistics of a file are only reused
+ * if its size and modification time did not change.
+ * Large files are sampled, so their row count and the distinct values are estimates.
+ */
+public class Statistics {
+
+  private static final Logger LOG = LoggerFactory.getLogger(Statistics.class);
+
+  public static final String CACHE_SUFFIX = ".stats";
+
+  /** Default directory of the cached statistics */
+  public static final String DEFAULT_DIRECTORY = new File(System.getProperty("java.io.tmpdir"), "bashlog-statistics").getPath();
+
+  /** Files up to this size are read completely */
+  public static final long EXACT_MAX_BYTES = 4 << 20;
+
+  /** Number of lines that are read at random positions of larger files */
+  public static final int SAMPLE_LINES = 20_000;
+
+  /** Bytes that are read at once when sampling */
+  private static final int SAMPLE_BLOCK = 4096;
+
+  /** Statistics of a relation. Also used for estimates of intermediate results. */
+  public static class Stats {
+
+    public final double rows;
+
+    /** Size in bytes, negative if unknown */
+    public final long bytes;
+
+    /** Number of distinct values per column */
+    public final double[] distinct;
+
+    public Stats(double rows, long bytes, double[] distinct) {
+      this.rows = rows;
+      this.bytes = bytes;
+      this.distinct = distinct;
+    }
+
+    @Override
+    public String toString() {
+      return "rows " + (long) rows + ", bytes " + bytes + ", distinct " + Arrays.toString(distinct);
+    }
+  }
+
+  /** Cache of the statistics of files, null if not available */
+  private final Map<String, Optional<Stats>> files = new HashMap<>();
+
+  /** Files that are read instead of other files, e.g., the encoded version of a relation */
+  private final Map<String, PlanNode> aliases = new HashMap<>();
+
+  /** Directory of the cached statistics, null if they are not cached */
+  private final File directory;
+
+  public Statistics() {
+    this(DEFAULT_DIRECTORY);
+  }
+
+  /** @param directory where the collected statistics are cached, null to not cache them */
+  public Statistics(String directory) {
+    this.directory = directory == null ? null : new File(directory);
+  }
+
+  /** Use the statistics of 'original' for file 'path', which is created at runtime from it */
+  public void alias(String path, PlanNode original) {
+    aliases.put(path, original);
+  }
+
+  /** Statistics of a facts, files, or "cat file" commands; null if not available */
+  public Stats get(PlanNode node) {
+    if (node instanceof FactNode) {
+      return of((FactNode) node);
+    }
+    String path = null;
+    if (node instanceof TSVFileNode) {
+      path = ((TSVFileNode) node).getPath();
+    } else if (node instanceof BashNode && node.children().isEmpty()) {
+      path = CatToFile.catFile(((BashNode) node).getCommand());
+    }
+    if (path == null) return null;
+    if (aliases.containsKey(path)) return get(aliases.get(path));
+    return get(path, node.getArity());
+  }
+
+  /** Statistics of a file; null if it is not readable */
+  public Stats get(String path, int arity) {
+    return files.computeIfAbsent(path, k -> Optional.ofNullable(load(new File(path), arity))).orElse(null);
+  }
+
+  /** Exact statistics of facts */
+  public static Stats of(FactNode node) {
+    List<Set<String>> values = new ArrayList<>();
+    for (int i = 0; i < node.getArity(); i++) {
+      values.add(new HashSet<>());
+    }
+    long bytes = 0;
+    for (Comparable<?>[] fact : node.getFacts()) {
+      for (int i = 0; i < fact.length && i < values.size(); i++) {
+        String str = fact[i].toString();
+        values.get(i).add(str);
+        bytes += str.length() + 1;
+      }
+    }
+    double[] distinct = values.stream().mapToDouble(Set::size).toArray();
+    return new Stats(node.getFacts().size(), bytes, distinct);
+  }
+
+  private Stats load(File file, int arity) {
+    if (!file.isFile() || !file.canRead()) return null;
+    File cached = directory == null ? null : new File(directory, Tools.md5(file.getAbsolutePath()) + CACHE_SUFFIX);
+    Stats stats = cached == null ? null : readCached(file, cached, arity);
+    if (stats != null) return stats;
+
+    try {
+      stats = file.length() <= EXACT_MAX_BYTES ? collect(file, arity) : sample(file, arity);
+    } catch (IOException e) {
+      LOG.warn("could not collect statistics of " + file + ": " + e.getMessage());
+      return null;
+    }
+    LOG.debug("statistics of " + file + ": " + stats);
+    if (cached != null) {
+      writeCached(file, cached, stats);
+    }
+    return stats;
+  }
+
+  /** Read all lines of a file */
+  private Stats collect(File file, int arity) throws IOException {
+    Counter counter = new Counter(arity);
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.ISO_8859_1))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        counter.add(line);
+      }
+    }
+    double[] distinct = counter.values.stream().mapToDouble(Map::size).toArray();
+    return new Stats(counter.rows, file.length(), distinct);
+  }
+
+  /** Read lines at random positions, and extrapolate row count and distinct values */
+  private Stats sample(File file, int arity) throws IOException {
+    Counter counter = new Counter(arity);
+    long sampledBytes = 0;
+    Random random = new Random(file.getPath().hashCode());
+    ByteBuffer block = ByteBuffer.allocate(SAMPLE_BLOCK);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long length = channel.size();
+      for (int i = 0; i < SAMPLE_LINES; i++) {
+        String line = lineAfter(channel, (long) (random.nextDouble() * length), block);
+        if (line == null) continue;
+        counter.add(line);
+        sampledBytes += line.length() + 1;
+      }
+    }
+    if (counter.rows == 0) return collect(file, arity);
+
+    double rows = file.length() / ((double) sampledBytes / counter.rows);
+    double[] distinct = counter.values.stream().mapToDouble(m -> estimateDistinct(m, counter.rows, rows)).toArray();
+    return new Stats(rows, file.length(), distinct);
+  }
+
+  /**
+   * The line after the one at the position (the first line for position 0), or null at the end of the file.
+   * The file is read in blocks, instead of byte by byte like RandomAccessFile.readLine.
+   */
+  private static String lineAfter(FileChannel channel, long position, ByteBuffer block) throws IOException {
+    // null while skipping the rest of the line at the position
+    ByteArrayOutputStream line = position == 0 ? new ByteArrayOutputStream() : null;
+    for (int n;; position += n) {
+      block.clear();
+      if ((n = channel.read(block, position)) <= 0) break;
+      byte[] bytes = block.array();
+      int start = 0;
+      for (int i = 0; i < n; i++) {
+        if (bytes[i] != '\n') continue;
+        if (line != null) {
+          line.write(bytes, start, i - start);
+          return line.toString("ISO-8859-1");
+        }
+        line = new ByteArrayOutputStream();
+        start = i + 1;
+      }
+      if (line != null) line.write(bytes, start, n - start);
+    }
+    return line == null || line.size() == 0 ? null : line.toString("ISO-8859-1");
+  }
+
+  /**
+   * Guaranteed-error estimator (Charikar et al., "Towards estimation error guarantees for distinct values"):
+   * values that occur once in the sample are scaled with sqrt(rows/sampled), values that occur several times are counted once.
+   */
+  static double estimateDistinct(Map<String, Integer> frequencies, long sampled, double rows) {
+    long once = frequencies.values().stream().filter(f -> f == 1).count();
+    double estimate = Math.sqrt(rows / sampled) * once + (frequencies.size() - once);
+    return Math.max(1, Math.min(rows, estimate));
+  }
+
+  private Stats readCached(File file, File cached, int arity) {
+    if (!cached.isFile()) return null;
+    try (BufferedReader reader = new BufferedReader(new FileReader(cached))) {
+      String[] parts = reader.readLine().split("\t");
+      long mtime = Long.parseLong(parts[0]), bytes = Long.parseLong(parts[1]);
+      if (mtime != file.lastModified() || bytes != file.length()) return null;
+      double[] distinct = Arrays.stream(parts[3].split(",")).mapToDouble(Double::parseDouble).toArray();
+      if (distinct.length != arity) return null;
+      return new Stats(Double.parseDouble(parts[2]), bytes, distinct);
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("ignoring statistics file " + cached + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  private void writeCached(File file, File cached, Stats stats) {
+    String distinct = Arrays.stream(stats.distinct).mapToObj(d -> Long.toString((long) d)).collect(Collectors.joining(","));
+    directory.mkdirs();
+    try (Writer writer = new FileWriter(cached)) {
+      writer.write(file.lastModified() + "\t" + stats.bytes + "\t" + (long) stats.rows + "\t" + distinct + "\n");
+    } catch (IOException e) {
+      LOG.debug("could not write statistics file " + cached + ": " + e.getMessage());
+    }
+  }
+
+  /** Counts rows and the frequencies of the values per column */
+  private static class Counter {
+
+    long rows = 0;
+
+    final List<Map<String, Integer>> values = new ArrayList<>();
+
+    Counter(int arity) {
+      for (int i = 0; i < arity; i++) {
+        values.add(new HashMap<>());
+      }
+    }
+
+    void add(String line) {
+      rows++;
+      int start = 0;
+      for (int i = 0; i < values.size(); i++) {
+        int end = line.indexOf('\t', start);
+        if (end < 0) end = line.length();
+        values.get(i).merge(start <= line.length() ? line.substring(start, end) : "", 1, Integer::sum);
+        start = end + 1;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,56 @@
+package bashlog;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import common.Evaluator;
+import common.FactsSet;
+import common.SimpleFactsSet;
+import common.Tools;
+import common.parser.ParserReader;
+import common.parser.Program;
+
+public class BashlogAdaptiveJoinIntegrationTests extends common.IntegrationTests {
+
+  public BashlogAdaptiveJoinIntegrationTests() {
+    super(new BashlogEvaluator("/tmp/bashlog-tests-adaptive/", false, bc -> bc.enableAdaptiveJoin(1)));
+  }
+
+  @Test
+  public void testLargeInputs() throws Exception {
+    // both inputs have more than 1 MB, so they are sorted
+    Evaluator eval = new BashlogEvaluator("/tmp/bashlog-tests-adaptive/", false, bc -> bc.enableAdaptiveJoin(1));
+    Program program = Program.read(new ParserReader("path(X,Z) :- edge(X,Y), edge(Y,Z). dead(X) :- edge(X,Y), not edge(Y,X)."));
+    SimpleFactsSet facts = new SimpleFactsSet();
+    IntStream.range(0, 100_000).forEach(i -> facts.add("edge/2", "node" + i, "node" + (i + 1)));
+
+    FactsSet result = eval.evaluate(program, facts, Tools.set("path/2", "dead/1"));
+    Assert.assertEquals(99_999, result.getByRelation("path/2").count());
+    Assert.assertEquals(100_000, result.getByRelation("dead/1").count());
+    Assert.assertEquals(Arrays.asList("node0", "node2"),
+        result.getByRelation("path/2").filter(row -> row[0].equals("node0")).flatMap(Arrays::stream).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testStreamedInputs() throws Exception {
+    // the inputs are commands, so only their first MB is written to a probe file; big has about 2.6 MB
+    String inputs = "big(X,Y) :~ seq 1 200000 | awk '{ print $1 \"\\t\" $1 + 1 }'\n" //
+        + "small(X,Y) :~ seq 1 10 | awk '{ print $1 + 1 \"\\t\" $1 }'\n" //
+        + "large(X,Y) :~ seq 1 100000 | awk '{ print $1 + 1 \"\\t\" $1 }'\n";
+    for (String rel : Arrays.asList("small", "large")) {
+      BashlogCompiler bc = BashlogCompiler.prepareQuery(Program.read(new ParserReader(inputs + "q(X,Z) :- " + rel + "(Z,X), big(X,Z).")), "q/2");
+      bc.enableAdaptiveJoin(1);
+      String script = bc.compile();
+      Assert.assertTrue(script, script.contains("head -c 1048577 "));
+      Assert.assertTrue(script, script.contains("; do wait $p || exit 1; done; "));
+      List<String> result = ScriptTools.run(script);
+      Assert.assertEquals(rel.equals("small") ? 10 : 100_000, result.size());
+      Assert.assertTrue(result.contains("10\t11"));
+    }
+  }
+}
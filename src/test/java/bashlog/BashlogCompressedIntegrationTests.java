@@ -0,0 +1,47 @@
+package bashlog;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import common.parser.ParserReader;
+import common.parser.Program;
+
+public class BashlogCompressedIntegrationTests extends common.IntegrationTests {
+
+  private static final String DIR = "/tmp/bashlog-tests-compressed/";
+
+  public BashlogCompressedIntegrationTests() {
+    super(new BashlogEvaluator(DIR, false, bc -> bc.enableCompression()));
+  }
+
+  @Test
+  public void testWithoutCompressionProgram() throws Exception {
+    // a PATH with all programs except the compression programs
+    Path bin = Paths.get(DIR, "bin");
+    bin.toFile().mkdirs();
+    for (String dir : Arrays.asList("/bin", "/usr/bin")) {
+      for (File f : new File(dir).listFiles()) {
+        Path link = bin.resolve(f.getName());
+        if (!Arrays.asList("lz4", "zstd", "gzip").contains(f.getName()) && !Files.exists(link, LinkOption.NOFOLLOW_LINKS)) {
+          Files.createSymbolicLink(link, f.toPath());
+        }
+      }
+    }
+    Path edges = Paths.get(DIR, "plain_edge");
+    Files.write(edges, "a\tb\nb\tc\nc\td\n".getBytes(StandardCharsets.UTF_8));
+
+    Program p = Program.read(new ParserReader("edge(X,Y) :~ cat " + edges + "\n"
+        + "tc(X,Y) :- edge(X,Y). tc(X,Z) :- tc(X,Y), edge(Y,Z). q(X,Y) :- tc(X,Y), tc(Y,Z)."));
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(p, "q/2");
+    bc.enableCompression();
+    Assert.assertEquals(Arrays.asList("a\tb", "a\tc", "b\tc"), ScriptTools.run("PATH=" + bin + "\n" + bc.compile()));
+  }
+}
@@ -0,0 +1,78 @@
+package bashlog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import common.parser.ParserReader;
+import common.parser.Program;
+
+public class BashlogDictionaryIntegrationTests extends common.IntegrationTests {
+
+  private static final String DIR = "/tmp/bashlog-tests-dict/";
+
+  public BashlogDictionaryIntegrationTests() throws IOException {
+    super(evaluator(newDictionary().toString()));
+  }
+
+  /** Every test gets its own dictionary */
+  private static BashlogEvaluator evaluator(String dictionary) {
+    return new BashlogEvaluator(DIR, false, bc -> bc.enableDictionary(dictionary));
+  }
+
+  /** A dictionary file of its own, which doesn't exist yet */
+  private static Path newDictionary() throws IOException {
+    new File(DIR).mkdirs();
+    return Files.createTempDirectory(Paths.get(DIR), "dictionary").resolve("dictionary.tsv");
+  }
+
+  /** Value to id */
+  private static Map<String, Integer> read(Path dictionary) throws IOException {
+    Map<String, Integer> result = new HashMap<>();
+    for (String line : Files.readAllLines(dictionary, StandardCharsets.UTF_8)) {
+      String[] parts = line.split("\t");
+      Assert.assertNull(line, result.put(parts[1], Integer.parseInt(parts[0])));
+    }
+    return result;
+  }
+
+  private static List<String> run(Path edges, String rules, Path dictionary) throws Exception {
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(Program.read(new ParserReader("edge(X,Y) :~ cat " + edges + "\n" + rules)), "q/1");
+    bc.enableDictionary(dictionary.toString());
+    String script = bc.compile();
+    Assert.assertTrue(script, script.contains("# dictionary encoding"));
+    List<String> result = ScriptTools.run(script);
+    // the result is sorted by id
+    Collections.sort(result);
+    return result;
+  }
+
+  @Test
+  public void testGrowingDictionary() throws Exception {
+    Path dictionary = newDictionary();
+    Path edges = Paths.get(DIR, "growing_edge");
+    Files.write(edges, "a\tb\nb\tc\nd\tc\n".getBytes(StandardCharsets.UTF_8));
+
+    // the constants "c" and "a" are encoded at compile time, and the filter still matches the encoded values
+    Assert.assertEquals(Arrays.asList("a", "b", "d"), run(edges, "q(X) :- edge(X,\"c\"). q(X) :- start(X). start(\"a\").", dictionary));
+    Map<String, Integer> ids = read(dictionary);
+    Assert.assertEquals(new HashSet<>(Arrays.asList("a", "b", "c", "d")), ids.keySet());
+    Assert.assertEquals(new HashSet<>(Arrays.asList(0, 1, 2, 3)), new HashSet<>(ids.values()));
+
+    // the second run keeps the ids of known values, and adds new values of the input and of the rules
+    Files.write(edges, "a\tb\nb\tc\nd\tc\ne\tf\nf\tc\n".getBytes(StandardCharsets.UTF_8));
+    Assert.assertEquals(Arrays.asList("a", "b", "d", "e", "f", "g"),
+        run(edges, "q(X) :- edge(X,\"c\"). q(X) :- edge(X,\"f\"). q(X) :- start(X). start(\"a\"). start(\"g\").", dictionary));
+    Map<String, Integer> grown = read(dictionary);
+    ids.forEach((value, id) -> Assert.assertEquals(value, id, grown.get(value)));
+    Assert.assertEquals(new HashSet<>(Arrays.asList("a", "b", "c", "d", "e", "f", "g")), grown.keySet());
+    Assert.assertEquals(new HashSet<>(Arrays.asList(0, 1, 2, 3, 4, 5, 6)), new HashSet<>(grown.values()));
+  }
+}
@@ -0,0 +1,77 @@
+package bashlog;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import common.parser.ParserReader;
+import common.parser.Program;
+
+public class BashlogExchangeIntegrationTests extends common.IntegrationTests {
+
+  private static final String DIR = "/tmp/bashlog-tests-exchange/";
+
+  public BashlogExchangeIntegrationTests() {
+    super(new BashlogEvaluator(DIR, false, bc -> bc.enableExchange(3, 0)));
+  }
+
+  @Test
+  public void testShards() throws Exception {
+    new File(DIR).mkdirs();
+    Path a = Paths.get(DIR, "shards_a"), b = Paths.get(DIR, "shards_b"), skip = Paths.get(DIR, "shards_skip");
+    // 30 distinct keys, so that every shard gets several keys (9 to 12) that have to meet there
+    StringBuilder as = new StringBuilder(), bs = new StringBuilder();
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 30; i++) {
+      as.append("x").append(i).append("\tk").append(i).append("\n");
+      bs.append("k").append(i).append("\ty").append(i).append("\n");
+      if (i % 5 != 0) {
+        expected.add("x" + i + "\ty" + i);
+      }
+    }
+    bs.append("k100\ty100\n");
+    Files.write(a, as.toString().getBytes(StandardCharsets.UTF_8));
+    Files.write(b, bs.toString().getBytes(StandardCharsets.UTF_8));
+    Files.write(skip, "k0\nk5\nk10\nk15\nk20\nk25\n".getBytes(StandardCharsets.UTF_8));
+    Collections.sort(expected);
+
+    Program p = Program.read(new ParserReader("a(X,Y) :~ cat " + a + "\n" + "b(X,Y) :~ cat " + b + "\n"
+        + "skip(X) :~ cat " + skip + "\n" + "q(X,Z) :- a(X,Y), b(Y,Z), not skip(Y)."));
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(p, "q/2");
+    bc.enableStatistics(null);
+    bc.enableExchange(3, 0);
+    String script = bc.compile();
+    // the inputs of the join and the anti-join are split into shards by their keys, and the shards are joined in background jobs
+    Assert.assertTrue(script, script.contains("exchange_partitions=3\n"));
+    Assert.assertEquals(script, 4, script.split("-v n=\\$exchange_partitions .", -1).length - 1);
+    Assert.assertTrue(script, script.contains("in $(seq 0 $((exchange_partitions - 1))); do "));
+    // a failed job fails the exchange
+    Assert.assertTrue(script, script.contains("; do wait $p || exit 1; done; "));
+    Assert.assertEquals(expected, ScriptTools.run(script));
+  }
+
+  @Test
+  public void testUnknownSize() throws Exception {
+    // without statistics, the sizes of the input files are unknown, so they are not worth splitting
+    Program p = Program.read(new ParserReader("a(X,Y) :~ cat /dev/null\n" + "b(X,Y) :~ cat /dev/null\n" + "q(X,Z) :- a(X,Y), b(Y,Z)."));
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(p, "q/2");
+    bc.enableExchange(3, 0);
+    String script = bc.compile();
+    Assert.assertFalse(script, script.contains("exchange_partitions"));
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    Program p = Program.read(new ParserReader("a(X,Y) :~ cat /dev/null\n" + "b(X,Y) :~ cat /dev/null\n" + "q(X,Z) :- a(X,Y), b(Y,Z)."));
+    String script = BashlogCompiler.prepareQuery(p, "q/2").compile();
+    Assert.assertFalse(script, script.contains("exchange_partitions"));
+  }
+}
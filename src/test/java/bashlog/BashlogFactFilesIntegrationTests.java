@@ -0,0 +1,66 @@
+package bashlog;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import common.parser.ParserReader;
+import common.parser.Program;
+
+public class BashlogFactFilesIntegrationTests extends common.IntegrationTests {
+
+  private static final String DIR = "/tmp/bashlog-tests-facts/";
+
+  public BashlogFactFilesIntegrationTests() {
+    super(new BashlogEvaluator(DIR, false, bc -> bc.enableFactFiles(DIR + "facts", 1)));
+  }
+
+  private static void clear(Path dir) {
+    for (File f : Optional.ofNullable(dir.toFile().listFiles()).orElse(new File[0])) {
+      f.delete();
+    }
+  }
+
+  @Test
+  public void testSortedFile() throws Exception {
+    // a relative directory is resolved when compiling, so that the script runs anywhere
+    Path dir = Paths.get("target", "bashlog-tests-facts").toAbsolutePath();
+    clear(dir);
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(Program.read(new ParserReader("f(\"b\",\"2\"). f(\"a\",\"1\"). f(\"a\",\"1\"). q(X,Y) :- f(X,Y).")),
+        "q/2");
+    bc.enableFactFiles("target/bashlog-tests-facts", 1);
+    String script = bc.compile();
+
+    // the file is sorted and has no duplicates, so the query just outputs it
+    String[] lines = script.trim().split("\n");
+    Assert.assertEquals("cat " + dir.resolve(dir.toFile().list()[0]), lines[lines.length - 1]);
+    Assert.assertFalse(script, script.contains("$sort -t"));
+    Assert.assertEquals(Arrays.asList("a\t1", "b\t2"), ScriptTools.run(script));
+  }
+
+  @Test
+  public void testSharedFile() throws Exception {
+    Path dir = Paths.get(DIR, "shared");
+    clear(dir);
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(Program.read(new ParserReader("f(\"b\"). f(\"a\"). q(X) :- f(X).")), "q/1");
+    bc.enableFactFiles(dir.toString(), 1);
+    String script = bc.compile();
+    Assert.assertEquals(1, dir.toFile().list().length);
+    Path file = dir.resolve(dir.toFile().list()[0]);
+    long modified = Files.getLastModifiedTime(file).toMillis();
+    file.toFile().setLastModified(modified - 10_000);
+
+    // other facts with the same content (in another order) use the same file, which is not written again
+    bc = BashlogCompiler.prepareQuery(Program.read(new ParserReader("g(\"a\"). g(\"b\"). g(\"a\"). r(X) :- g(X).")), "r/1");
+    bc.enableFactFiles(dir.toString(), 1);
+    Assert.assertTrue(bc.compile().contains(file.toString()));
+    Assert.assertTrue(script.contains(file.toString()));
+    Assert.assertEquals(1, dir.toFile().list().length);
+    Assert.assertEquals(modified - 10_000, Files.getLastModifiedTime(file).toMillis());
+  }
+}
@@ -0,0 +1,62 @@
+package bashlog;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import common.parser.ParserReader;
+import common.parser.Program;
+
+public class BashlogInMemoryRecursionIntegrationTests extends common.IntegrationTests {
+
+  private static final String DIR = "/tmp/bashlog-tests-in-memory/";
+
+  public BashlogInMemoryRecursionIntegrationTests() {
+    super(new BashlogEvaluator(DIR, false, bc -> bc.enableInMemoryRecursion(1_000_000)));
+  }
+
+  /** Transitive closure of a chain a -> b -> c -> d -> e */
+  private static BashlogCompiler closure(long maxRows) throws Exception {
+    new File(DIR).mkdirs();
+    Path edges = Paths.get(DIR, "closure_edge");
+    Files.write(edges, "a\tb\nb\tc\nc\td\nd\te\n".getBytes(StandardCharsets.UTF_8));
+    Program p = Program.read(new ParserReader("edge(X,Y) :~ cat " + edges + "\n" + "tc(X,Y) :- edge(X,Y). tc(X,Z) :- tc(X,Y), edge(Y,Z)."));
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(p, "tc/2");
+    bc.enableInMemoryRecursion(maxRows);
+    return bc;
+  }
+
+  private static final List<String> CLOSURE = Arrays.asList("a\tb", "a\tc", "a\td", "a\te", "b\tc", "b\td", "b\te", "c\td", "c\te", "d\te");
+
+  @Test
+  public void testInMemory() throws Exception {
+    String script = closure(1_000_000).compile();
+    // the fixpoint is computed by awk, the loop is only the fallback
+    Assert.assertTrue(script, script.contains("-v max=1000000 '"));
+    Assert.assertTrue(script, script.contains("function add(t, f"));
+    Assert.assertTrue(script, script.contains("while \n"));
+    Assert.assertEquals(CLOSURE, ScriptTools.run(script));
+  }
+
+  @Test
+  public void testFallback() throws Exception {
+    // the edges alone exceed the limit, so awk gives up, and the loop computes the closure
+    String script = closure(2).compile();
+    Assert.assertTrue(script, script.contains("-v max=2 '"));
+    Assert.assertEquals(CLOSURE, ScriptTools.run(script));
+  }
+
+  @Test
+  public void testFallbackWhileAdding() throws Exception {
+    // the edges and the exit relation fit (8 rows), but the closure does not (14 rows)
+    String script = closure(12).compile();
+    Assert.assertEquals(CLOSURE, ScriptTools.run(script));
+  }
+}
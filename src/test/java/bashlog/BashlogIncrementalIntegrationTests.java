@@ -0,0 +1,119 @@
+package bashlog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import common.parser.ParserReader;
+import common.parser.Program;
+
+public class BashlogIncrementalIntegrationTests extends common.IntegrationTests {
+
+  private static final String DIR = "/tmp/bashlog-tests-incremental/";
+
+  public BashlogIncrementalIntegrationTests() {
+    super(new BashlogEvaluator(DIR, false, bc -> bc.enableIncremental(DIR + "state")));
+  }
+
+  @Test
+  public void testAppendedRows() throws Exception {
+    new File(DIR).mkdirs();
+    Path edges = Paths.get(DIR, "appended_edge");
+    Path state = Paths.get(DIR, "appended_state");
+    Files.write(edges, "a\tb\nb\tc\n".getBytes(StandardCharsets.UTF_8));
+    for (File f : Optional.ofNullable(state.toFile().listFiles()).orElse(new File[0])) {
+      f.delete();
+    }
+
+    Program p = Program.read(new ParserReader("edge(X,Y) :~ cat " + edges + "\n" //
+        + "tc(X,Y) :- edge(X,Y). tc(X,Z) :- tc(X,Y), tc(Y,Z). " //
+        + "q(X,Z) :- tc(X,Y), edge(Y,Z), not stop(Z). stop(\"b\")."));
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(p, "q/2");
+    bc.enableIncremental(state.toString());
+    String script = bc.compile();
+    // the appended rows have names of their own, apart from the deltas of recursions
+    Assert.assertTrue(script, script.contains("$tmp/appended0"));
+
+    Assert.assertEquals(Arrays.asList("a\tc"), ScriptTools.run(script));
+    Assert.assertTrue(Files.exists(state.resolve("version")));
+
+    // the new edge extends the stored paths at both ends
+    Files.write(edges, "c\td\nd\ta\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    Assert.assertEquals(Arrays.asList("a\ta", "a\tc", "a\td", "b\ta", "b\tc", "b\td", "c\ta", "c\tc", "c\td", "d\ta", "d\tc", "d\td"), ScriptTools.run(script));
+
+    // a changed file is evaluated from scratch
+    Files.write(edges, "a\tb\nb\td\n".getBytes(StandardCharsets.UTF_8));
+    Assert.assertEquals(Arrays.asList("a\td"), ScriptTools.run(script));
+  }
+
+  @Test
+  public void testFailedRun() throws Exception {
+    new File(DIR).mkdirs();
+    Path edges = Paths.get(DIR, "failed_edge");
+    Path state = Paths.get(DIR, "failed_state");
+    Files.write(edges, "a\tb\nb\tc\n".getBytes(StandardCharsets.UTF_8));
+    for (File f : Optional.ofNullable(state.toFile().listFiles()).orElse(new File[0])) {
+      f.delete();
+    }
+
+    Program p = Program.read(new ParserReader("edge(X,Y) :~ cat " + edges + "\n" //
+        + "tc(X,Y) :- edge(X,Y). tc(X,Z) :- tc(X,Y), edge(Y,Z)."));
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(p, "tc/2");
+    bc.enableIncremental(state.toString());
+    String script = bc.compile();
+    Assert.assertEquals(Arrays.asList("a\tb", "a\tc", "b\tc"), ScriptTools.run(script));
+
+    // the run with the appended rows cannot read the stored recursion, so it fails, and keeps the old state
+    Files.write(edges, "c\td\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    Path stored = state.resolve("rec0"), saved = Paths.get(DIR, "failed_rec0");
+    Files.move(stored, saved, StandardCopyOption.REPLACE_EXISTING);
+    Map<String, byte[]> before = new HashMap<>();
+    for (File f : state.toFile().listFiles()) {
+      before.put(f.getName(), Files.readAllBytes(f.toPath()));
+    }
+    try {
+      ScriptTools.run(script);
+      Assert.fail("the run should fail");
+    } catch (IOException e) {
+      // expected
+    }
+    // the new state (*.new) is not committed
+    Map<String, byte[]> after = new HashMap<>();
+    for (File f : state.toFile().listFiles()) {
+      if (!f.getName().endsWith(".new")) {
+        after.put(f.getName(), Files.readAllBytes(f.toPath()));
+      }
+    }
+    Assert.assertEquals(before.keySet(), after.keySet());
+    before.forEach((name, content) -> Assert.assertArrayEquals(name, content, after.get(name)));
+
+    // the next run evaluates the appended rows
+    Files.move(saved, stored);
+    Assert.assertEquals(Arrays.asList("a\tb", "a\tc", "a\td", "b\tc", "b\td", "c\td"), ScriptTools.run(script));
+  }
+
+  @Test
+  public void testUnsupportedPlan() throws Exception {
+    new File(DIR).mkdirs();
+    Path edges = Paths.get(DIR, "unsupported_edge");
+    Files.write(edges, "a\tb\nb\tc\n".getBytes(StandardCharsets.UTF_8));
+
+    // the negated relation depends on the file, so every run evaluates everything
+    Program p = Program.read(new ParserReader("edge(X,Y) :~ cat " + edges + "\n" //
+        + "end(Y) :- edge(X,Y). q(X) :- edge(X,Y), not end(X)."));
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(p, "q/1");
+    bc.enableIncremental(Paths.get(DIR, "unsupported_state").toString());
+    String script = bc.compile();
+    Assert.assertFalse(script, script.contains("incremental=1"));
+    Assert.assertEquals(Arrays.asList("a"), ScriptTools.run(script));
+  }
+}
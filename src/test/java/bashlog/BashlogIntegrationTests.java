@@ -1,8 +1,93 @@
 package bashlog;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import bashlog.plan.SemiJoinFilterNode;
+import bashlog.plan.TSVFileNode;
+import common.parser.ParserReader;
+import common.parser.Program;
+import common.plan.node.PlanNode;
+
 public class BashlogIntegrationTests extends common.IntegrationTests {
 
   public BashlogIntegrationTests() {
     super(new BashlogEvaluator("/tmp/bashlog-tests/", true));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testCrossProductInMemory() throws Exception {
+    // the facts are known to be smaller than the file, so they are kept in memory, and nothing is sorted before the output
+    Program p = Program.read(new ParserReader("shirt(X) :~ cat /tmp/bashlog-tests/shirt\n"
+        + "color(\"red\"). color(\"blue\"). outfit(X,Y) :- shirt(X), color(Y)."));
+    String script = BashlogCompiler.prepareQuery(p, "outfit/2").compile();
+    Assert.assertTrue(script, script.contains("while ((getline < ARGV[1]) > 0) r[++n] = $0"));
+    Assert.assertTrue(script, script.contains("print $0 FS r[i]"));
+    Assert.assertFalse(script, script.contains("join "));
+  }
+
+  @Test
+  public void testTmpdir() throws Exception {
+    // commands of bash rules get the TMPDIR of the caller, only the here documents of facts go to the RAM directory
+    Program p = Program.read(new ParserReader("dir(X) :~ echo \"tmpdir=$TMPDIR\"\n"
+        + "fact(\"a\"). q(X) :- dir(X). q(X) :- fact(X)."));
+    String script = BashlogCompiler.prepareQuery(p, "q/1").compile();
+    Assert.assertTrue(script, script.contains("TMPDIR=$shm cat "));
+    Assert.assertEquals(Arrays.asList("a", "tmpdir=" + Optional.ofNullable(System.getenv("TMPDIR")).orElse("")), ScriptTools.run(script));
+  }
+
+  @Test
+  public void testJobSlots() throws Exception {
+    new File("/tmp/bashlog-tests/").mkdirs();
+    Path e = Paths.get("/tmp/bashlog-tests/slots_e"), f = Paths.get("/tmp/bashlog-tests/slots_f");
+    Files.write(e, "a\tb\nb\tc\nc\td\nd\ta\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(f, "a\tc\nc\ta\n".getBytes(StandardCharsets.UTF_8));
+    Program p = Program.read(new ParserReader("e(X,Y) :~ cat " + e + "\n" + "f(X,Y) :~ cat " + f + "\n"
+        + "a(X,Z) :- e(X,Y), e(Y,Z). b(X,Z) :- f(X,Y), e(Y,Z). q(X,Y) :- a(X,Y). q(X,Y) :- b(X,Y). q(X,Y) :- a(Y,X). q(X,Y) :- b(Y,X)."));
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(p, "q/2");
+    bc.setJobSlots(1);
+    String script = bc.compile();
+    // the sorts of the three jobs share the memory only if the jobs can run at the same time
+    Assert.assertTrue(script, Pattern.compile("concurrent_sorts=\\$\\(\\( \\d+ \\+ \\d+ \\* \\(job_slots < 3 \\? job_slots : 3\\) \\)\\)").matcher(script).find());
+    Assert.assertEquals(Arrays.asList("a\tc", "a\td", "b\tc", "b\td", "c\ta", "c\tb", "d\ta", "d\tb"), ScriptTools.run(script));
+  }
+
+  @Test
+  public void testSemiJoinFilter() throws Exception {
+    new File("/tmp/bashlog-tests/").mkdirs();
+    Path member = Paths.get("/tmp/bashlog-tests/semijoin_member"), dept = Paths.get("/tmp/bashlog-tests/semijoin_dept");
+    Files.write(member, "alice\td1\nbob\td2\ncarol\td1\ndave\td3\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(dept, "d1\tu1\nd2\tu2\nd3\tu1\nd4\tu1\n".getBytes(StandardCharsets.UTF_8));
+    // the departments of u1 are selective, so their keys filter the members before the sort join
+    Program p = Program.read(new ParserReader("member(X,D) :~ cat " + member + "\n" + "dept(D,U) :~ cat " + dept + "\n"
+        + "q(X,D) :- member(X,D), dept(D,\"u1\")."));
+    String script = BashlogCompiler.prepareQuery(p, "q/2").compile();
+    Assert.assertTrue(script, script.contains("keys[$0]; if (++n > max)"));
+    Assert.assertEquals(Arrays.asList("alice\td1", "carol\td1", "dave\td3"), ScriptTools.run(script));
+  }
+
+  @Test
+  public void testSemiJoinFilterTooManyKeys() throws Exception {
+    new File("/tmp/bashlog-tests/").mkdirs();
+    Path table = Paths.get("/tmp/bashlog-tests/semijoin_table"), keys = Paths.get("/tmp/bashlog-tests/semijoin_keys");
+    Files.write(table, "a\t1\nb\t2\nc\t3\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(keys, "1\n2\n".getBytes(StandardCharsets.UTF_8));
+    PlanNode filter = new SemiJoinFilterNode(new TSVFileNode(table.toString(), 2), new TSVFileNode(keys.toString(), 1), new int[] { 1 }, 2);
+    Assert.assertEquals(Arrays.asList("a\t1", "b\t2"), ScriptTools.run(new BashlogCompiler(filter).compile()));
+
+    // with more keys than the maximum, all rows pass
+    filter = new SemiJoinFilterNode(new TSVFileNode(table.toString(), 2), new TSVFileNode(keys.toString(), 1), new int[] { 1 }, 1);
+    String script = new BashlogCompiler(filter).compile();
+    Assert.assertTrue(script, script.contains("-v max=1 "));
+    Assert.assertEquals(Arrays.asList("a\t1", "b\t2", "c\t3"), ScriptTools.run(script));
+  }
+}
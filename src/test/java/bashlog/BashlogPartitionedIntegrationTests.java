@@ -0,0 +1,67 @@
+package bashlog;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import common.parser.ParserReader;
+import common.parser.Program;
+
+public class BashlogPartitionedIntegrationTests extends common.IntegrationTests {
+
+  private static final String DIR = "/tmp/bashlog-tests-partitioned/";
+
+  public BashlogPartitionedIntegrationTests() {
+    super(new BashlogEvaluator(DIR, false, bc -> bc.enablePartitionedRecursion(3)));
+  }
+
+  private static final String BUCKETS = "for b in $(seq 0 $((recursion_partitions - 1))); do ";
+
+  private static Path edges(String name, String content) throws Exception {
+    new File(DIR).mkdirs();
+    Path edges = Paths.get(DIR, name);
+    Files.write(edges, content.getBytes(StandardCharsets.UTF_8));
+    return edges;
+  }
+
+  @Test
+  public void testBuckets() throws Exception {
+    // the delta of the first iteration has 4 rows, so every bucket gets rows
+    Path edges = edges("buckets_edge", "a\tb\nb\tc\nc\td\nd\te\n");
+    Program p = Program.read(new ParserReader("edge(X,Y) :~ cat " + edges + "\n" + "tc(X,Y) :- edge(X,Y). tc(X,Z) :- tc(X,Y), edge(Y,Z)."));
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(p, "tc/2");
+    bc.enablePartitionedRecursion(3);
+    String script = bc.compile();
+    Assert.assertTrue(script, script.contains("recursion_partitions=3\n"));
+    Assert.assertTrue(script, script.contains(BUCKETS));
+    // the delta is hash partitioned by its join column, and the edges by theirs, once before the loop
+    Assert.assertTrue(script, script.contains("{ k = $2; l = length(k); "));
+    Assert.assertTrue(script, script.contains("print > ((ENVIRON[\"shm\"] \"/delta"));
+    Assert.assertTrue(script, script.indexOf("print > ((ENVIRON[\"tmp\"] \"/shard") < script.indexOf("while \n"));
+    Assert.assertTrue(script, script.contains("_$b) $tmp/shard"));
+    // the rows of the full relation are removed once, after the buckets
+    Assert.assertEquals(script, 1, script.split("comm -23").length - 1);
+    Assert.assertTrue(script, script.indexOf("comm -23") > script.indexOf("done; for p in $pids"));
+    Assert.assertEquals(Arrays.asList("a\tb", "a\tc", "a\td", "a\te", "b\tc", "b\td", "b\te", "c\td", "c\te", "d\te"), ScriptTools.run(script));
+  }
+
+  @Test
+  public void testNotPartitioned() throws Exception {
+    // the sorted delta is used by two joins, so it is materialized within the loop, which cannot run for several buckets at once
+    Path e = edges("unpartitioned_e", "a\tb\nc\tb\n"), f = edges("unpartitioned_f", "b\td\n");
+    Program p = Program.read(new ParserReader("e(X,Y) :~ cat " + e + "\n" + "f(X,Y) :~ cat " + f + "\n"
+        + "u(X,Y) :- e(X,Y). u(X,Y) :- f(X,Y). tc(X,Y) :- e(X,Y). tc(X,Z) :- tc(X,Y), u(Y,Z). tc(X,Z) :- tc(X,Y), u(Z,Y)."));
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(p, "tc/2");
+    bc.enablePartitionedRecursion(3);
+    String script = bc.compile();
+    Assert.assertTrue(script, script.contains("while \n"));
+    Assert.assertFalse(script, script.contains(BUCKETS));
+    Assert.assertEquals(Arrays.asList("a\ta", "a\tb", "a\tc", "a\td", "c\ta", "c\tb", "c\tc", "c\td"), ScriptTools.run(script));
+  }
+}
@@ -0,0 +1,55 @@
+package bashlog;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import common.parser.ParserReader;
+import common.parser.Program;
+
+public class BashlogProfilingIntegrationTests extends common.IntegrationTests {
+
+  private static final String DIR = "/tmp/bashlog-tests-profile/";
+
+  public BashlogProfilingIntegrationTests() {
+    super(new BashlogEvaluator(DIR, false, bc -> bc.enableProfiling(DIR + "profile.log")));
+  }
+
+  /** The line of the explained plan that contains the operator */
+  private static String line(String explained, String operator) {
+    return Arrays.stream(explained.split("\n")).filter(l -> l.contains(operator)).findFirst().orElseThrow(AssertionError::new);
+  }
+
+  @Test
+  public void testExplain() throws Exception {
+    new File(DIR).mkdirs();
+    Path edges = Paths.get(DIR, "explain_edge"), log = Paths.get(DIR, "explain.log");
+    Files.write(edges, "a\tb\nb\tc\nc\td\n".getBytes(StandardCharsets.UTF_8));
+    Files.deleteIfExists(log);
+
+    Program p = Program.read(new ParserReader("edge(X,Y) :~ cat " + edges + "\n" + "q(X,Z) :- edge(X,Y), edge(Y,Z), not stop(Z). stop(\"c\")."));
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(p, "q/2");
+    bc.enableProfiling(log.toString());
+    Assert.assertEquals(Arrays.asList("b\td"), ScriptTools.run(bc.compile()));
+
+    // the plan, then one line per command: id, rows, bytes, seconds
+    List<String> lines = Files.readAllLines(log, StandardCharsets.UTF_8);
+    Assert.assertTrue(lines.get(0).startsWith("# "));
+    Assert.assertTrue(lines.stream().filter(l -> !l.startsWith("#")).allMatch(l -> l.matches("[0-9.]+\t\\d+\t\\d+\t\\d+\\.\\d{3}")));
+
+    String explained = Profile.read(log.toString()).explain();
+    Assert.assertTrue(explained, line(explained, "sort_{null}").contains("(rows 1, bytes 4, "));
+    Assert.assertTrue(explained, line(explained, "_sort_{1=0} out [0, 3]").contains("(rows 2, bytes 8, "));
+    Assert.assertTrue(explained, line(explained, "_sort_{1=0} out [0, 3]").endsWith(", in 6)"));
+    Assert.assertTrue(explained, line(explained, "fact [c]").contains("(rows 1, "));
+    // the file is only read by the materialization, which is not measured itself
+    Assert.assertFalse(explained, line(explained, "bash: [cat").contains("rows"));
+  }
+}
@@ -0,0 +1,63 @@
+package bashlog;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import common.parser.ParserReader;
+import common.parser.Program;
+
+public class BashlogRecursionRunsIntegrationTests extends common.IntegrationTests {
+
+  private static final String DIR = "/tmp/bashlog-tests-runs/";
+
+  public BashlogRecursionRunsIntegrationTests() {
+    super(new BashlogEvaluator(DIR, false, bc -> bc.enableRecursionRuns(2)));
+  }
+
+  /** Closure of a chain of n nodes, which needs n - 1 iterations */
+  private static String chainClosure(int n) throws Exception {
+    new File(DIR).mkdirs();
+    Path edges = Paths.get(DIR, "chain_edge");
+    StringBuilder sb = new StringBuilder();
+    for (int i = 1; i < n; i++) {
+      sb.append(i - 1).append("\t").append(i).append("\n");
+    }
+    Files.write(edges, sb.toString().getBytes(StandardCharsets.UTF_8));
+    Program p = Program.read(new ParserReader("edge(X,Y) :~ cat " + edges + "\n" + "tc(X,Y) :- edge(X,Y). tc(X,Z) :- tc(X,Y), edge(Y,Z)."));
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(p, "tc/2");
+    bc.enableRecursionRuns(2);
+    return bc.compile();
+  }
+
+  @Test
+  public void testMergeAtFanIn() throws Exception {
+    String script = chainClosure(3);
+    int start = script.indexOf("lsm_add() {");
+    Assert.assertTrue(script, start >= 0);
+    String lsmAdd = script.substring(start, script.indexOf("}\n\n", start) + 2);
+
+    // after 5 runs with fan-in 2: runs 1 and 2 were merged into tier 1, then with runs 3 and 4 into tier 2
+    Path dir = Paths.get(DIR, "lsm");
+    Files.createDirectories(dir);
+    List<String> files = ScriptTools.run("sort=sort\nlsm_fanin=2\n" + lsmAdd + "cd " + dir + " && rm -f full*\n"
+        + "for i in 1 2 3 4 5; do echo $i > delta; lsm_add full delta $i; done\n" + "ls full*; cat full.t2.4");
+    Assert.assertEquals(Arrays.asList("full.t0.5", "full.t2.4", "1", "2", "3", "4"), files);
+  }
+
+  @Test
+  public void testManyTiers() throws Exception {
+    // the exit relation and the deltas of 299 iterations are 300 runs, which cascade up to tier 8
+    List<String> result = ScriptTools.run(chainClosure(300));
+    Assert.assertEquals(300 * 299 / 2, result.size());
+    Assert.assertEquals(result.size(), result.stream().distinct().count());
+    Assert.assertTrue(result.contains("0\t299"));
+  }
+}
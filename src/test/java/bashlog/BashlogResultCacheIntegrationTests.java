@@ -0,0 +1,126 @@
+package bashlog;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import common.parser.ParserReader;
+import common.parser.Program;
+
+public class BashlogResultCacheIntegrationTests extends common.IntegrationTests {
+
+  private static final String DIR = "/tmp/bashlog-tests-cache/";
+
+  public BashlogResultCacheIntegrationTests() {
+    super(new BashlogEvaluator(DIR, false, bc -> bc.enableResultCache(DIR + "cache", 100)));
+  }
+
+  private static void clear(Path dir) {
+    for (File f : Optional.ofNullable(dir.toFile().listFiles()).orElse(new File[0])) {
+      f.delete();
+    }
+  }
+
+  @Test
+  public void testReuse() throws Exception {
+    new File(DIR).mkdirs();
+    Path edges = Paths.get(DIR, "reuse_edge");
+    Path cache = Paths.get(DIR, "reuse_cache");
+    Files.write(edges, "a\tb\nb\tc\n".getBytes(StandardCharsets.UTF_8));
+    clear(cache);
+
+    String rules = "edge(X,Y) :~ cat " + edges + "\n" + "tc(X,Y) :- edge(X,Y). tc(X,Z) :- tc(X,Y), edge(Y,Z). ";
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(Program.read(new ParserReader(rules)), "tc/2");
+    bc.enableResultCache(cache.toString(), 100);
+    String script = bc.compile();
+    Assert.assertEquals(Arrays.asList("a\tb", "a\tc", "b\tc"), ScriptTools.run(script));
+    Set<String> cached = new HashSet<>(Arrays.asList(cache.toFile().list()));
+    Assert.assertFalse(cached.isEmpty());
+
+    // the second run takes the closure from the cache
+    Assert.assertEquals(Arrays.asList("a\tb", "a\tc", "b\tc"), ScriptTools.run(script));
+    Assert.assertEquals(cached, new HashSet<>(Arrays.asList(cache.toFile().list())));
+
+    // so does another program with the same closure
+    bc = BashlogCompiler.prepareQuery(Program.read(new ParserReader(rules + "r(X) :- tc(X,Y), edge(Y,\"c\").")), "r/1");
+    bc.enableResultCache(cache.toString(), 100);
+    Assert.assertEquals(Arrays.asList("a"), ScriptTools.run(bc.compile()));
+    Assert.assertTrue(Arrays.asList(cache.toFile().list()).containsAll(cached));
+
+    // a changed input file gets new cache entries
+    Files.write(edges, "a\tb\nb\td\n".getBytes(StandardCharsets.UTF_8));
+    Assert.assertEquals(Arrays.asList("a\tb", "a\td", "b\td"), ScriptTools.run(script));
+    Assert.assertFalse(cached.containsAll(Arrays.asList(cache.toFile().list())));
+  }
+
+  @Test
+  public void testFailingCommand() throws Exception {
+    new File(DIR).mkdirs();
+    Path edges = Paths.get(DIR, "failing_edge");
+    Path cache = Paths.get(DIR, "failing_cache");
+    Files.deleteIfExists(edges);
+    clear(cache);
+
+    // reading the missing input file fails
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(Program.read(new ParserReader("edge(X,Y) :~ cat " + edges + "\n"
+        + "tc(X,Y) :- edge(X,Y). tc(X,Z) :- tc(X,Y), edge(Y,Z).")), "tc/2");
+    bc.enableResultCache(cache.toString(), 100);
+    try {
+      ScriptTools.run(bc.compile());
+    } catch (IOException e) {
+      // the script may fail, as the relation is removed
+    }
+    Assert.assertEquals(0, cache.toFile().list().length);
+  }
+
+  @Test
+  public void testUnorderedRun() throws Exception {
+    new File(DIR).mkdirs();
+    Path a = Paths.get(DIR, "unordered_a"), b = Paths.get(DIR, "unordered_b"), c = Paths.get(DIR, "unordered_c");
+    Path cache = Paths.get(DIR, "unordered_cache");
+    Files.write(a, "a\t1\nm\t2\nz\t3\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(b, "b\t1\nc\t2\nd\t9\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(c, "a\t1\tP\nb\t1\tQ\nm\t2\tR\nc\t2\tS\nz\t3\tT\n".getBytes(StandardCharsets.UTF_8));
+    clear(cache);
+
+    // the union is materialized, and joined on both columns
+    Program p = Program.read(new ParserReader("a(X,Y) :~ cat " + a + "\n" + "b(X,Y) :~ cat " + b + "\n" + "c(X,Y,Z) :~ cat " + c + "\n"
+        + "u(X,Y) :- a(X,Y). u(X,Y) :- b(X,Y). q(X,Y,Z) :- u(X,Y), c(X,Y,Z). q(X,Y,Z) :- u(X,Y), u(Z,Y)."));
+    List<String> expected = Arrays.asList("a\t1\tP", "a\t1\ta", "a\t1\tb", "b\t1\tQ", "b\t1\ta", "b\t1\tb", "c\t2\tS", "c\t2\tc", "c\t2\tm",
+        "d\t9\td", "m\t2\tR", "m\t2\tc", "m\t2\tm", "z\t3\tT", "z\t3\tz");
+
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(p, "q/3");
+    bc.enableResultCache(cache.toString(), 100);
+    bc.enableUnorderedOutput(1000);
+    List<String> unordered = ScriptTools.run(bc.compile());
+    Collections.sort(unordered);
+    Assert.assertEquals(expected, unordered);
+
+    // the relations of the unordered run are not sorted, so the ordered run cannot use them
+    bc = BashlogCompiler.prepareQuery(p, "q/3");
+    bc.enableResultCache(cache.toString(), 100);
+    Assert.assertEquals(expected, ScriptTools.run(bc.compile()));
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    new File(DIR).mkdirs();
+    Path edges = Paths.get(DIR, "eviction_edge");
+    Path cache = Paths.get(DIR, "eviction_cache");
+    Files.write(edges, "a\tb\nb\tc\n".getBytes(StandardCharsets.UTF_8));
+    clear(cache);
+
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(Program.read(new ParserReader("edge(X,Y) :~ cat " + edges + "\n"
+        + "tc(X,Y) :- edge(X,Y). tc(X,Z) :- tc(X,Y), edge(Y,Z).")), "tc/2");
+    bc.enableResultCache(cache.toString(), 0);
+    Assert.assertEquals(Arrays.asList("a\tb", "a\tc", "b\tc"), ScriptTools.run(bc.compile()));
+    Assert.assertEquals(0, cache.toFile().list().length);
+  }
+}
@@ -0,0 +1,74 @@
+package bashlog;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import common.parser.ParserReader;
+import common.parser.Program;
+
+public class BashlogStreamingIntegrationTests extends common.IntegrationTests {
+
+  private static final String DIR = "/tmp/bashlog-tests-streaming/";
+
+  public BashlogStreamingIntegrationTests() {
+    super(new BashlogEvaluator(DIR, false, bc -> bc.enableStreamingMaterialization()));
+  }
+
+  /** Inputs, a union u of two of them, and the given rules, which read u twice */
+  private static Program program(String rules) throws Exception {
+    new File(DIR).mkdirs();
+    Path a = Paths.get(DIR, "stream_a"), b = Paths.get(DIR, "stream_b"), c = Paths.get(DIR, "stream_c"), d = Paths.get(DIR, "stream_d");
+    Files.write(a, "x1\ty1\tz1\nx2\ty2\tz2\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(b, "x3\ty1\tz3\nz1\ty9\ty1\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(c, "y1\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(d, "z2\nz3\n".getBytes(StandardCharsets.UTF_8));
+    return Program.read(new ParserReader("a(X,Y,Z) :~ cat " + a + "\n" + "b(X,Y,Z) :~ cat " + b + "\n" + "c(X) :~ cat " + c + "\n"
+        + "d(X) :~ cat " + d + "\n" + "u(X,Y,Z) :- a(X,Y,Z). u(X,Y,Z) :- b(X,Y,Z). " + rules));
+  }
+
+  private static final String SORT_CONSUMERS = "q(X,Y,Z) :- u(X,Y,Z), c(Y). q(X,Y,Z) :- u(X,Y,Z), d(Z).";
+
+  private static final List<String> SORT_CONSUMERS_RESULT = Arrays.asList("x1\ty1\tz1", "x2\ty2\tz2", "x3\ty1\tz3");
+
+  @Test
+  public void testStreamed() throws Exception {
+    // both consumers sort u, by different columns
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(program(SORT_CONSUMERS), "q/3");
+    bc.enableStreamingMaterialization();
+    String script = bc.compile();
+    Assert.assertTrue(script, script.contains("mkfifo "));
+    Assert.assertTrue(script, script.contains(" | tee "));
+    Assert.assertFalse(script, script.contains("job_mat"));
+    Assert.assertEquals(SORT_CONSUMERS_RESULT, ScriptTools.run(script));
+  }
+
+  @Test
+  public void testConsumerInRecursion() throws Exception {
+    // the recursion reads u in every iteration, so u is written to a file
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(program("q(X,Y,Z) :- u(X,Y,Z), c(Y). q(X,Y,Z) :- q(X,W,Y), u(Y,Z,W)."), "q/3");
+    bc.enableStreamingMaterialization();
+    String script = bc.compile();
+    Assert.assertFalse(script, script.contains("mkfifo"));
+    Assert.assertTrue(script, script.contains("job_mat"));
+    Assert.assertEquals(Arrays.asList("x1\ty1\tz1", "x1\tz1\ty9", "x3\ty1\tz3"), ScriptTools.run(script));
+  }
+
+  @Test
+  public void testConsumerAdaptiveJoin() throws Exception {
+    // adaptive joins check the size of their inputs, which is not possible for named pipes
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(program(SORT_CONSUMERS), "q/3");
+    bc.enableStreamingMaterialization();
+    bc.enableAdaptiveJoin(10);
+    String script = bc.compile();
+    Assert.assertFalse(script, script.contains("mkfifo"));
+    Assert.assertEquals(SORT_CONSUMERS_RESULT, ScriptTools.run(script));
+  }
+}
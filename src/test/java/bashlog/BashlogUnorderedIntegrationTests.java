@@ -0,0 +1,28 @@
+package bashlog;
+
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import common.parser.ParserReader;
+import common.parser.Program;
+
+public class BashlogUnorderedIntegrationTests extends common.IntegrationTests {
+
+  public BashlogUnorderedIntegrationTests() {
+    // small hash tables, so that the deduplication also falls back to sort
+    super(new BashlogEvaluator("/tmp/bashlog-tests-unordered/", false, bc -> bc.enableUnorderedOutput(2)));
+  }
+
+  @Test
+  public void testStreamedRecursion() throws Exception {
+    Program p = Program.read(new ParserReader("edge(X,Y) :~ cat /tmp/bashlog-tests-unordered/edge\n"
+        + "tc(X,Y) :- edge(X,Y). tc(X,Z) :- tc(X,Y), edge(Y,Z)."));
+    BashlogCompiler bc = BashlogCompiler.prepareQuery(p, "tc/2");
+    bc.enableUnorderedOutput(2);
+    String script = bc.compile();
+    // every iteration outputs its delta, instead of the full relation at the end
+    Assert.assertTrue(script, Pattern.compile("^cat \\S+/delta\\d+ ;", Pattern.MULTILINE).matcher(script).find());
+  }
+}
@@ -0,0 +1,34 @@
+package bashlog;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+/** Runs compiled scripts in tests */
+public class ScriptTools {
+
+  /** Run a script with bash (its errors go to stderr), and return the lines of its output; fails if the script fails */
+  public static List<String> run(String script) throws IOException, InterruptedException {
+    Path file = Files.createTempFile("bashlog-script-", ".sh");
+    try {
+      Files.write(file, script.getBytes(StandardCharsets.UTF_8));
+      Process proc = new ProcessBuilder("/bin/bash", file.toString()).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+      List<String> result = new ArrayList<>();
+      Scanner scanner = new Scanner(proc.getInputStream(), "UTF-8");
+      while (scanner.hasNextLine()) {
+        result.add(scanner.nextLine());
+      }
+      int exitCode = proc.waitFor();
+      if (exitCode != 0) {
+        throw new IOException("script " + file + " exited with status " + exitCode);
+      }
+      return result;
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+}
@@ -60,6 +60,69 @@ public abstract class IntegrationTests {
     Assert.assertEquals(2, result.getByRelation("people/1").count());
   }
 
+  @Test
+  public void testJoinFacts() throws Exception {
+    Program program = Program.read(new ParserReader(
+            "color(\"red\"). color(\"blue\"). colored(X) :- thing(X, C), color(C). uncolored(X) :- thing(X, C), not color(C). "
+    ));
+    SimpleFactsSet facts = new SimpleFactsSet();
+    facts.add("thing/2", "ball", "red");
+    facts.add("thing/2", "car", "blue");
+    facts.add("thing/2", "car", "red");
+    facts.add("thing/2", "tree", "green");
+
+    FactsSet result = eval.evaluate(program, facts, Tools.set("colored/1", "uncolored/1"));
+    Assert.assertEquals(2, result.getByRelation("colored/1").count());
+    Assert.assertEquals(1, result.getByRelation("uncolored/1").count());
+  }
+
+  @Test
+  public void testJoinTwoColumnsWithFilter() throws Exception {
+    Program program = Program.read(new ParserReader("loop(X) :- edge(X,Y,Y), label(Y,Y). tagged(X,L) :- edge(X,Y,Z), label(Z,Y), tag(Y,L)."));
+    SimpleFactsSet facts = new SimpleFactsSet();
+    facts.add("edge/3", "a", "b", "b");
+    facts.add("edge/3", "b", "c", "c");
+    facts.add("edge/3", "c", "c", "d");
+    facts.add("label/2", "b", "b");
+    facts.add("label/2", "d", "c");
+    facts.add("tag/2", "c", "x");
+
+    FactsSet result = eval.evaluate(program, facts, Tools.set("loop/1", "tagged/2"));
+    Assert.assertEquals(1, result.getByRelation("loop/1").count());
+    Assert.assertEquals(1, result.getByRelation("tagged/2").count());
+  }
+
+  @Test
+  public void testRestrictionsOfOneRelation() throws Exception {
+    Program program = Program.read(new ParserReader("p(X,Z) :- edge(X,\"n6\"), edge(\"n41\",Z)."));
+    SimpleFactsSet facts = new SimpleFactsSet();
+    facts.add("edge/2", "n1", "n6");
+    facts.add("edge/2", "n2", "n6");
+    facts.add("edge/2", "n41", "n7");
+    facts.add("edge/2", "n41", "n8");
+    facts.add("edge/2", "n3", "n4");
+
+    FactsSet result = eval.evaluate(program, facts, Tools.set("p/2"));
+    Assert.assertEquals(4, result.getByRelation("p/2").count());
+    Assert.assertEquals(2, result.getByRelation("p/2").filter(row -> row[0].equals("n1")).count());
+  }
+
+  @Test
+  public void testCrossProduct() throws Exception {
+    Program program = Program.read(new ParserReader("outfit(X,Y) :- shirt(X), color(Y). plain(X,Y) :- shirt(X), color(Y), pattern(Y,\"none\")."));
+    SimpleFactsSet facts = new SimpleFactsSet();
+    facts.add("shirt/1", "polo");
+    facts.add("shirt/1", "tee");
+    facts.add("shirt/1", "henley");
+    facts.add("color/1", "red");
+    facts.add("color/1", "blue");
+    facts.add("pattern/2", "red", "dots");
+
+    FactsSet result = eval.evaluate(program, facts, Tools.set("outfit/2", "plain/2"));
+    Assert.assertEquals(6, result.getByRelation("outfit/2").count());
+    Assert.assertEquals(0, result.getByRelation("plain/2").count());
+  }
+
   @Test
   public void testLinearClosure() throws Exception {
     Program program = Program.read(new ParserReader(
@@ -90,6 +153,23 @@ public abstract class IntegrationTests {
     Assert.assertEquals(6, result.getByRelation("ancestor/2").count());
   }
 
+  @Test
+  public void testUnionOfClosures() throws Exception {
+    Program program = Program.read(new ParserReader(
+            "ancestor(X,Y) :- parent(X,Y). ancestor(X,Z) :- ancestor(X,Y), parent(Y,Z). "
+                    + "descendant(X,Y) :- parent(Y,X). descendant(X,Z) :- descendant(X,Y), parent(Z,Y). "
+                    + "related(X,Y) :- ancestor(X,Y). related(X,Y) :- descendant(X,Y)."
+    ));
+    SimpleFactsSet facts = new SimpleFactsSet();
+    facts.add("parent/2", "bob", "alice");
+    facts.add("parent/2", "alice", "charly");
+    facts.add("parent/2", "charly", "alice");
+
+    FactsSet result = eval.evaluate(program, facts, Tools.set("related/2"));
+
+    Assert.assertEquals(8, result.getByRelation("related/2").count());
+  }
+
   @Test
   public void testSize2Loop() throws Exception {
     Program program = Program.read(new ParserReader(
@@ -219,4 +299,22 @@ public abstract class IntegrationTests {
     FactsSet result = eval.evaluate(program, facts, Tools.set("a/1"));
     Assert.assertEquals(2, result.getByRelation("a/1").count());
   }
+
+  @Test
+  public void declaredKeys() throws Exception {
+    Program program = Program.read(new ParserReader("@key(label(X, L), X). @key(born(X, B), X). "
+        + "both(X, L, B, L2) :- label(X, L), born(X, B), label(X, L2). name(X, L) :- label(X, L), born(X, B). "
+        + "kind(X, \"label\") :- label(X, L). kind(X, \"born\") :- born(X, B)."));
+    SimpleFactsSet facts = new SimpleFactsSet();
+    facts.add("label/2", "alice", "Alice");
+    facts.add("label/2", "bob", "Bob");
+    facts.add("born/2", "alice", "1990");
+    facts.add("born/2", "charly", "1980");
+
+    FactsSet result = eval.evaluate(program, facts, Tools.set("both/4", "name/2", "kind/2"));
+    Assert.assertEquals(1, result.getByRelation("both/4").count());
+    Assert.assertEquals("Alice", result.getByRelation("both/4").findFirst().get()[3]);
+    Assert.assertEquals(1, result.getByRelation("name/2").count());
+    Assert.assertEquals(4, result.getByRelation("kind/2").count());
+  }
 }
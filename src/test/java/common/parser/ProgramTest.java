@@ -15,4 +15,12 @@ public class ProgramTest {
     Assert.assertTrue(program.hasAncestor("b/2", "b/2"));
     Assert.assertTrue(program.hasAncestor("b/2", "a/2"));
   }
+
+  @Test
+  public void testKeys() {
+    Program program = Program.read(new ParserReader("@key(edge(X, Y, Z), Y, X). % comment\n out(X) :- edge(X, Y, Z). @key(out(X), X)."));
+    Assert.assertEquals(1, program.rules().size());
+    Assert.assertArrayEquals(new int[] { 1, 0 }, program.keys().get("edge/3").get(0));
+    Assert.assertArrayEquals(new int[] { 0 }, program.copy().keys().get("out/1").get(0));
+  }
 }
@@ -4,6 +4,7 @@ import common.parser.CompoundTerm;
 import common.parser.TermList;
 import common.parser.Variable;
 import common.plan.node.BuiltinNode;
+import common.plan.node.FactNode;
 import common.plan.node.MaterializationNode;
 import common.plan.node.PlanNode;
 import common.plan.node.RecursionNode;
@@ -11,7 +12,14 @@ import common.plan.optimizer.*;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.TreeSet;
 
 public class PlanNodeTest {
 
@@ -325,6 +333,46 @@ public class PlanNodeTest {
         );
   }
 
+  @Test
+  public void testJoinReorderStatistics() {
+    List<FactNode> facts = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      facts.add(new FactNode("a" + i, "b" + i));
+    }
+    PlanNode big = new FactNode(facts);
+    PlanNode small = new FactNode(Arrays.asList(new FactNode("b1", "c"), new FactNode("b2", "c")));
+
+    Optimizer optimizer = new ReorderJoinLinear(new Statistics(null));
+    assertEquals(
+        small.join(big, new int[] { 0 }, new int[] { 1 }).project(new int[] { 2, 3, 0, 1 }), //
+        optimizer.apply(big.join(small, new int[] { 1 }, new int[] { 0 })));
+  }
+
+  @Test
+  public void testStatisticsSample() throws IOException {
+    File dir = new File("/tmp/bashlog-tests-statistics");
+    File file = new File(dir, "input.tsv"), cache = new File(dir, "cache");
+    dir.mkdirs();
+    try (PrintWriter writer = new PrintWriter(file)) {
+      for (int i = 0; i < 400_000; i++) {
+        writer.print("k" + i + "\tv" + (i % 10) + "\n");
+      }
+    }
+    for (File f : cache.exists() ? cache.listFiles() : new File[0]) {
+      f.delete();
+    }
+
+    // the file is too large to be read completely, so the row count is estimated from the sample
+    Statistics.Stats stats = new Statistics(cache.getPath()).get(file.getPath(), 2);
+    Assert.assertTrue(file.length() > Statistics.EXACT_MAX_BYTES);
+    Assert.assertEquals(400_000, stats.rows, 20_000);
+    Assert.assertEquals(10, stats.distinct[1], 0.1);
+    // the statistics are cached in their directory, not next to the input
+    Assert.assertEquals(new TreeSet<>(Arrays.asList("cache", "input.tsv")), new TreeSet<>(Arrays.asList(dir.list())));
+    Assert.assertEquals(1, cache.list().length);
+    Assert.assertEquals((long) stats.rows, (long) new Statistics(cache.getPath()).get(file.getPath(), 2).rows);
+  }
+
   private static void assertEquals(PlanNode expected, PlanNode actual) {
     if (!Objects.equals(expected, actual)) {
       System.out.println("expected:");